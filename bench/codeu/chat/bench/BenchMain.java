@@ -0,0 +1,213 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import codeu.chat.util.SerializersBenchmarks;
+import codeu.chat.util.TimelineBenchmarks;
+import codeu.chat.util.UuidBenchmarks;
+import codeu.chat.util.store.StoreBenchmarks;
+
+// BENCH MAIN
+//
+// Runs the benchmark suite and writes the results as JSON and/or CSV so that
+// runs can be compared between releases.
+//
+// Usage: BenchMain [ options ]
+//   --filter <text>     : only run benchmarks whose name contains the text.
+//   --sizes <n,n,...>   : store sizes (default 1000,10000,100000,1000000).
+//                         10000000 needs a few GB of heap (-Xmx4g).
+//   --warmups <n>       : warm up iterations per benchmark (default 3).
+//   --iterations <n>    : measured iterations per benchmark (default 5).
+//   --time-ms <n>       : minimum time per iteration (default 500).
+//   --json <file>       : write the results as JSON.
+//   --csv <file>        : write the results as CSV.
+//   --compare <file>    : compare against the JSON results of an earlier run
+//                         and exit with 1 if anything got slower by more than
+//                         the threshold.
+//   --threshold <pct>   : what counts as slower (default 10).
+//
+// Results are always printed as a table as well.
+public final class BenchMain {
+
+  // The results file.
+  private static final class Report {
+    public String javaVersion;
+    public String vm;
+    public String os;
+    public int processors;
+    public long timeMs;
+    public List<Harness.Result> results;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    String filter = "";
+    int[] sizes = { 1000, 10000, 100000, 1000000 };
+    int warmups = 3;
+    int iterations = 5;
+    long timeMs = 500;
+    String json = null;
+    String csv = null;
+    String compare = null;
+    double threshold = 10;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--filter": filter = args[++i]; break;
+        case "--sizes": sizes = parseSizes(args[++i]); break;
+        case "--warmups": warmups = Integer.parseInt(args[++i]); break;
+        case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+        case "--time-ms": timeMs = Long.parseLong(args[++i]); break;
+        case "--json": json = args[++i]; break;
+        case "--csv": csv = args[++i]; break;
+        case "--compare": compare = args[++i]; break;
+        case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    final List<Benchmark> benchmarks = new ArrayList<>();
+    benchmarks.addAll(StoreBenchmarks.all(sizes));
+    benchmarks.addAll(UuidBenchmarks.all());
+    benchmarks.addAll(SerializersBenchmarks.all());
+    benchmarks.addAll(TimelineBenchmarks.all());
+
+    final Harness harness = new Harness(warmups, iterations, timeMs);
+    final Report report = new Report();
+
+    report.javaVersion = System.getProperty("java.version");
+    report.vm = System.getProperty("java.vm.name");
+    report.os = System.getProperty("os.name") + " " + System.getProperty("os.arch");
+    report.processors = Runtime.getRuntime().availableProcessors();
+    report.timeMs = System.currentTimeMillis();
+    report.results = new ArrayList<>();
+
+    System.out.format("%-60s %16s %12s %12s\n", "BENCHMARK", "OPS/S", "+/-", "NS/OP");
+
+    for (final Benchmark benchmark : benchmarks) {
+      if (benchmark.name.contains(filter)) {
+        final Harness.Result result = harness.measure(benchmark);
+        report.results.add(result);
+        System.out.format("%-60s %16.1f %12.1f %12.2f\n",
+                          result.key(),
+                          result.opsPerSecond,
+                          result.stdDev,
+                          result.nsPerOp);
+      }
+    }
+
+    final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    if (json != null) {
+      try (final Writer out = new FileWriter(json)) {
+        gson.toJson(report, out);
+      }
+    }
+
+    if (csv != null) {
+      writeCsv(csv, report.results);
+    }
+
+    if (compare != null) {
+      final Report old;
+      try (final Reader in = new FileReader(compare)) {
+        old = gson.fromJson(in, Report.class);
+      }
+      if (!compare(old.results, report.results, threshold)) {
+        System.exit(1);
+      }
+    }
+  }
+
+  private static int[] parseSizes(String text) {
+    final String[] parts = text.split(",");
+    final int[] sizes = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      sizes[i] = Integer.parseInt(parts[i].trim());
+    }
+    return sizes;
+  }
+
+  private static void writeCsv(String file, List<Harness.Result> results) throws IOException {
+    try (final PrintWriter out = new PrintWriter(new FileWriter(file))) {
+      out.println("benchmark,params,iterations,ops_per_second,std_dev,min,max,ns_per_op");
+      for (final Harness.Result result : results) {
+        out.format("%s,\"%s\",%d,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+                   result.benchmark,
+                   result.params,
+                   result.iterations,
+                   result.opsPerSecond,
+                   result.stdDev,
+                   result.min,
+                   result.max,
+                   result.nsPerOp);
+      }
+    }
+  }
+
+  // Print the change for every benchmark in both runs. Returns false if any
+  // got slower by more than the threshold (in percent).
+  private static boolean compare(List<Harness.Result> before,
+                                 List<Harness.Result> after,
+                                 double threshold) {
+
+    final Map<String, Harness.Result> old = new HashMap<>();
+    for (final Harness.Result result : before) {
+      old.put(result.key(), result);
+    }
+
+    boolean passed = true;
+
+    System.out.println();
+    System.out.format("%-60s %10s\n", "BENCHMARK", "CHANGE");
+
+    for (final Harness.Result result : after) {
+
+      final Harness.Result was = old.get(result.key());
+
+      if (was == null || was.opsPerSecond == 0) {
+        continue;
+      }
+
+      final double change = (result.opsPerSecond - was.opsPerSecond) * 100 / was.opsPerSecond;
+      final boolean regressed = change < -threshold;
+
+      System.out.format("%-60s %+9.1f%%%s\n",
+                        result.key(),
+                        change,
+                        regressed ? "  REGRESSION" : "");
+
+      passed &= !regressed;
+    }
+
+    return passed;
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// BENCHMARK
+//
+// One thing to measure. The harness calls "setUp" once, then "run" over and
+// over for the warm up and measured iterations, then "tearDown". Each call to
+// "run" does a batch of operations and returns how many it did, so that cheap
+// operations are not swamped by the cost of calling "run".
+//
+// Anything a benchmark computes should be given to the sink, otherwise the JIT
+// may see that it is never used and skip computing it.
+public abstract class Benchmark {
+
+  public final String name;
+
+  private final Map<String, String> params = new LinkedHashMap<>();
+
+  protected Benchmark(String name) {
+    this.name = name;
+  }
+
+  // PARAM
+  //
+  // Describe a variant of the benchmark (like the size of a store). Results
+  // are matched between runs by name and params.
+  public Benchmark param(String key, Object value) {
+    params.put(key, String.valueOf(value));
+    return this;
+  }
+
+  public Map<String, String> params() {
+    return Collections.unmodifiableMap(params);
+  }
+
+  public void setUp() throws Exception { }
+
+  public abstract long run(Sink sink) throws Exception;
+
+  public void tearDown() throws Exception { }
+
+  // SINK
+  //
+  // Takes values so that the JIT can not prove they are unused. The values are
+  // folded into a field that is read once at the end of the run.
+  public static final class Sink {
+
+    private long state = 0;
+
+    public void consume(long value) {
+      state = state * 31 + value;
+    }
+
+    public void consume(boolean value) {
+      consume(value ? 1 : 0);
+    }
+
+    public void consume(Object value) {
+      consume(value == null ? 0 : System.identityHashCode(value));
+    }
+
+    long state() {
+      return state;
+    }
+  }
+}
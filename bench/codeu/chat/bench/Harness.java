@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// HARNESS
+//
+// Runs a benchmark the way JMH would in a single fork: some warm up iterations
+// so the JIT has compiled the code, then measured iterations. Each iteration
+// calls "run" until at least "iterationMs" has passed and counts the
+// operations done. The result is the mean operations per second over the
+// measured iterations, along with their spread.
+public final class Harness {
+
+  public final int warmups;
+  public final int iterations;
+  public final long iterationMs;
+
+  public Harness(int warmups, int iterations, long iterationMs) {
+    this.warmups = warmups;
+    this.iterations = iterations;
+    this.iterationMs = iterationMs;
+  }
+
+  // RESULT
+  //
+  // What is written to the results file. Field names are part of the file
+  // format, change them only with care.
+  public static final class Result {
+
+    public String benchmark;
+    public Map<String, String> params;
+    public int iterations;
+    public double opsPerSecond;
+    public double stdDev;
+    public double min;
+    public double max;
+    public double nsPerOp;
+
+    // The name and params together, used to match results between runs.
+    public String key() {
+      return params.isEmpty() ? benchmark : benchmark + params;
+    }
+  }
+
+  public Result measure(Benchmark benchmark) throws Exception {
+
+    final Benchmark.Sink sink = new Benchmark.Sink();
+    final double[] rates = new double[iterations];
+
+    benchmark.setUp();
+
+    try {
+
+      for (int i = 0; i < warmups; i++) {
+        iteration(benchmark, sink);
+      }
+
+      for (int i = 0; i < iterations; i++) {
+        rates[i] = iteration(benchmark, sink);
+      }
+
+    } finally {
+      benchmark.tearDown();
+    }
+
+    // Using the sink's state keeps everything given to it alive.
+    if (sink.state() == 42) {
+      System.err.print("");
+    }
+
+    double sum = 0;
+    double min = Double.MAX_VALUE;
+    double max = 0;
+
+    for (final double rate : rates) {
+      sum += rate;
+      min = Math.min(min, rate);
+      max = Math.max(max, rate);
+    }
+
+    final double mean = sum / rates.length;
+
+    double squares = 0;
+    for (final double rate : rates) {
+      squares += (rate - mean) * (rate - mean);
+    }
+
+    final Result result = new Result();
+
+    result.benchmark = benchmark.name;
+    result.params = new LinkedHashMap<>(benchmark.params());
+    result.iterations = iterations;
+    result.opsPerSecond = mean;
+    result.stdDev = rates.length > 1 ? Math.sqrt(squares / (rates.length - 1)) : 0;
+    result.min = min;
+    result.max = max;
+    result.nsPerOp = mean == 0 ? 0 : 1e9 / mean;
+
+    return result;
+  }
+
+  // Returns operations per second.
+  private double iteration(Benchmark benchmark, Benchmark.Sink sink) throws Exception {
+
+    final long start = System.nanoTime();
+    final long end = start + iterationMs * 1000000;
+
+    long ops = 0;
+    long now;
+
+    do {
+      ops += benchmark.run(sink);
+      now = System.nanoTime();
+    } while (now < end);
+
+    return ops * 1e9 / (now - start);
+  }
+}
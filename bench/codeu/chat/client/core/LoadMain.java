@@ -0,0 +1,597 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.GsonBuilder;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Histogram;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.ServerConnectionSource;
+
+// LOAD MAIN
+//
+// Starts a server on localhost and drives it with simulated clients that use
+// the real client code (Controller and View), then reports the throughput and
+// latency of every operation. Use it to find how much load a server can take
+// before its latency gets out of hand.
+//
+// Usage: LoadMain [ options ]
+//   --clients <n>        : simulated clients, each on its own thread (default 8).
+//   --seconds <n>        : how long to measure for (default 10).
+//   --warmup-seconds <n> : how long to run before measuring (default 2).
+//   --rate <n>           : open loop - start n operations a second in total,
+//                          whether or not earlier ones have finished. Without
+//                          it the run is closed loop - every client starts its
+//                          next operation as soon as its last one finishes.
+//   --mix <op=w,...>     : the weight of each operation (default
+//                          newMessage=60,listMessages=25,statusUpdate=10,
+//                          newConversation=4,newUser=1).
+//   --page <n>           : messages read by a listMessages (default 10).
+//   --subprocess         : run the server as a separate ServerMain process
+//                          instead of in this one.
+//   --port <n>           : the port for the server (default any free port).
+//   --json <file>        : write the results as JSON.
+//
+// In open loop mode the latency of an operation is measured from when it was
+// meant to start, not from when a client got around to starting it. That way
+// time spent queued behind a slow server counts (otherwise a stalled server
+// would hide its own stall by holding back the clients measuring it). If the
+// achieved rate is lower than the one asked for, add clients.
+public final class LoadMain {
+
+  // OPERATION
+  //
+  // The things a simulated client does, named as they are in the mix.
+  private enum Operation {
+
+    NEW_USER("newUser"),
+    NEW_CONVERSATION("newConversation"),
+    NEW_MESSAGE("newMessage"),
+    LIST_MESSAGES("listMessages"),
+    STATUS_UPDATE("statusUpdate");
+
+    public final String text;
+
+    Operation(String text) {
+      this.text = text;
+    }
+
+    public static Operation parse(String text) {
+      for (final Operation operation : values()) {
+        if (operation.text.equals(text)) {
+          return operation;
+        }
+      }
+      throw new IllegalArgumentException("Unknown operation " + text);
+    }
+  }
+
+  // The results file. Times are in microseconds.
+  private static final class Report {
+    public String mode;
+    public int clients;
+    public double rate;
+    public double seconds;
+    public String javaVersion;
+    public int processors;
+    public List<Result> results;
+  }
+
+  private static final class Result {
+    public String operation;
+    public long count;
+    public long errors;
+    public double opsPerSecond;
+    public double meanUs;
+    public long p50Us;
+    public long p99Us;
+    public long p999Us;
+    public long maxUs;
+  }
+
+  // STATS
+  //
+  // What all clients record for one operation. Histogram is safe to record
+  // into from many threads.
+  private static final class Stats {
+    public final Histogram latencyUs = new Histogram();
+    public final AtomicLong errors = new AtomicLong();
+  }
+
+  // SHARED
+  //
+  // Users and conversations created during the run. Clients pick from them at
+  // random so that they post into (and read) each other's conversations. They
+  // are only ever added to.
+  private static final class Shared {
+    public final List<User> users = Collections.synchronizedList(new ArrayList<User>());
+    public final List<ConversationHeader> conversations =
+        Collections.synchronizedList(new ArrayList<ConversationHeader>());
+    public final AtomicLong names = new AtomicLong();
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    int clients = 8;
+    double seconds = 10;
+    double warmupSeconds = 2;
+    double rate = 0;
+    String mix = "newMessage=60,listMessages=25,statusUpdate=10,newConversation=4,newUser=1";
+    int page = 10;
+    boolean subprocess = false;
+    int port = 0;
+    String json = null;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--clients": clients = Integer.parseInt(args[++i]); break;
+        case "--seconds": seconds = Double.parseDouble(args[++i]); break;
+        case "--warmup-seconds": warmupSeconds = Double.parseDouble(args[++i]); break;
+        case "--rate": rate = Double.parseDouble(args[++i]); break;
+        case "--mix": mix = args[++i]; break;
+        case "--page": page = Integer.parseInt(args[++i]); break;
+        case "--subprocess": subprocess = true; break;
+        case "--port": port = Integer.parseInt(args[++i]); break;
+        case "--json": json = args[++i]; break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    final Operation[] choices = parseMix(mix);
+
+    if (port == 0) {
+      port = freePort();
+    }
+
+    final Running server = subprocess ? startSubprocess(port) : startInProcess(port);
+
+    final Map<Operation, Stats> stats = new LinkedHashMap<>();
+    for (final Operation operation : Operation.values()) {
+      stats.put(operation, new Stats());
+    }
+
+    try {
+
+      final ConnectionSource source = new ClientConnectionSource("localhost", port);
+      final Shared shared = new Shared();
+
+      // Every client gets a user and a conversation of its own before the
+      // clock starts so that there is always something to post to.
+      final Controller controller = new Controller(source);
+      for (int i = 0; i < clients; i++) {
+        final User user = controller.newUser("load-user-" + shared.names.incrementAndGet());
+        if (user == null) {
+          throw new IOException("Could not create users on the server");
+        }
+        final ConversationHeader conversation = controller.newConversation(
+            "load-conversation-" + shared.names.incrementAndGet(), user.id);
+        if (conversation == null) {
+          throw new IOException("Could not create conversations on the server");
+        }
+        shared.users.add(user);
+        shared.conversations.add(conversation);
+      }
+
+      final long start = System.nanoTime();
+      final long measureFrom = start + (long) (warmupSeconds * 1e9);
+      final long end = measureFrom + (long) (seconds * 1e9);
+
+      // In open loop mode the arrivals are handed out to the clients in order,
+      // one every "interval" nanoseconds.
+      final AtomicLong arrivals = new AtomicLong();
+      final long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+
+      final List<Thread> threads = new ArrayList<>();
+
+      for (int i = 0; i < clients; i++) {
+
+        final Client client = new Client(source, shared, stats, choices, page, new Random(i));
+
+        threads.add(new Thread(new Runnable() {
+          @Override
+          public void run() {
+
+            while (true) {
+
+              final long intended;
+
+              if (interval > 0) {
+                intended = start + arrivals.getAndIncrement() * interval;
+                if (intended >= end) {
+                  return;
+                }
+                while (System.nanoTime() < intended) {
+                  LockSupport.parkNanos(intended - System.nanoTime());
+                }
+              } else {
+                intended = System.nanoTime();
+                if (intended >= end) {
+                  return;
+                }
+              }
+
+              client.next(intended, intended >= measureFrom);
+            }
+          }
+        }, "load-client-" + i));
+      }
+
+      for (final Thread thread : threads) {
+        thread.start();
+      }
+      for (final Thread thread : threads) {
+        thread.join();
+      }
+
+    } finally {
+      server.close();
+    }
+
+    final Report report = new Report();
+
+    report.mode = rate > 0 ? "open" : "closed";
+    report.clients = clients;
+    report.rate = rate;
+    report.seconds = seconds;
+    report.javaVersion = System.getProperty("java.version");
+    report.processors = Runtime.getRuntime().availableProcessors();
+    report.results = new ArrayList<>();
+
+    System.out.format("%s loop, %d clients%s, %.1f seconds\n",
+                      report.mode,
+                      clients,
+                      rate > 0 ? String.format(", %.1f ops/s asked for", rate) : "",
+                      seconds);
+    System.out.format("%-16s %10s %8s %10s %10s %10s %10s %10s %10s\n",
+                      "OPERATION", "COUNT", "ERRORS", "OPS/S",
+                      "MEAN(ms)", "P50(ms)", "P99(ms)", "P99.9(ms)", "MAX(ms)");
+
+    long total = 0;
+
+    for (final Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+
+      final Histogram latency = entry.getValue().latencyUs;
+
+      if (latency.count() == 0) {
+        continue;
+      }
+
+      final Result result = new Result();
+
+      result.operation = entry.getKey().text;
+      result.count = latency.count();
+      result.errors = entry.getValue().errors.get();
+      result.opsPerSecond = result.count / seconds;
+      result.meanUs = latency.mean();
+      result.p50Us = latency.percentile(50);
+      result.p99Us = latency.percentile(99);
+      result.p999Us = latency.percentile(99.9);
+      result.maxUs = latency.max();
+
+      report.results.add(result);
+      total += result.count;
+
+      System.out.format("%-16s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f\n",
+                        result.operation,
+                        result.count,
+                        result.errors,
+                        result.opsPerSecond,
+                        result.meanUs / 1000.0,
+                        result.p50Us / 1000.0,
+                        result.p99Us / 1000.0,
+                        result.p999Us / 1000.0,
+                        result.maxUs / 1000.0);
+    }
+
+    System.out.format("%-16s %10d %8s %10.1f\n", "total", total, "", total / seconds);
+
+    if (json != null) {
+      try (final Writer out = new FileWriter(json)) {
+        new GsonBuilder().setPrettyPrinting().create().toJson(report, out);
+      }
+    }
+  }
+
+  // CLIENT
+  //
+  // One simulated user. Picks an operation from the mix, does it through the
+  // client library and records how long it took.
+  private static final class Client {
+
+    private final Controller controller;
+    private final View view;
+    private final Shared shared;
+    private final Map<Operation, Stats> stats;
+    private final Operation[] choices;
+    private final int page;
+    private final Random random;
+
+    public Client(ConnectionSource source,
+                  Shared shared,
+                  Map<Operation, Stats> stats,
+                  Operation[] choices,
+                  int page,
+                  Random random) {
+      this.controller = new Controller(source);
+      this.view = new View(source);
+      this.shared = shared;
+      this.stats = stats;
+      this.choices = choices;
+      this.page = page;
+      this.random = random;
+    }
+
+    public void next(long intended, boolean measured) {
+
+      final Operation operation = choices[random.nextInt(choices.length)];
+
+      boolean failed;
+
+      try {
+        failed = !run(operation);
+      } catch (Exception ex) {
+        failed = true;
+      }
+
+      if (measured) {
+        final Stats operationStats = stats.get(operation);
+        operationStats.latencyUs.record((System.nanoTime() - intended) / 1000);
+        if (failed) {
+          operationStats.errors.incrementAndGet();
+        }
+      }
+    }
+
+    // Returns false if the server did not do what was asked.
+    private boolean run(Operation operation) {
+
+      final User user = pick(shared.users);
+
+      switch (operation) {
+
+        case NEW_USER: {
+          final User created = controller.newUser("load-user-" + shared.names.incrementAndGet());
+          if (created != null) {
+            shared.users.add(created);
+          }
+          return created != null;
+        }
+
+        case NEW_CONVERSATION: {
+          final ConversationHeader created = controller.newConversation(
+              "load-conversation-" + shared.names.incrementAndGet(), user.id);
+          if (created != null) {
+            shared.conversations.add(created);
+          }
+          return created != null;
+        }
+
+        case NEW_MESSAGE: {
+          final ConversationHeader conversation = pick(shared.conversations);
+          return controller.newMessage(user.id, conversation.id, body()) != null;
+        }
+
+        case LIST_MESSAGES:
+          return listMessages(pick(shared.conversations));
+
+        case STATUS_UPDATE:
+          view.userStatusUpdate(user.name, user.id);
+          view.conversationStatusUpdate(pick(shared.conversations).title, user.id);
+          return true;
+
+        default:
+          throw new IllegalStateException("Unknown operation " + operation);
+      }
+    }
+
+    // Read the newest messages of a conversation the way a client scrolling
+    // back through history does - get the payload, then walk back from the
+    // last message with a MessageIterator.
+    private boolean listMessages(ConversationHeader conversation) {
+
+      final Collection<ConversationPayload> payloads =
+          view.getConversationPayloads(Arrays.asList(conversation.id));
+
+      if (payloads.isEmpty()) {
+        return false;
+      }
+
+      final Iterator<MessageContext> messages =
+          new MessageIterator(view, payloads.iterator().next().lastMessage, false);
+
+      for (int i = 0; i < page && messages.hasNext(); i++) {
+        messages.next();
+      }
+
+      return true;
+    }
+
+    private String body() {
+      return "load message " + random.nextInt(1000000) + " from a simulated client";
+    }
+
+    private <T> T pick(List<T> list) {
+      return list.get(random.nextInt(list.size()));
+    }
+  }
+
+  // Turn the mix into a table to pick from with a uniform random index, with
+  // each operation in it as many times as its weight.
+  private static Operation[] parseMix(String mix) {
+
+    final List<Operation> choices = new ArrayList<>();
+
+    for (final String part : mix.split(",")) {
+      final String[] pair = part.trim().split("=");
+      final Operation operation = Operation.parse(pair[0].trim());
+      final int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+      for (int i = 0; i < weight; i++) {
+        choices.add(operation);
+      }
+    }
+
+    if (choices.isEmpty()) {
+      throw new IllegalArgumentException("The mix has no operations in it");
+    }
+
+    return choices.toArray(new Operation[choices.size()]);
+  }
+
+  private static int freePort() throws IOException {
+    try (final ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  // What needs to be done to shut a server down at the end of a run.
+  private interface Running {
+    void close() throws Exception;
+  }
+
+  // IN PROCESS
+  //
+  // The server runs in this JVM, accepting connections on its own thread the
+  // way ServerMain does. Nothing is restored or saved so every run starts
+  // from an empty model.
+  private static Running startInProcess(int port) throws IOException {
+
+    final Server server = new Server(new Uuid(1), new Secret((byte) 0x01), new NoOpRelay());
+    final ConnectionSource source = ServerConnectionSource.forPort(port);
+
+    final Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Connection connection = source.connect();
+            server.handleConnection(connection);
+          }
+        } catch (IOException ex) {
+          // The source was closed at the end of the run.
+        }
+      }
+    }, "load-server");
+
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    return new Running() {
+      @Override
+      public void close() throws Exception {
+        source.close();
+        acceptor.join();
+        server.stop();
+      }
+    };
+  }
+
+  // SUBPROCESS
+  //
+  // The server runs as ServerMain in its own JVM (with this one's class path)
+  // so that the clients do not share a heap, JIT or GC with it. It runs in a
+  // new temporary directory which keeps its data and log, including its
+  // output in "server.out".
+  private static Running startSubprocess(int port) throws Exception {
+
+    final File directory = Files.createTempDirectory("chat-load").toFile();
+
+    final ProcessBuilder builder = new ProcessBuilder(
+        new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+        "-cp", absoluteClassPath(),
+        "codeu.chat.ServerMain",
+        "1",
+        "01",
+        Integer.toString(port),
+        directory.getPath());
+
+    builder.directory(directory);
+    builder.redirectErrorStream(true);
+    builder.redirectOutput(new File(directory, "server.out"));
+
+    final Process process = builder.start();
+
+    System.out.println("Server running in " + directory);
+
+    // Wait for the server to start listening.
+    final long giveUp = System.currentTimeMillis() + 30000;
+
+    while (true) {
+      try {
+        new Socket("localhost", port).close();
+        break;
+      } catch (IOException ex) {
+        if (!process.isAlive() || System.currentTimeMillis() > giveUp) {
+          process.destroy();
+          throw new IOException("The server did not start, see " + directory, ex);
+        }
+        Thread.sleep(100);
+      }
+    }
+
+    return new Running() {
+      @Override
+      public void close() throws Exception {
+        process.destroy();
+        process.waitFor();
+      }
+    };
+  }
+
+  // The server runs in another directory so relative class path entries have
+  // to be made absolute.
+  private static String absoluteClassPath() {
+
+    final StringBuilder path = new StringBuilder();
+
+    for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (path.length() > 0) {
+        path.append(File.pathSeparator);
+      }
+      path.append(new File(entry).getAbsolutePath());
+    }
+
+    return path.toString();
+  }
+}
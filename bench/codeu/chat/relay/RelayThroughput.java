@@ -0,0 +1,142 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.server.RemoteRelay;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.ServerConnectionSource;
+
+// RELAY THROUGHPUT
+//
+// Measure how many relay requests can be served per second with worker pools
+// of 1, 4, and 16 threads. Each run starts a relay on a localhost port, serves
+// it the same way RelayMain does, and drives it with a fixed number of clients
+// that read four times for every write.
+//
+// Usage: RelayThroughput [ <port> [ <clients> [ <seconds> ] ] ]
+public final class RelayThroughput {
+
+  private static final int[] WORKERS = { 1, 4, 16 };
+
+  private static final Uuid TEAM = new Uuid(100);
+  private static final Secret SECRET = new Secret((byte) 0xAB);
+
+  public static void main(String[] args) throws Exception {
+
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : 2007;
+    final int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    System.out.println("workers,clients,seconds,requests,requests_per_second");
+
+    for (int i = 0; i < WORKERS.length; i++) {
+      final long requests = run(port + i, WORKERS[i], clients, seconds);
+      System.out.format("%d,%d,%d,%d,%.1f\n",
+                        WORKERS[i],
+                        clients,
+                        seconds,
+                        requests,
+                        requests / (double) seconds);
+    }
+
+    System.exit(0);
+  }
+
+  private static long run(int port, int workers, int clients, int seconds) throws Exception {
+
+    final Server relay = new Server(1024, 16);
+    relay.addTeam(TEAM, SECRET);
+
+    final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
+    final ExecutorService pool = Executors.newFixedThreadPool(workers);
+    final ConnectionSource source = ServerConnectionSource.forPort(port);
+
+    final Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        while (true) {
+          final Connection connection;
+          try {
+            connection = source.connect();
+          } catch (IOException ex) {
+            return;  // the source was closed
+          }
+          pool.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                frontEnd.handleConnection(connection);
+              } catch (Exception ex) {
+                // Ignore - the client will see the failure.
+              }
+            }
+          });
+        }
+      }
+    };
+    acceptor.start();
+
+    final AtomicLong requests = new AtomicLong();
+    final CountDownLatch done = new CountDownLatch(clients);
+    final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+
+    for (int c = 0; c < clients; c++) {
+      final int client = c;
+      new Thread() {
+        @Override
+        public void run() {
+          final Relay remote = new RemoteRelay(new ClientConnectionSource("localhost", port));
+          Uuid lastSeen = Uuid.NULL;
+          for (int i = 0; System.currentTimeMillis() < end; i++) {
+            if (i % 5 == 0) {
+              remote.write(TEAM,
+                           SECRET,
+                           remote.pack(new Uuid(client), "user", Time.now()),
+                           remote.pack(new Uuid(client), "conversation", Time.now()),
+                           remote.pack(new Uuid(i), "message", Time.now()));
+            } else {
+              for (final Relay.Bundle bundle : remote.read(TEAM, SECRET, lastSeen, 16)) {
+                lastSeen = bundle.id();
+              }
+            }
+            requests.incrementAndGet();
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+
+    source.close();
+    pool.shutdown();
+    pool.awaitTermination(10, TimeUnit.SECONDS);
+
+    return requests.get();
+  }
+}
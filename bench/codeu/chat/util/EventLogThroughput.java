@@ -0,0 +1,80 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.File;
+
+// EVENT LOG THROUGHPUT
+//
+// Measure the cost of logging one event with 1, 2, and 4 threads logging at
+// once. The cost is the wall time divided by the events logged by all threads,
+// and includes the page faults of mapping new segments. Events are written to segments in the given directory, which are left
+// behind so they can be checked with EventLogMain.
+//
+// Usage: EventLogThroughput <dir> [ <events per thread> ]
+public final class EventLogThroughput {
+
+  private static final int[] THREADS = { 1, 2, 4 };
+
+  private static final EventLog.Event EVENT =
+      EventLog.define(60000, "bench.event", "id:uuid", "type:int", "took:duration");
+
+  public static void main(String[] args) throws Exception {
+
+    final File dir = new File(args[0]);
+    final int events = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+
+    EventLog.open(dir, EventLog.DEFAULT_SEGMENT_BYTES, EventLog.DEFAULT_SEGMENTS);
+
+    // Warm up so the JIT has compiled the logging path before timing it.
+    run(1, events);
+
+    System.out.println("threads,events,ns_per_event");
+
+    for (final int threads : THREADS) {
+      final long nanos = run(threads, events);
+      System.out.format("%d,%d,%.1f\n", threads, events, (double) nanos / ((long) events * threads));
+    }
+
+    EventLog.close();
+  }
+
+  // Returns the wall time taken for every thread to log its events.
+  private static long run(int count, final int events) throws InterruptedException {
+
+    final Uuid id = new Uuid(new Uuid(1), 2);
+    final Thread[] threads = new Thread[count];
+
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < count; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int event = 0; event < events; event++) {
+            EVENT.log(id, event, event);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import codeu.chat.bench.Benchmark;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+// SERIALIZERS BENCHMARKS
+//
+// Write a value to memory with its serializer and read it back. One operation
+// is one round trip; for the collection that is all 10,000 items. The
+// "collection.write" benchmarks only write, with and without the kept
+// EncodedForm, the way a server sends a page of messages, and in the Compact
+// encoding.
+public final class SerializersBenchmarks {
+
+  private SerializersBenchmarks() { }
+
+  private static final int COLLECTION_SIZE = 10000;
+
+  public static Collection<Benchmark> all() {
+
+    final Collection<Benchmark> benchmarks = new ArrayList<>();
+
+    benchmarks.add(roundTrip("serializers.message", Message.SERIALIZER, message(1)));
+    benchmarks.add(roundTrip("serializers.user", User.SERIALIZER, user(1)));
+
+    final Collection<Message> messages = new ArrayList<>();
+    for (int i = 0; i < COLLECTION_SIZE; i++) {
+      messages.add(message(i));
+    }
+
+    benchmarks.add(roundTrip("serializers.collection",
+                             Serializers.collection(Message.SERIALIZER),
+                             messages).param("size", COLLECTION_SIZE));
+
+    for (final boolean encodedForm : new boolean[] { false, true }) {
+      benchmarks.add(write("serializers.collection.write",
+                           Serializers.collection(Message.SERIALIZER),
+                           messages,
+                           encodedForm).param("size", COLLECTION_SIZE)
+                                       .param("encodedForm", encodedForm));
+    }
+
+    benchmarks.add(new Benchmark("serializers.collection.write.compact") {
+
+      private final Serializer<Collection<Message>> serializer =
+          Serializers.collection(Message.SERIALIZER);
+      private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      @Override
+      public long run(Sink sink) throws Exception {
+        out.reset();
+        serializer.write(new Compact.Output(out), messages);
+        sink.consume(out.size());
+        return 1;
+      }
+    }.param("size", COLLECTION_SIZE));
+
+    return benchmarks;
+  }
+
+  private static <T> Benchmark write(String name,
+                                     final Serializer<T> serializer,
+                                     final T value,
+                                     final boolean encodedForm) {
+    return new Benchmark(name) {
+
+      private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      @Override
+      public long run(Sink sink) throws Exception {
+        final boolean was = EncodedForm.enabled();
+        EncodedForm.enabled(encodedForm);
+        try {
+          out.reset();
+          serializer.write(out, value);
+          sink.consume(out.size());
+          return 1;
+        } finally {
+          EncodedForm.enabled(was);
+        }
+      }
+    };
+  }
+
+  private static <T> Benchmark roundTrip(String name,
+                                         final Serializer<T> serializer,
+                                         final T value) {
+    return new Benchmark(name) {
+
+      private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      @Override
+      public long run(Sink sink) throws Exception {
+        out.reset();
+        serializer.write(out, value);
+        sink.consume(serializer.read(new ByteArrayInputStream(out.toByteArray())));
+        return 1;
+      }
+    };
+  }
+
+  private static Message message(int i) {
+    final Uuid team = new Uuid(3);
+    return new Message(new Uuid(team, 1000 + i),
+                       new Uuid(team, 1001 + i),
+                       new Uuid(team, 999 + i),
+                       Time.fromMs(1500000000000L + i),
+                       new Uuid(team, 7),
+                       "Hello World, this is message number " + i);
+  }
+
+  private static User user(int i) {
+    return new User(new Uuid(new Uuid(3), i), "User " + i, Time.fromMs(1500000000000L + i));
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+
+import codeu.chat.bench.Benchmark;
+
+// TIMELINE BENCHMARKS
+//
+// How many events a timeline can take and run per second. Each run schedules a
+// batch of events and waits for the last one to run, so the time includes the
+// hand-off to the timeline's thread and running each event.
+public final class TimelineBenchmarks {
+
+  private TimelineBenchmarks() { }
+
+  private static final int BATCH = 10000;
+
+  public static Collection<Benchmark> all() {
+
+    final Collection<Benchmark> benchmarks = new ArrayList<>();
+
+    benchmarks.add(scheduleNow(0));
+    benchmarks.add(scheduleNow(4));
+
+    return benchmarks;
+  }
+
+  // With lanes, events are spread over them by key.
+  private static Benchmark scheduleNow(final int lanes) {
+    return new Benchmark("timeline.scheduleNow") {
+
+      private Timeline timeline;
+
+      @Override
+      public void setUp() {
+        timeline = new Timeline(Timeline.DEFAULT_TICK_MS, lanes);
+      }
+
+      @Override
+      public long run(Sink sink) throws Exception {
+
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        final Runnable event = new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        };
+
+        for (int i = 0; i < BATCH; i++) {
+          if (lanes == 0) {
+            timeline.scheduleNow(event);
+          } else {
+            timeline.scheduleNow(Integer.valueOf(i), event);
+          }
+        }
+
+        done.await();
+        return BATCH;
+      }
+
+      @Override
+      public void tearDown() {
+        timeline.stop();
+        timeline.join();
+      }
+    }.param("lanes", lanes);
+  }
+}
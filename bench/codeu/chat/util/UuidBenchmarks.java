@@ -0,0 +1,109 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import codeu.chat.bench.Benchmark;
+
+// UUID BENCHMARKS
+//
+// hashCode, equals, and compare on Uuids one link long (like user ids) and
+// three links long (like ids made by a server under a team root). Equal Uuids
+// are different objects so nothing can be decided by "==".
+public final class UuidBenchmarks {
+
+  private UuidBenchmarks() { }
+
+  private static final int BATCH = 1000;
+
+  public static Collection<Benchmark> all() {
+
+    final Collection<Benchmark> benchmarks = new ArrayList<>();
+
+    for (final int links : new int[] { 1, 3 }) {
+      benchmarks.add(hash(links));
+      benchmarks.add(equal(links));
+      benchmarks.add(compare(links));
+    }
+
+    return benchmarks;
+  }
+
+  private static Benchmark hash(final int links) {
+    return new Benchmark("uuid.hashCode") {
+
+      private final Uuid[] ids = ids(links, 0);
+
+      @Override
+      public long run(Sink sink) {
+        for (final Uuid id : ids) {
+          sink.consume(id.hashCode());
+        }
+        return ids.length;
+      }
+    }.param("links", links);
+  }
+
+  private static Benchmark equal(final int links) {
+    return new Benchmark("uuid.equals") {
+
+      private final Uuid[] a = ids(links, 0);
+      private final Uuid[] b = ids(links, 0);
+
+      @Override
+      public long run(Sink sink) {
+        for (int i = 0; i < a.length; i++) {
+          sink.consume(a[i].equals(b[i]));
+        }
+        return a.length;
+      }
+    }.param("links", links);
+  }
+
+  private static Benchmark compare(final int links) {
+    return new Benchmark("uuid.compare") {
+
+      private final Uuid[] a = ids(links, 0);
+      private final Uuid[] b = ids(links, 1);
+
+      @Override
+      public long run(Sink sink) {
+        for (int i = 0; i < a.length; i++) {
+          sink.consume(Uuid.COMPARE.compare(a[i], b[i]));
+        }
+        return a.length;
+      }
+    }.param("links", links);
+  }
+
+  // The last link of each id is offset by "shift" so that two sets can be
+  // made equal or not.
+  private static Uuid[] ids(int links, int shift) {
+
+    final Uuid[] ids = new Uuid[BATCH];
+
+    for (int i = 0; i < ids.length; i++) {
+      Uuid id = null;
+      for (int link = 1; link < links; link++) {
+        id = new Uuid(id, link * 1000);
+      }
+      ids[i] = new Uuid(id, i * 7919 + shift);
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import codeu.chat.bench.Benchmark;
+import codeu.chat.util.Uuid;
+
+// STORE BENCHMARKS
+//
+// Insert and look up in a Store keyed by Uuid, the way the server's model uses
+// it. Each size is run with unique keys and with duplicate keys (every key is
+// used ten times).
+public final class StoreBenchmarks {
+
+  private StoreBenchmarks() { }
+
+  // How many lookups one run of the "first" benchmark does.
+  private static final int LOOKUPS = 10000;
+
+  public static Collection<Benchmark> all(int[] sizes) {
+
+    final Collection<Benchmark> benchmarks = new ArrayList<>();
+
+    for (final int size : sizes) {
+      for (final boolean unique : new boolean[] { true, false }) {
+        benchmarks.add(insert(size, unique));
+        benchmarks.add(first(size, unique));
+      }
+    }
+
+    return benchmarks;
+  }
+
+  // Fill an empty store with "size" entries. One operation is one insert.
+  private static Benchmark insert(final int size, final boolean unique) {
+    return new Benchmark("store.insert") {
+
+      private Uuid[] keys;
+
+      @Override
+      public void setUp() {
+        keys = keys(size, unique);
+      }
+
+      @Override
+      public long run(Sink sink) {
+        final Store<Uuid, Integer> store = new Store<>(Uuid.COMPARE);
+        for (int i = 0; i < keys.length; i++) {
+          store.insert(keys[i], i);
+        }
+        sink.consume(store.first(keys[0]));
+        return keys.length;
+      }
+    }.param("size", size).param("keys", unique ? "unique" : "duplicate");
+  }
+
+  // Look up random keys in a store of "size" entries. One operation is one
+  // lookup.
+  private static Benchmark first(final int size, final boolean unique) {
+    return new Benchmark("store.first") {
+
+      private Uuid[] lookups;
+      private Store<Uuid, Integer> store;
+
+      @Override
+      public void setUp() {
+
+        final Uuid[] keys = keys(size, unique);
+
+        store = new Store<>(Uuid.COMPARE);
+        for (int i = 0; i < keys.length; i++) {
+          store.insert(keys[i], i);
+        }
+
+        // Look up copies so that lookups can not short cut on "==".
+        final Random random = new Random(7);
+        lookups = new Uuid[LOOKUPS];
+        for (int i = 0; i < lookups.length; i++) {
+          final Uuid key = keys[random.nextInt(keys.length)];
+          lookups[i] = new Uuid(key.root(), key.id());
+        }
+      }
+
+      @Override
+      public long run(Sink sink) {
+        for (final Uuid key : lookups) {
+          sink.consume(store.first(key).intValue());
+        }
+        return lookups.length;
+      }
+
+      @Override
+      public void tearDown() {
+        store = null;
+      }
+    }.param("size", size).param("keys", unique ? "unique" : "duplicate");
+  }
+
+  // Keys in a random order, like ids from RandomUuidGenerator.
+  private static Uuid[] keys(int size, boolean unique) {
+
+    final Random random = new Random(size);
+    final Uuid root = new Uuid(1);
+    final Uuid[] keys = new Uuid[size];
+
+    for (int i = 0; i < size; i++) {
+      keys[i] = new Uuid(root, unique ? random.nextInt() : random.nextInt(Math.max(1, size / 10)));
+    }
+
+    return keys;
+  }
+}
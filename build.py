@@ -42,7 +42,8 @@ import sys
 # Dictionary of settings that control java source compilation
 CONFIG = {
   'out' : 'bin',
-  'src' : [ 'src', 'test' ],
+  'release' : '11',
+  'src' : [ 'src', 'test', 'bench' ],
   'libraries' : [
     'third_party/junit4-4.11.jar',
     'third_party/hamcrest-core-1.3.jar',
@@ -94,6 +95,7 @@ def build(config) :
   command = [ ]
   command += [ 'javac' ]
   command += [ '-d', out ]
+  command += [ '--release', config['release'] ]
   command += [ '-cp', separator.join([ out ] + libraries) ]
   command += [ '-Xlint' ]
   command += src_files
@@ -0,0 +1,147 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import codeu.chat.util.EventLog;
+
+final class EventLogMain {
+
+  // MAIN
+  //
+  // Arguments: [ --json ] <file or directory>...
+  //   - --json : print one JSON object per record instead of text.
+  //   - file   : an event log segment, or a directory of segments which are
+  //              read oldest first.
+  //
+  // Text looks like:
+  //
+  //   2017-06-01 12:00:00.123456789 server.request type=12 took=0.250ms
+  //
+  // JSON has "time" (ms since the epoch), "nanos" (after "time"), "event", and
+  // one field per argument. Durations are in nanoseconds and Uuids are strings.
+  public static void main(String[] args) {
+
+    boolean json = false;
+    final List<File> files = new ArrayList<>();
+
+    for (final String arg : args) {
+      if ("--json".equals(arg)) {
+        json = true;
+      } else {
+        final File file = new File(arg);
+        if (file.isDirectory()) {
+          files.addAll(EventLog.segmentFiles(file));
+        } else {
+          files.add(file);
+        }
+      }
+    }
+
+    if (files.isEmpty()) {
+      System.err.println("Usage: EventLogMain [--json] <file or directory>...");
+      System.exit(1);
+    }
+
+    final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+    final boolean asJson = json;
+
+    final SimpleDateFormat dates = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    dates.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    for (final File file : files) {
+      try {
+        EventLog.read(file, new EventLog.Reader() {
+          @Override
+          public void onRecord(EventLog.Record record) {
+            out.println(asJson ? toJson(record) : toText(dates, record));
+          }
+        });
+      } catch (IOException ex) {
+        System.err.format("Failed to read %s: %s\n", file, ex.getMessage());
+      }
+    }
+
+    out.flush();
+  }
+
+  private static String toText(SimpleDateFormat dates, EventLog.Record record) {
+
+    final StringBuilder text = new StringBuilder();
+
+    text.append(dates.format(new Date(record.timeMs)))
+        .append(String.format("%06d", record.nanos))
+        .append(' ')
+        .append(record.event.name);
+
+    for (int i = 0; i < record.values.length; i++) {
+      text.append(' ').append(record.event.argName(i)).append('=');
+      if (record.event.argKind(i) == EventLog.Kind.DURATION) {
+        text.append(String.format("%.3fms", (Long) record.values[i] / 1000000.0));
+      } else {
+        text.append(record.values[i]);
+      }
+    }
+
+    return text.toString();
+  }
+
+  private static String toJson(EventLog.Record record) {
+
+    final StringBuilder json = new StringBuilder();
+
+    json.append("{\"time\":").append(record.timeMs)
+        .append(",\"nanos\":").append(record.nanos)
+        .append(",\"event\":").append(quote(record.event.name));
+
+    for (int i = 0; i < record.values.length; i++) {
+      json.append(',').append(quote(record.event.argName(i))).append(':');
+      if (record.event.argKind(i) == EventLog.Kind.UUID) {
+        json.append(quote(String.valueOf(record.values[i])));
+      } else {
+        json.append(record.values[i]);
+      }
+    }
+
+    return json.append('}').toString();
+  }
+
+  private static String quote(String value) {
+
+    final StringBuilder quoted = new StringBuilder("\"");
+
+    for (final char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+
+    return quoted.append('"').toString();
+  }
+}
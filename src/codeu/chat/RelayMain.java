@@ -17,6 +17,8 @@ package codeu.chat;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import codeu.chat.common.Secret;
 import codeu.chat.relay.Server;
@@ -32,6 +34,14 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  private static final int DEFAULT_WORKERS = 16;
+
+  // MAIN
+  //
+  // Arguments: <port> <team file> [ <workers> ]
+  //   - port      : the port that the relay will accept connections on.
+  //   - team file : the file listing "<team id>:<team secret>" on each line.
+  //   - workers   : the number of threads used to serve connections.
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -42,21 +52,31 @@ final class RelayMain {
       LOG.error(ex, "Failed to set logger to write to file");
     }
 
+    try {
+      Logger.enableEventLog("chat_relay_events");
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to open the event log");
+    }
+
     LOG.info("============================= START OF LOG =============================");
 
     final int myPort = Integer.parseInt(args[0]);
 
+    // The number of threads used to serve connections. Each connection is
+    // handled start to finish by one of these threads.
+    final int workers = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WORKERS;
+
     try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
 
       // Limit the number of messages that the server tracks to be 1024 and limit the
       // max number of messages that the relay will send out to be 16.
-      final Server relay = new Server(1024, 16);
+      final Server relay = new Server(Server.DEFAULT_MAX_HISTORY, Server.DEFAULT_MAX_READ);
 
       LOG.info("Relay object created.");
 
       LOG.info("Starting relay...");
 
-      startRelay(relay, source, args[1]);
+      startRelay(relay, source, args[1], workers);
 
     } catch (IOException ex) {
       LOG.error(ex, "Failed to establish server accept port");
@@ -65,7 +85,8 @@ final class RelayMain {
 
   private static void startRelay(final Server relay,
                                  final ConnectionSource source,
-                                 final String teamFile) {
+                                 final String teamFile,
+                                 final int workers) {
 
     final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
     LOG.info("Relay front end object created.");
@@ -73,16 +94,19 @@ final class RelayMain {
     final Timeline timeline = new Timeline();
     LOG.info("Relay timeline created.");
 
-    timeline.scheduleNow(new Runnable() {
+    // Connections are served from a pool so that one slow server can not hold
+    // up every other server. The relay is safe to use from many threads at once.
+    final ExecutorService pool = Executors.newFixedThreadPool(workers);
+    LOG.info("Relay worker pool created (%d workers).", workers);
+
+    // Reload the team file every minute so that new team entries will be added
+    // to the relay. This won't support updating entries.
+    timeline.scheduleWithFixedDelay(0, 60000, new Runnable() {
       @Override
       public void run() {
         LOG.info("Loading team data...");
         loadTeamInfo(relay, teamFile);
         LOG.info("Done loading team data.");
-
-        // Add this again in 1 minute so that new team entries will be added to
-        // the relay. This won't support updating entries.
-        timeline.scheduleIn(60000, this);
       }
     });
 
@@ -95,7 +119,7 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        pool.execute(new Runnable() {
           @Override
           public void run() {
             try {
@@ -17,12 +17,15 @@ package codeu.chat;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
+import codeu.chat.server.ShardedRelay;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
 import codeu.chat.util.Uuid;
@@ -53,14 +56,20 @@ final class ServerMain {
     // This is the directory where it is safe to store data accross runs
     // of the server.
     File persistentPath = null;
-    RemoteAddress relayAddress = null;
+    // When more than one relay address is given (separated by commas), the
+    // relay is sharded over all of them. See ShardedRelay.
+    final List<RemoteAddress> relayAddresses = new ArrayList<>();
 
     try {
       id = Uuid.parse(args[0]);
       secret = Secret.parse(args[1]);
       port = Integer.parseInt(args[2]);
       persistentPath = new File(args[3]);
-      relayAddress = args.length > 4 ? RemoteAddress.parse(args[4]) : null;
+      if (args.length > 4) {
+        for (final String address : args[4].split(",")) {
+          relayAddresses.add(RemoteAddress.parse(address));
+        }
+      }
     } catch (Exception ex) {
       LOG.error(ex, "Failed to read command arguments");
       System.exit(1);
@@ -71,13 +80,18 @@ final class ServerMain {
       System.exit(1);
     }
 
+    try {
+      Logger.enableEventLog(new File(persistentPath, "events").getPath());
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to open the event log");
+    }
+
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
-        final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
+        final ConnectionSource serverSource = ServerConnectionSource.forPort(port)
     ) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      runServer(id, secret, serverSource, createRelay(relayAddresses));
 
     } catch (IOException ex) {
 
@@ -86,14 +100,32 @@ final class ServerMain {
     }
   }
 
+  private static Relay createRelay(List<RemoteAddress> addresses) {
+
+    if (addresses.isEmpty()) {
+      return new NoOpRelay();
+    }
+
+    if (addresses.size() == 1) {
+      final RemoteAddress address = addresses.get(0);
+      return new RemoteRelay(new ClientConnectionSource(address.host, address.port));
+    }
+
+    final ShardedRelay relay = new ShardedRelay();
+
+    for (final RemoteAddress address : addresses) {
+      relay.addShard(address.toString(),
+                     new RemoteRelay(new ClientConnectionSource(address.host, address.port)),
+                     codeu.chat.relay.Server.DEFAULT_MAX_READ);
+    }
+
+    return relay;
+  }
+
   private static void runServer(Uuid id,
                                 Secret secret,
                                 ConnectionSource serverSource,
-                                ConnectionSource relaySource) {
-
-    final Relay relay = relaySource == null ?
-                        new NoOpRelay() :
-                        new RemoteRelay(relaySource);
+                                Relay relay) {
 
     final Server server = new Server(id, secret, relay);
 
@@ -20,12 +20,17 @@ import java.util.List;
 import java.util.ArrayList;
 import java.io.IOException;
 
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.client.core.Context;
 import codeu.chat.client.core.ConversationContext;
 import codeu.chat.client.core.MessageContext;
+import codeu.chat.client.core.Subscriber;
 import codeu.chat.client.core.UserContext;
 import codeu.chat.util.Tokenizer;
+import codeu.chat.util.Uuid;
 
 public final class Chat {
 
@@ -121,7 +126,7 @@ public final class Chat {
         System.out.println("  u-sign-in <name>");
         System.out.println("    Sign in as the user with the given name.");
         System.out.println("  info");
-        System.out.println("    Get server information.");
+        System.out.println("    Get server information and request stats.");
         System.out.println("  exit");
         System.out.println("    Exit the program.");
       }
@@ -180,7 +185,7 @@ public final class Chat {
             if (user == null) {
               System.out.format("ERROR: Failed to sign in as '%s'\n", name);
             } else {
-              panels.push(createUserPanel(user));
+              panels.push(createUserPanel(context, user));
             }
           } else {
             System.out.println("ERROR: Missing <username>");
@@ -215,6 +220,12 @@ public final class Chat {
           System.out.println("Current server version: " + info.version);
           System.out.println("Start Time: " + info.startTime);
         }
+        final ServerStats stats = context.getStats();
+        if (stats == null) {
+          System.out.println("ERROR: The server did not send us valid stats.");
+        } else {
+          printStats(stats);
+        }
       }
     });
 
@@ -223,7 +234,35 @@ public final class Chat {
     return panel;
   }
 
-  private Panel createUserPanel(final UserContext user) {
+  // Print a row for each kind of request the server has handled. Latencies are
+  // in microseconds.
+  private static void printStats(ServerStats stats) {
+
+    final String format = "  %-40s %8s %7s %10s %10s %8s %8s %8s %8s\n";
+
+    System.out.println("Requests (as of " + stats.time + "):");
+    System.out.format(format,
+                      "REQUEST", "COUNT", "ERRORS", "BYTES IN", "BYTES OUT",
+                      "P50 US", "P99 US", "P999 US", "MAX US");
+
+    for (final ServerStats.Command command : stats.commands) {
+      System.out.format(format,
+                        NetworkCode.name(command.code),
+                        command.count,
+                        command.errors,
+                        command.bytesIn,
+                        command.bytesOut,
+                        command.p50Us,
+                        command.p99Us,
+                        command.p999Us,
+                        command.maxUs);
+    }
+
+    System.out.println("Relay: " + stats.relayPendingBundles + " bundles waiting to be applied, " +
+                       stats.relayLagMs + " ms behind");
+  }
+
+  private Panel createUserPanel(final Context context, final UserContext user) {
 
     final Panel panel = new Panel();
 
@@ -254,6 +293,8 @@ public final class Chat {
         System.out.println("    Request status update on the specified user interest.");
         System.out.println("  status-update-c <title>");
         System.out.println("    Request status update on the specified conversation interest.");
+        System.out.println("  watch");
+        System.out.println("    Print new messages in the current user's conversations as they arrive.");
         System.out.println("  info");
         System.out.println("    Display all info for the current user");
         System.out.println("  back");
@@ -520,6 +561,55 @@ public final class Chat {
       }
     });
 
+    // WATCH (watch for new messages)
+    //
+    // Add a command that will print new messages in the conversations the user
+    // is a member of as the server pushes them, in place of polling with
+    // "status-update-c", when the user enters "watch" while on the user panel.
+    // Watching goes on in the background until the program exits.
+    //
+    panel.register("watch", new Panel.Command() {
+
+      private Thread watcher;
+
+      @Override
+      public void invoke(List<String> args) {
+
+        if (watcher != null && watcher.isAlive()) {
+          System.out.println("Already watching.");
+          return;
+        }
+
+        watcher = new Thread() {
+          @Override
+          public void run() {
+            context.subscribe(user, new Subscriber() {
+              @Override
+              public void onSubscribe() {
+                System.out.println("Watching for new messages.");
+              }
+
+              @Override
+              public void onMessage(Uuid conversation, Message message) {
+                System.out.println();
+                System.out.format("NEW MESSAGE IN : %s\n", conversation);
+                System.out.format("USER : %s\n", message.author);
+                System.out.println(message.content);
+              }
+
+              @Override
+              public void onDropped() {
+                System.out.println("Stopped watching as messages were missed. Use m-list to catch up.");
+              }
+            });
+          }
+        };
+
+        watcher.setDaemon(true);
+        watcher.start();
+      }
+    });
+
     // INFO
     //
     // Add a command that will print info about the current context when the
@@ -580,9 +670,7 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-                            message != null;
-                            message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", message.message.author);
           System.out.format("SENT : %s\n", message.message.creation);
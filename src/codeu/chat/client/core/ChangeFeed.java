@@ -0,0 +1,99 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+// CHANGE FEED
+//
+// Asks the server what has been created since the last time, instead of
+// fetching every user and conversation again. The feed remembers how far it
+// has got. "epoch" and "sequence" can be saved and passed to
+// Context.changes(epoch, sequence) to carry on later.
+//
+// The first poll of a new feed always asks for a resync, because the feed
+// has not seen anything yet. After a resync the caller should fetch
+// everything it needs in full. The changes that happen while it does that
+// show up in the next poll, so some may be seen twice. Anything keyed by id
+// can just apply them again.
+public final class ChangeFeed {
+
+  private final View view;
+
+  private long epoch;
+  private long sequence;
+
+  ChangeFeed(View view) {
+    this(view, 0, 0);
+  }
+
+  ChangeFeed(View view, long epoch, long sequence) {
+    this.view = view;
+    this.epoch = epoch;
+    this.sequence = sequence;
+  }
+
+  public long epoch() {
+    return epoch;
+  }
+
+  public long sequence() {
+    return sequence;
+  }
+
+  // POLL
+  //
+  // Everything created since the last poll, as one set of changes, asking the
+  // server again for as long as it has more. Returns null if the server could
+  // not be reached, in which case the feed stays where it was.
+  public Changes poll() {
+
+    final Collection<User> users = new ArrayList<>();
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
+    final Collection<Message> messages = new ArrayList<>();
+
+    Changes changes;
+
+    do {
+
+      changes = view.getChanges(epoch, sequence);
+
+      if (changes == null) {
+        return null;
+      }
+
+      epoch = changes.epoch;
+      sequence = changes.sequence;
+
+      // Whatever was collected before is part of what gets fetched in full.
+      if (changes.resync) {
+        return changes;
+      }
+
+      users.addAll(changes.users);
+      conversations.addAll(changes.conversations);
+      messages.addAll(changes.messages);
+
+    } while (changes.more);
+
+    return new Changes(epoch, sequence, false, false, users, conversations, messages);
+  }
+}
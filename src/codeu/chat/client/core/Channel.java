@@ -0,0 +1,138 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import codeu.chat.common.Capabilities;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// CHANNEL
+//
+// How the client's View and Controller send requests to the server. A call
+// writes one request and reads its response, and returns at once with a
+// future for the response. The blocking methods of View and Controller wait
+// on those futures.
+//
+// There are two kinds of channel:
+//
+//   direct      - A connection per request, made on the calling thread. The
+//                 future is done by the time "call" returns.
+//   multiplexed - Every request goes over one shared connection without
+//                 waiting for the requests before it (see Multiplexer), so
+//                 one thread can have many requests in flight.
+//
+// Futures from a multiplexed channel are completed on the thread that reads
+// the connection. Code chained on to them must not block or it holds up every
+// other response; chain further calls with "thenCompose" instead of waiting.
+abstract class Channel {
+
+  private final static Logger.Log LOG = Logger.newLog(Channel.class);
+
+  // REQUEST
+  //
+  // Writes a request, starting with its NetworkCode.
+  public interface Request {
+    void write(OutputStream out) throws IOException;
+  }
+
+  // RESPONSE
+  //
+  // Reads a response, starting with its NetworkCode.
+  public interface Response<T> {
+    T read(InputStream in) throws IOException;
+  }
+
+  public abstract <T> CompletableFuture<T> call(Request request, Response<T> response);
+
+  public void close() { }
+
+  public static Channel direct(ConnectionSource source) {
+    return new Direct(source);
+  }
+
+  // A multiplexed channel that asks for every capability this client supports.
+  public static Channel multiplexed(ConnectionSource source) {
+    return multiplexed(source, Capabilities.SUPPORTED);
+  }
+
+  public static Channel multiplexed(ConnectionSource source, int capabilities) {
+    return new Multiplexer(source, capabilities);
+  }
+
+  // EXPECT
+  //
+  // The usual response - the expected code followed by a value. Any other
+  // code is logged and gives the fallback value.
+  public static <T> Response<T> expect(final int code,
+                                       final Serializer<T> serializer,
+                                       final T fallback) {
+    return new Response<T>() {
+      @Override
+      public T read(InputStream in) throws IOException {
+        if (Serializers.INTEGER.read(in) == code) {
+          return serializer.read(in);
+        }
+        LOG.error("Response from server failed.");
+        return fallback;
+      }
+    };
+  }
+
+  // AWAIT
+  //
+  // Wait for a call to finish, the way the blocking methods always have: if
+  // the call failed it is reported and the fallback value is returned.
+  public static <T> T await(CompletableFuture<T> call, T fallback) {
+    try {
+      return call.join();
+    } catch (CompletionException | CancellationException ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex.getCause() == null ? ex : ex.getCause(), "Exception during call on server.");
+      return fallback;
+    }
+  }
+
+  // DIRECT
+  //
+  // One connection per request, as the server has always been spoken to.
+  private static final class Direct extends Channel {
+
+    private final ConnectionSource source;
+
+    public Direct(ConnectionSource source) {
+      this.source = source;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> call(Request request, Response<T> response) {
+      try (final Connection connection = source.connect()) {
+        request.write(connection.out());
+        return CompletableFuture.completedFuture(response.read(connection.in()));
+      } catch (Exception ex) {
+        return CompletableFuture.failedFuture(ex);
+      }
+    }
+  }
+}
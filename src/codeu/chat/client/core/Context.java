@@ -17,39 +17,101 @@ package codeu.chat.client.core;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
-import codeu.chat.common.BasicView;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ConnectionSource;
 
 public final class Context {
 
-  private final BasicView view;
+  private final Channel channel;
+  private final View view;
   private final Controller controller;
 
+  // Every request shares one multiplexed connection, so the "Async" methods
+  // can have many requests in flight at once. Subscriptions get connections
+  // of their own.
   public Context(ConnectionSource source) {
-    this.view = new View(source);
-    this.controller = new Controller(source);
+    this.channel = Channel.multiplexed(source);
+    this.view = new View(source, channel, new MessageCache(MessageCache.DEFAULT_CAPACITY));
+    this.controller = new Controller(channel);
+  }
+
+  public CompletableFuture<UserContext> createAsync(String name) {
+    return controller.newUserAsync(name).thenApply(new Function<User, UserContext>() {
+      @Override
+      public UserContext apply(User user) {
+        return user == null ?
+            null :
+            new UserContext(user, view, controller);
+      }
+    });
   }
 
   public UserContext create(String name) {
-    final User user = controller.newUser(name);
-    return user == null ?
-        null :
-        new UserContext(user, view, controller);
+    return Channel.await(createAsync(name), null);
+  }
+
+  public CompletableFuture<Iterable<UserContext>> allUsersAsync() {
+    return view.getUsersAsync().thenApply(new Function<Collection<User>, Iterable<UserContext>>() {
+      @Override
+      public Iterable<UserContext> apply(Collection<User> found) {
+        final Collection<UserContext> users = new ArrayList<>();
+        for (final User user : found) {
+          users.add(new UserContext(user, view, controller));
+        }
+        return users;
+      }
+    });
   }
 
   public Iterable<UserContext> allUsers() {
-    final Collection<UserContext> users = new ArrayList<>();
-    for (final User user : view.getUsers()) {
-      users.add(new UserContext(user, view, controller));
-    }
-    return users;
+    return Channel.await(allUsersAsync(), new ArrayList<UserContext>());
+  }
+
+  public CompletableFuture<ServerInfo> getInfoAsync() {
+    return view.getInfoAsync();
   }
 
   public ServerInfo getInfo() {
     return view.getInfo();
   }
+
+  // A feed of what is created on the server from now on. See ChangeFeed.
+  public ChangeFeed changes() {
+    return new ChangeFeed(view);
+  }
+
+  // A feed that carries on from where an earlier feed got to.
+  public ChangeFeed changes(long epoch, long sequence) {
+    return new ChangeFeed(view, epoch, sequence);
+  }
+
+  public CompletableFuture<ServerStats> getStatsAsync() {
+    return view.getStatsAsync();
+  }
+
+  public ServerStats getStats() {
+    return view.getStats();
+  }
+
+  // CLOSE
+  //
+  // Close the shared connection. Calls still waiting on it fail.
+  public void close() {
+    channel.close();
+  }
+
+  // SUBSCRIBE
+  //
+  // Have new messages in the user's conversations pushed to the subscriber in
+  // place of polling for them. Blocks until the subscription ends, so call it
+  // from a thread of its own.
+  public boolean subscribe(UserContext user, Subscriber subscriber) {
+    return view.subscribe(user.user.id, subscriber);
+  }
 }
@@ -14,251 +14,195 @@
 
 package codeu.chat.client.core;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.lang.Thread;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.User;
-import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
 
+// CONTROLLER
+//
+// The controller component of the Model-View-Controller pattern used by the
+// client to make changes on the server. Every call has a non-blocking form
+// (ending in "Async") that returns a future, and a blocking form that waits
+// for it. See Channel.
 final class Controller implements BasicController {
 
-  private final static Logger.Log LOG = Logger.newLog(Controller.class);
-
-  private final ConnectionSource source;
+  private final Channel channel;
 
   public Controller(ConnectionSource source) {
-    this.source = source;
+    this(Channel.multiplexed(source));
   }
 
-  @Override
-  public Message newMessage(Uuid author, Uuid conversation, String body) {
-
-    Message response = null;
+  public Controller(Channel channel) {
+    this.channel = channel;
+  }
 
-    try (final Connection connection = source.connect()) {
+  public CompletableFuture<Message> newMessageAsync(final Uuid author,
+                                                    final Uuid conversation,
+                                                    final String body) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_REQUEST);
+        Uuid.SERIALIZER.write(out, author);
+        Uuid.SERIALIZER.write(out, conversation);
+        Serializers.STRING.write(out, body);
+      }
+    }, Channel.expect(NetworkCode.NEW_MESSAGE_RESPONSE,
+                      Serializers.nullable(Message.SERIALIZER),
+                      null));
+  }
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_MESSAGE_REQUEST);
-      Uuid.SERIALIZER.write(connection.out(), author);
-      Uuid.SERIALIZER.write(connection.out(), conversation);
-      Serializers.STRING.write(connection.out(), body);
+  @Override
+  public Message newMessage(Uuid author, Uuid conversation, String body) {
+    return Channel.await(newMessageAsync(author, conversation, body), null);
+  }
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_MESSAGE_RESPONSE) {
-        response = Serializers.nullable(Message.SERIALIZER).read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
+  public CompletableFuture<User> newUserAsync(final String name) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.NEW_USER_REQUEST);
+        Serializers.STRING.write(out, name);
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+    }, Channel.expect(NetworkCode.NEW_USER_RESPONSE,
+                      Serializers.nullable(User.SERIALIZER),
+                      null));
   }
 
   @Override
   public User newUser(String name) {
+    return Channel.await(newUserAsync(name), null);
+  }
 
-    User response = null;
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      LOG.info("newUser: Request completed.");
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_USER_RESPONSE) {
-        response = Serializers.nullable(User.SERIALIZER).read(connection.in());
-        LOG.info("newUser: Response completed.");
-      } else {
-        LOG.error("Response from server failed.");
+  public CompletableFuture<ConversationHeader> newConversationAsync(final String title,
+                                                                    final Uuid owner) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_REQUEST);
+        Serializers.STRING.write(out, title);
+        Uuid.SERIALIZER.write(out, owner);
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+    }, Channel.expect(NetworkCode.NEW_CONVERSATION_RESPONSE,
+                      Serializers.nullable(ConversationHeader.SERIALIZER),
+                      null));
   }
 
   @Override
   public ConversationHeader newConversation(String title, Uuid owner)  {
+    return Channel.await(newConversationAsync(title, owner), null);
+  }
 
-    ConversationHeader response = null;
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_CONVERSATION_REQUEST);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), owner);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_CONVERSATION_RESPONSE) {
-        response = Serializers.nullable(ConversationHeader.SERIALIZER).read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
-      }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+  public CompletableFuture<Integer> addUserInterestAsync(String name, Uuid owner) {
+    return interest(NetworkCode.NEW_USER_INTEREST_REQUEST,
+                    NetworkCode.NEW_USER_INTEREST_RESPONSE,
+                    name,
+                    owner);
   }
 
   @Override
   public int addUserInterest(String name, Uuid owner) {
+    return Channel.await(addUserInterestAsync(name, owner), 0);
+  }
 
-    int response = 0;
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_INTEREST_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      Uuid.SERIALIZER.write(connection.out(), owner);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_USER_INTEREST_RESPONSE) {
-        response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
-      }
-    }
-      catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+  public CompletableFuture<Integer> removeUserInterestAsync(String name, Uuid owner) {
+    return interest(NetworkCode.REMOVE_USER_INTEREST_REQUEST,
+                    NetworkCode.REMOVE_USER_INTEREST_RESPONSE,
+                    name,
+                    owner);
   }
 
   @Override
   public int removeUserInterest(String name, Uuid owner) {
+    return Channel.await(removeUserInterestAsync(name, owner), 0);
+  }
 
-    int response = 0;
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.REMOVE_USER_INTEREST_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      Uuid.SERIALIZER.write(connection.out(), owner);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.REMOVE_USER_INTEREST_RESPONSE) {
-        response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
-      }
-    }
-      catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+  public CompletableFuture<Integer> addConversationInterestAsync(String title, Uuid owner) {
+    return interest(NetworkCode.NEW_CONVERSATION_INTEREST_REQUEST,
+                    NetworkCode.NEW_CONVERSATION_INTEREST_RESPONSE,
+                    title,
+                    owner);
   }
 
   @Override
   public int addConversationInterest(String title, Uuid owner) {
+    return Channel.await(addConversationInterestAsync(title, owner), 0);
+  }
 
-    int response = 0;
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_CONVERSATION_INTEREST_REQUEST);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), owner);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_CONVERSATION_INTEREST_RESPONSE) {
-            response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
-      }
-    }
-      catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+  public CompletableFuture<Integer> removeConversationInterestAsync(String title, Uuid owner) {
+    return interest(NetworkCode.REMOVE_CONVERSATION_INTEREST_REQUEST,
+                    NetworkCode.REMOVE_CONVERSATION_INTEREST_RESPONSE,
+                    title,
+                    owner);
   }
 
   @Override
   public int removeConversationInterest(String title, Uuid owner) {
+    return Channel.await(removeConversationInterestAsync(title, owner), 0);
+  }
 
-    int response = 0;
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.REMOVE_CONVERSATION_INTEREST_REQUEST);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), owner);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.REMOVE_CONVERSATION_INTEREST_RESPONSE) {
-            response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
+  public CompletableFuture<Integer> addUserToConversationAsync(final String name,
+                                                              final String title,
+                                                              final Uuid currentUser) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.ADD_USER_TO_CONVERSATION_REQUEST);
+        Serializers.STRING.write(out, name);
+        Serializers.STRING.write(out, title);
+        Uuid.SERIALIZER.write(out, currentUser);
       }
-    }
-      catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+    }, Channel.expect(NetworkCode.ADD_USER_TO_CONVERSATION_RESPONSE, Serializers.INTEGER, 0));
   }
 
   @Override
   public int addUserToConversation(String name, String title, Uuid currentUser) {
+    return Channel.await(addUserToConversationAsync(name, title, currentUser), 0);
+  }
 
-    int response = 0;
-
-    try (final Connection connection = source.connect()) {
-      Serializers.INTEGER.write(connection.out(), NetworkCode.ADD_USER_TO_CONVERSATION_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), currentUser);
-
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.ADD_USER_TO_CONVERSATION_RESPONSE) {
-            response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
+  public CompletableFuture<Integer> changePermissionLevelAsync(final String name,
+                                                              final String title,
+                                                              final int permissionLevel,
+                                                              final Uuid currentUser) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.CHANGE_USER_PERMISSION_LEVEL_REQUEST);
+        Serializers.STRING.write(out, name);
+        Serializers.STRING.write(out, title);
+        Serializers.INTEGER.write(out, permissionLevel);
+        Uuid.SERIALIZER.write(out, currentUser);
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+    }, Channel.expect(NetworkCode.CHANGE_USER_PERMISSION_LEVEL_RESPONSE, Serializers.INTEGER, 0));
   }
 
   @Override
   public int changePermissionLevel(String name, String title, int permissionLevel, Uuid currentUser) {
-    int response = 0;
-
-    try (final Connection connection = source.connect()) {
-      Serializers.INTEGER.write(connection.out(), NetworkCode.CHANGE_USER_PERMISSION_LEVEL_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      Serializers.STRING.write(connection.out(), title);
-      Serializers.INTEGER.write(connection.out(), permissionLevel);
-      Uuid.SERIALIZER.write(connection.out(), currentUser);
+    return Channel.await(changePermissionLevelAsync(name, title, permissionLevel, currentUser), 0);
+  }
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.CHANGE_USER_PERMISSION_LEVEL_RESPONSE) {
-        response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
+  // The interest requests all send a name (or title) and the owner, and get
+  // back a result code.
+  private CompletableFuture<Integer> interest(final int request,
+                                              final int response,
+                                              final String name,
+                                              final Uuid owner) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, request);
+        Serializers.STRING.write(out, name);
+        Uuid.SERIALIZER.write(out, owner);
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call  on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return response;
+    }, Channel.expect(response, Serializers.INTEGER, 0));
   }
-
 }
@@ -17,9 +17,9 @@ package codeu.chat.client.core;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
-import codeu.chat.common.BasicController;
-import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
@@ -31,13 +31,13 @@ public final class ConversationContext {
   public final User user;
   public final ConversationHeader conversation;
 
-  private final BasicView view;
-  private final BasicController controller;
+  private final View view;
+  private final Controller controller;
 
   public ConversationContext(User user,
                              ConversationHeader conversation,
-                             BasicView view,
-                             BasicController controller) {
+                             View view,
+                             Controller controller) {
 
     this.user = user;
     this.conversation = conversation;
@@ -45,48 +45,96 @@ public final class ConversationContext {
     this.controller = controller;
   }
 
+  public CompletableFuture<MessageContext> addAsync(String messageBody) {
+    return controller.newMessageAsync(user.id, conversation.id, messageBody).thenApply(
+        new Function<Message, MessageContext>() {
+          @Override
+          public MessageContext apply(Message message) {
+            return message == null ?
+                null :
+                new MessageContext(message, view);
+          }
+        });
+  }
+
   public MessageContext add(String messageBody) {
+    return Channel.await(addAsync(messageBody), null);
+  }
 
-    final Message message = controller.newMessage(user.id,
-                                                  conversation.id,
-                                                  messageBody);
+  public CompletableFuture<MessageContext> firstMessageAsync() {
 
-    return message == null ?
-        null :
-        new MessageContext(message, view);
+    // As it is possible for the conversation to have been updated, so fetch
+    // a new copy. This also tells the view's message cache what changed, so
+    // walking the messages from here only fetches the new ones.
+    return getUpdated().thenCompose(
+        new Function<ConversationPayload, CompletableFuture<MessageContext>>() {
+          @Override
+          public CompletableFuture<MessageContext> apply(ConversationPayload updated) {
+            return MessageContext.getMessage(view, updated == null ? null : updated.firstMessage);
+          }
+        });
   }
 
   public MessageContext firstMessage() {
+    return Channel.await(firstMessageAsync(), null);
+  }
 
-    // As it is possible for the conversation to have been updated, so fetch
-    // a new copy.
-    final ConversationPayload updated = getUpdated();
+  // MESSAGES
+  //
+  // Every message in the conversation, oldest first. The messages are fetched
+  // in the background a window at a time, so this is much faster than walking
+  // the conversation with "next" when there are more than a few messages.
+  public Iterable<MessageContext> messages() {
+    return new Iterable<MessageContext>() {
+      @Override
+      public Iterator<MessageContext> iterator() {
+        final ConversationPayload updated = Channel.await(getUpdated(), null);
+        return new MessageIterator(view, updated == null ? null : updated.firstMessage, true);
+      }
+    };
+  }
 
-    return updated == null ?
-        null :
-        getMessage(updated.firstMessage);
+  // HISTORY
+  //
+  // Every message in the conversation, newest first, for scrolling back from
+  // the end.
+  public Iterable<MessageContext> history() {
+    return new Iterable<MessageContext>() {
+      @Override
+      public Iterator<MessageContext> iterator() {
+        final ConversationPayload updated = Channel.await(getUpdated(), null);
+        return new MessageIterator(view, updated == null ? null : updated.lastMessage, false);
+      }
+    };
   }
 
-  public MessageContext lastMessage() {
+  public CompletableFuture<MessageContext> lastMessageAsync() {
 
     // As it is possible for the conversation to have been updated, so fetch
     // a new copy.
-    final ConversationPayload updated = getUpdated();
-
-    return updated == null ?
-        null :
-        getMessage(updated.lastMessage);
+    return getUpdated().thenCompose(
+        new Function<ConversationPayload, CompletableFuture<MessageContext>>() {
+          @Override
+          public CompletableFuture<MessageContext> apply(ConversationPayload updated) {
+            return MessageContext.getMessage(view, updated == null ? null : updated.lastMessage);
+          }
+        });
   }
 
-  private ConversationPayload getUpdated() {
-    final Collection<Uuid> ids = Arrays.asList(conversation.id);
-    final Iterator<ConversationPayload> payloads = view.getConversationPayloads(ids).iterator();
-    return payloads.hasNext() ? payloads.next() : null;
+  public MessageContext lastMessage() {
+    return Channel.await(lastMessageAsync(), null);
   }
 
-  private MessageContext getMessage(Uuid id) {
-    final Iterator<Message> messages = view.getMessages(Arrays.asList(id)).iterator();
-    return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
+  private CompletableFuture<ConversationPayload> getUpdated() {
+    final Collection<Uuid> ids = Arrays.asList(conversation.id);
+    return view.getConversationPayloadsAsync(ids).thenApply(
+        new Function<Collection<ConversationPayload>, ConversationPayload>() {
+          @Override
+          public ConversationPayload apply(Collection<ConversationPayload> found) {
+            final Iterator<ConversationPayload> payloads = found.iterator();
+            return payloads.hasNext() ? payloads.next() : null;
+          }
+        });
   }
 
   public enum response {
@@ -127,6 +175,10 @@ public final class ConversationContext {
     }
   }
 
+  public CompletableFuture<Collection<String>> listUsersAsync() {
+    return view.listUsersAsync(conversation.id);
+  }
+
   public Collection<String> listUsers() {
     final Uuid currentConversation = conversation.id;
 
@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// MESSAGE CACHE
+//
+// The messages the client has already downloaded, so that listing a
+// conversation again only needs to fetch what was added since. Holds at most
+// "capacity" messages and drops the least recently used one to make room.
+//
+// A message never changes once sent except for its "next" link, which is
+// filled in when a message is added after it - so the only message that can
+// go stale is the last one of a conversation. The cache remembers each
+// conversation's last message as the conversation's version; when a newer
+// payload shows a different last message the old one is dropped so that its
+// new "next" link is fetched.
+final class MessageCache {
+
+  public static final int DEFAULT_CAPACITY = 10000;
+
+  private final Map<Uuid, Message> messages;
+  private final Map<Uuid, Uuid> versions;
+
+  public MessageCache(final int capacity) {
+
+    this.messages = new LinkedHashMap<Uuid, Message>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Uuid, Message> eldest) {
+        return size() > capacity;
+      }
+    };
+
+    this.versions = new LinkedHashMap<Uuid, Uuid>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Uuid, Uuid> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // Returns null if the message is not in the cache.
+  public synchronized Message get(Uuid id) {
+    return messages.get(id);
+  }
+
+  public synchronized void put(Message message) {
+    messages.put(message.id, message);
+  }
+
+  // VERSION
+  //
+  // Record that the last message of the conversation is now "lastMessage". If
+  // it was something else before, that message has gained a "next" link
+  // since it was cached, so drop it.
+  public synchronized void version(Uuid conversation, Uuid lastMessage) {
+
+    final Uuid old = versions.put(conversation, lastMessage);
+
+    if (old != null && !old.equals(lastMessage)) {
+      messages.remove(old);
+    }
+  }
+
+  public synchronized int size() {
+    return messages.size();
+  }
+}
@@ -15,32 +15,72 @@
 package codeu.chat.client.core;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
-import codeu.chat.common.BasicView;
 import codeu.chat.common.Message;
 import codeu.chat.util.Uuid;
 
 public final class MessageContext {
 
   public final Message message;
-  private final BasicView view;
+  private final View view;
 
-  public MessageContext(Message message, BasicView view) {
+  public MessageContext(Message message, View view) {
     this.message = message;
     this.view = view;
   }
 
+  public CompletableFuture<MessageContext> nextAsync() {
+    return getMessage(view, message.next);
+  }
+
   public MessageContext next() {
-    return message.next == null ? null : getMessage(message.next);
+    return Channel.await(nextAsync(), null);
+  }
+
+  public CompletableFuture<MessageContext> previousAsync() {
+    return getMessage(view, message.previous);
   }
 
   public MessageContext previous() {
-    return message.previous == null ? null : getMessage(message.previous);
+    return Channel.await(previousAsync(), null);
+  }
+
+  // The messages after this one, oldest first, fetched in windows. See
+  // MessageIterator.
+  public Iterator<MessageContext> following() {
+    return skipFirst(new MessageIterator(view, message.id, true));
   }
 
-  private MessageContext getMessage(Uuid id) {
-    final Iterator<Message> messages = view.getMessages(Arrays.asList(id)).iterator();
-    return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
+  // The messages before this one, newest first, fetched in windows.
+  public Iterator<MessageContext> preceding() {
+    return skipFirst(new MessageIterator(view, message.id, false));
+  }
+
+  private static Iterator<MessageContext> skipFirst(Iterator<MessageContext> messages) {
+    if (messages.hasNext()) {
+      messages.next();
+    }
+    return messages;
+  }
+
+  // Completes with null if there is no such message.
+  static CompletableFuture<MessageContext> getMessage(final View view, Uuid id) {
+
+    if (id == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return view.getMessagesAsync(Arrays.asList(id)).thenApply(
+        new Function<Collection<Message>, MessageContext>() {
+          @Override
+          public MessageContext apply(Collection<Message> found) {
+            final Iterator<Message> messages = found.iterator();
+            return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
+          }
+        });
   }
 }
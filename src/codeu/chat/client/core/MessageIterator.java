@@ -0,0 +1,142 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// MESSAGE ITERATOR
+//
+// Walks a conversation one message at a time, the way "next" and "previous"
+// on MessageContext do, but fetches the messages a window at a time and asks
+// for the next window while the caller is still working through this one.
+// Fetches happen in the background, so the caller only waits if it gets ahead
+// of them.
+//
+// The window adapts to the caller. It starts small so that looking at a
+// handful of messages costs one small request. Every time the caller has to
+// wait for a fetch, the window doubles (up to MAX_WINDOW). A caller that
+// reads quickly ends up fetching large windows in few requests. A caller that
+// reads slowly never waits, and its window stays small.
+//
+// Like walking with "next", this sees the conversation as it was when each
+// window was fetched. Messages added after the end was reached are not
+// included.
+public final class MessageIterator implements Iterator<MessageContext> {
+
+  public static final int MIN_WINDOW = 8;
+  public static final int MAX_WINDOW = 512;
+
+  private final View view;
+  private final boolean forward;
+
+  private final Queue<Message> ready = new ArrayDeque<>();
+
+  // Where the next fetch starts. NULL once the end has been reached.
+  private Uuid next;
+  private CompletableFuture<List<Message>> pending;
+  private int window = MIN_WINDOW;
+
+  MessageIterator(View view, Uuid start, boolean forward) {
+
+    this.view = view;
+    this.forward = forward;
+    this.next = start == null ? Uuid.NULL : start;
+
+    prefetch();
+  }
+
+  // The size of the next fetch.
+  public int window() {
+    return window;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    if (ready.isEmpty() && pending != null) {
+
+      // The caller caught up with the fetches, so fetch more at a time.
+      if (!pending.isDone()) {
+        window = Math.min(window * 2, MAX_WINDOW);
+      }
+
+      take(Channel.await(pending, new ArrayList<Message>()));
+    }
+
+    return !ready.isEmpty();
+  }
+
+  @Override
+  public MessageContext next() {
+
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final MessageContext message = new MessageContext(ready.remove(), view);
+
+    // Ask for the next window once this one is half used, so that it has
+    // time to arrive.
+    if (ready.size() <= window / 2) {
+      prefetch();
+    }
+
+    return message;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private void prefetch() {
+    if (pending == null && !Uuid.NULL.equals(next)) {
+      pending = view.getMessageRangeAsync(next, window, forward);
+    }
+  }
+
+  private void take(List<Message> messages) {
+
+    pending = null;
+
+    if (messages.isEmpty()) {
+      // The start message is gone or the call failed. Either way there is
+      // nothing more to walk.
+      next = Uuid.NULL;
+      return;
+    }
+
+    ready.addAll(messages);
+
+    final Message last = messages.get(messages.size() - 1);
+    next = forward ? last.next : last.previous;
+    if (next == null) {
+      next = Uuid.NULL;
+    }
+
+    if (ready.size() <= window / 2) {
+      prefetch();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import codeu.chat.common.Capabilities;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Deflate;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// MULTIPLEXER
+//
+// A channel that sends every request over one connection. The connection
+// starts with MULTIPLEX_REQUEST, then each request is sent as a frame:
+//
+//   [INTEGER id][BYTES request]
+//
+// and the server answers each one with a frame of its own:
+//
+//   [INTEGER id][BYTES response]
+//
+// as soon as it has handled it, so responses can come back in a different
+// order than the requests went out. The id matches them up.
+//
+// Opening the connection agrees on Capabilities with the server, which is
+// why a request is only encoded once there is a connection to send it on.
+// With DEFLATE, the bytes of each request and response are packed by
+// codeu.chat.util.Deflate, so large ones are compressed.
+//
+// The connection is opened by the first call. If it is lost, every call
+// waiting on it fails and the next call opens a new one.
+final class Multiplexer extends Channel {
+
+  private final static Logger.Log LOG = Logger.newLog(Multiplexer.class);
+
+  private final ConnectionSource source;
+  private final int capabilities;
+
+  // Guarded by "this".
+  private Link link;
+  private int nextId = 0;
+
+  // "capabilities" are the ones to ask the server for.
+  public Multiplexer(ConnectionSource source, int capabilities) {
+    this.source = source;
+    this.capabilities = capabilities;
+  }
+
+  @Override
+  public <T> CompletableFuture<T> call(Request request, final Response<T> response) {
+
+    final Link link;
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try {
+      link = link();
+      request.write(link.wire(bytes));
+    } catch (IOException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    return send(link, link.pack(bytes.toByteArray())).thenApply(new Function<InputStream, T>() {
+      @Override
+      public T apply(InputStream in) {
+        try {
+          return response.read(in);
+        } catch (IOException ex) {
+          throw new CompletionException(ex);
+        }
+      }
+    });
+  }
+
+  @Override
+  public synchronized void close() {
+    if (link != null) {
+      link.close(new IOException("Channel closed"));
+      link = null;
+    }
+  }
+
+  private synchronized Link link() throws IOException {
+
+    if (link == null || link.closed) {
+      link = new Link(source.connect(), capabilities);
+    }
+
+    return link;
+  }
+
+  private synchronized CompletableFuture<InputStream> send(Link link, byte[] request) {
+
+    final CompletableFuture<InputStream> future = new CompletableFuture<>();
+
+    try {
+
+      // The request was encoded for this link, so it can not go on another.
+      if (link.closed) {
+        throw new IOException("Connection to server was lost");
+      }
+
+      final int id = nextId++;
+      link.add(id, future);
+
+      Serializers.INTEGER.write(link.out, id);
+      Serializers.BYTES.write(link.out, request);
+      link.out.flush();
+
+    } catch (IOException ex) {
+
+      future.completeExceptionally(ex);
+      link.close(ex);
+    }
+
+    return future;
+  }
+
+  // LINK
+  //
+  // One connection to the server and the calls waiting on it. A thread of its
+  // own reads the responses.
+  private static final class Link {
+
+    public final OutputStream out;
+    public final int capabilities;
+    public volatile boolean closed = false;
+
+    private final Connection connection;
+    private final DataInputStream in;
+    private final Map<Integer, CompletableFuture<InputStream>> waiting = new ConcurrentHashMap<>();
+
+    public Link(Connection connection, int capabilities) throws IOException {
+
+      this.connection = connection;
+      this.out = new BufferedOutputStream(connection.out());
+      this.in = new DataInputStream(new BufferedInputStream(connection.in()));
+
+      try {
+
+        Serializers.INTEGER.write(out, NetworkCode.MULTIPLEX_REQUEST);
+        Serializers.INTEGER.write(out, capabilities);
+        out.flush();
+
+        if (in.readInt() != NetworkCode.MULTIPLEX_RESPONSE) {
+          throw new IOException("Server does not support multiplexed connections");
+        }
+
+        // Only what was asked for, whatever the server says.
+        this.capabilities = in.readInt() & capabilities;
+
+      } catch (IOException ex) {
+        connection.close();
+        throw ex;
+      }
+
+      final Thread reader = new Thread("multiplexer") {
+        @Override
+        public void run() {
+          try {
+            read();
+          } catch (IOException ex) {
+            close(ex);
+          } catch (RuntimeException ex) {
+            // Anything else would end the thread without failing the calls
+            // that are waiting on it, and they would wait forever.
+            close(new IOException(ex));
+          }
+        }
+      };
+
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    public InputStream wire(InputStream in) {
+      return Capabilities.has(capabilities, Capabilities.COMPACT) ? new Compact.Input(in) : in;
+    }
+
+    public OutputStream wire(OutputStream out) {
+      return Capabilities.has(capabilities, Capabilities.COMPACT) ? new Compact.Output(out) : out;
+    }
+
+    public byte[] pack(byte[] request) {
+      return Capabilities.has(capabilities, Capabilities.DEFLATE) ? Deflate.DEFAULT.pack(request) : request;
+    }
+
+    public byte[] unpack(byte[] response) throws IOException {
+      return Capabilities.has(capabilities, Capabilities.DEFLATE) ? Deflate.unpack(response) : response;
+    }
+
+    public void add(int id, CompletableFuture<InputStream> future) {
+
+      waiting.put(id, future);
+
+      // If the link closed while this was being added, "close" may have
+      // already gone through the waiting calls and missed this one.
+      if (closed && waiting.remove(id) != null) {
+        future.completeExceptionally(new IOException("Connection to server was lost"));
+      }
+    }
+
+    public void close(IOException cause) {
+
+      if (!closed) {
+        closed = true;
+        LOG.info("Multiplexed connection closed (%s)", cause.toString());
+        try {
+          connection.close();
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while closing multiplexed connection.");
+        }
+      }
+
+      for (final Integer id : waiting.keySet()) {
+        final CompletableFuture<InputStream> future = waiting.remove(id);
+        if (future != null) {
+          future.completeExceptionally(cause);
+        }
+      }
+    }
+
+    private void read() throws IOException {
+
+      while (true) {
+
+        final int id = in.readInt();
+        final int length = in.readInt();
+
+        if (length < 0 || length > Deflate.MAX_FRAME) {
+          throw new IOException("Bad frame length " + length);
+        }
+
+        final byte[] response = Serializers.readBytes(in, length);
+
+        final CompletableFuture<InputStream> future = waiting.remove(id);
+
+        if (future == null) {
+          LOG.warning("Response for unknown request %d", id);
+        } else {
+          future.complete(wire(new ByteArrayInputStream(unpack(response))));
+        }
+      }
+    }
+  }
+}
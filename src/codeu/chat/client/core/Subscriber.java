@@ -0,0 +1,45 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// SUBSCRIBER
+//
+// Receives the new messages of every conversation a user is a member of as
+// the server adds them. See Context.subscribe. All calls are made on the
+// thread that subscribed.
+public interface Subscriber {
+
+  // ON SUBSCRIBE
+  //
+  // Called once the server has accepted the subscription. Every message added
+  // after this will be given to "onMessage", so this is the time to catch up
+  // on anything added before.
+  void onSubscribe();
+
+  // ON MESSAGE
+  //
+  // A message was added to the conversation.
+  void onMessage(Uuid conversation, Message message);
+
+  // ON DROPPED
+  //
+  // The server dropped the subscription because messages were added faster
+  // than this client took them. Some messages were missed, so catch up before
+  // subscribing again.
+  void onDropped();
+}
@@ -16,9 +16,9 @@ package codeu.chat.client.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
-import codeu.chat.common.BasicController;
-import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
@@ -26,32 +26,51 @@ import codeu.chat.util.Uuid;
 public final class UserContext {
 
   public final User user;
-  private final BasicView view;
-  private final BasicController controller;
+  private final View view;
+  private final Controller controller;
 
-  public UserContext(User user, BasicView view, BasicController controller) {
+  public UserContext(User user, View view, Controller controller) {
     this.user = user;
     this.view = view;
     this.controller = controller;
   }
 
-  public ConversationContext start(String name) {
-    final ConversationHeader conversation = controller.newConversation(name, user.id);
-    return conversation == null ?
-        null :
-        new ConversationContext(user, conversation, view, controller);
+  public CompletableFuture<ConversationContext> startAsync(String name) {
+    return controller.newConversationAsync(name, user.id).thenApply(
+        new Function<ConversationHeader, ConversationContext>() {
+          @Override
+          public ConversationContext apply(ConversationHeader conversation) {
+            return conversation == null ?
+                null :
+                new ConversationContext(user, conversation, view, controller);
+          }
+        });
   }
 
-  public Iterable<ConversationContext> conversations() {
+  public ConversationContext start(String name) {
+    return Channel.await(startAsync(name), null);
+  }
 
-    // Use all the ids to get all the conversations and convert them to
-    // Conversation Contexts.
-    final Collection<ConversationContext> all = new ArrayList<>();
-    for (final ConversationHeader conversation : view.getConversations()) {
-      all.add(new ConversationContext(user, conversation, view, controller));
-    }
+  public CompletableFuture<Iterable<ConversationContext>> conversationsAsync() {
+    return view.getConversationsAsync().thenApply(
+        new Function<Collection<ConversationHeader>, Iterable<ConversationContext>>() {
+          @Override
+          public Iterable<ConversationContext> apply(Collection<ConversationHeader> conversations) {
+
+            // Use all the ids to get all the conversations and convert them to
+            // Conversation Contexts.
+            final Collection<ConversationContext> all = new ArrayList<>();
+            for (final ConversationHeader conversation : conversations) {
+              all.add(new ConversationContext(user, conversation, view, controller));
+            }
+
+            return all;
+          }
+        });
+  }
 
-    return all;
+  public Iterable<ConversationContext> conversations() {
+    return Channel.await(conversationsAsync(), new ArrayList<ConversationContext>());
   }
 
   public enum response {
@@ -117,10 +136,18 @@ public final class UserContext {
     }
   }
 
+  public CompletableFuture<Collection<String>> userStatusUpdateAsync(String name) {
+    return view.userStatusUpdateAsync(name, user.id);
+  }
+
   public Collection<String> userStatusUpdate(String name) {
     return view.userStatusUpdate(name, user.id);
   }
 
+  public CompletableFuture<Integer> conversationStatusUpdateAsync(String title) {
+    return view.conversationStatusUpdateAsync(title, user.id);
+  }
+
   public int conversationStatusUpdate(String title) {
     return view.conversationStatusUpdate(title, user.id);
   }
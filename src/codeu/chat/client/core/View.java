@@ -14,18 +14,29 @@
 
 package codeu.chat.client.core;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
@@ -35,221 +46,468 @@ import codeu.chat.util.connections.ConnectionSource;
 // VIEW
 //
 // This is the view component of the Model-View-Controller pattern used by the
-// the client to reterive readonly data from the server. All methods are blocking
-// calls.
+// the client to reterive readonly data from the server. Every call has a
+// non-blocking form (ending in "Async") that returns a future, and a blocking
+// form that waits for it. See Channel.
+//
+// Messages are kept in a MessageCache so that only messages the client has not
+// seen yet are fetched from the server. The last list of users and of
+// conversations are kept too, with the version the server gave them, and are
+// only sent again by the server when they have changed.
 final class View implements BasicView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
-  private final ConnectionSource source;
+  // HELD
+  //
+  // A table the client already has and the server's version of it.
+  private static final class Held<T> {
 
-  public View(ConnectionSource source) {
-    this.source = source;
+    private long epoch = 0;
+    private long version = 0;
+    private Collection<T> items = new ArrayList<>();
   }
 
-  @Override
-  public Collection<User> getUsers() {
+  private final ConnectionSource source;
+  private final Channel channel;
+  private final MessageCache cache;
 
-    final Collection<User> users = new ArrayList<>();
+  private final Held<User> users = new Held<>();
+  private final Held<ConversationHeader> conversations = new Held<>();
 
-    try (final Connection connection = source.connect()) {
+  public View(ConnectionSource source) {
+    this(source, Channel.multiplexed(source), new MessageCache(MessageCache.DEFAULT_CAPACITY));
+  }
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_REQUEST);
+  // "source" is only used for subscriptions, which need a connection of
+  // their own. Everything else goes through "channel".
+  public View(ConnectionSource source, Channel channel, MessageCache cache) {
+    this.source = source;
+    this.channel = channel;
+    this.cache = cache;
+  }
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_RESPONSE) {
-        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
-      }
+  public CompletableFuture<Collection<User>> getUsersAsync() {
+    return ifModified(NetworkCode.GET_USERS_IF_MODIFIED_REQUEST,
+                      NetworkCode.GET_USERS_IF_MODIFIED_RESPONSE,
+                      User.SERIALIZER,
+                      users);
+  }
 
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
+  @Override
+  public Collection<User> getUsers() {
+    return Channel.await(getUsersAsync(), new ArrayList<User>());
+  }
 
-    return users;
+  public CompletableFuture<Collection<ConversationHeader>> getConversationsAsync() {
+    return ifModified(NetworkCode.GET_ALL_CONVERSATIONS_IF_MODIFIED_REQUEST,
+                      NetworkCode.GET_ALL_CONVERSATIONS_IF_MODIFIED_RESPONSE,
+                      ConversationHeader.SERIALIZER,
+                      conversations);
   }
 
   @Override
   public Collection<ConversationHeader> getConversations() {
+    return Channel.await(getConversationsAsync(), new ArrayList<ConversationHeader>());
+  }
 
-    final Collection<ConversationHeader> summaries = new ArrayList<>();
-
-    try (final Connection connection = source.connect()) {
-
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+  public CompletableFuture<Collection<ConversationPayload>> getConversationPayloadsAsync(
+      final Collection<Uuid> ids) {
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
-        summaries.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
+        Serializers.collection(Uuid.SERIALIZER).write(out, ids);
       }
-
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return summaries;
+    }, new Channel.Response<Collection<ConversationPayload>>() {
+      @Override
+      public Collection<ConversationPayload> read(InputStream in) throws IOException {
+
+        final Collection<ConversationPayload> conversations = new ArrayList<>();
+
+        if (Serializers.INTEGER.read(in) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
+          conversations.addAll(Serializers.collection(ConversationPayload.SERIALIZER).read(in));
+          for (final ConversationPayload conversation : conversations) {
+            cache.version(conversation.id, conversation.lastMessage);
+          }
+        } else {
+          LOG.error("Response from server failed.");
+        }
+
+        return conversations;
+      }
+    });
   }
 
   @Override
   public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+    return Channel.await(getConversationPayloadsAsync(ids), new ArrayList<ConversationPayload>());
+  }
 
-    final Collection<ConversationPayload> conversations = new ArrayList<>();
-
-    try (final Connection connection = source.connect()) {
+  public CompletableFuture<Collection<Message>> getMessagesAsync(final Collection<Uuid> ids) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
-      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+    final Map<Uuid, Message> found = new HashMap<>();
+    final Collection<Uuid> missing = new ArrayList<>();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
-        conversations.addAll(Serializers.collection(ConversationPayload.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
+    for (final Uuid id : ids) {
+      final Message cached = cache.get(id);
+      if (cached != null) {
+        found.put(id, cached);
+      } else if (!Uuid.NULL.equals(id)) {
+        // The end of a conversation is linked to NULL, no message has that id.
+        missing.add(id);
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
     }
 
-    return conversations;
+    if (missing.isEmpty()) {
+      return CompletableFuture.completedFuture(inOrder(ids, found));
+    }
+
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
+        Serializers.collection(Uuid.SERIALIZER).write(out, missing);
+      }
+    }, Channel.expect(NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+                      Serializers.collection(Message.SERIALIZER),
+                      new ArrayList<Message>())).thenApply(
+        new Function<Collection<Message>, Collection<Message>>() {
+          @Override
+          public Collection<Message> apply(Collection<Message> fetched) {
+            for (final Message message : fetched) {
+              cache.put(message);
+              found.put(message.id, message);
+            }
+            return inOrder(ids, found);
+          }
+        });
   }
 
   @Override
   public Collection<Message> getMessages(Collection<Uuid> ids) {
+    return Channel.await(getMessagesAsync(ids), new ArrayList<Message>());
+  }
 
-    final Collection<Message> messages = new ArrayList<>();
+  // GET MESSAGE RANGE
+  //
+  // Up to "count" messages starting with "start" and following the "next"
+  // links (or the "previous" links if "forward" is false). Messages that are
+  // already cached are used as they are, and the rest of the run is fetched in
+  // one request starting from the first message that is not cached.
+  public CompletableFuture<List<Message>> getMessageRangeAsync(Uuid start,
+                                                               final int count,
+                                                               final boolean forward) {
+
+    final List<Message> found = new ArrayList<>();
+
+    Uuid next = start;
+    for (Message cached = cache.get(next);
+         cached != null && found.size() < count;
+         cached = cache.get(next)) {
+      found.add(cached);
+      next = forward ? cached.next : cached.previous;
+    }
 
-    try (final Connection connection = source.connect()) {
+    if (found.size() == count || next == null || Uuid.NULL.equals(next)) {
+      return CompletableFuture.completedFuture(found);
+    }
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
-      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+    final Uuid from = next;
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_ID_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGE_RANGE_REQUEST);
+        Uuid.SERIALIZER.write(out, from);
+        Serializers.INTEGER.write(out, count - found.size());
+        Serializers.BOOLEAN.write(out, forward);
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
+    }, Channel.expect(NetworkCode.GET_MESSAGE_RANGE_RESPONSE,
+                      Serializers.collection(Message.SERIALIZER),
+                      new ArrayList<Message>())).thenApply(
+        new Function<Collection<Message>, List<Message>>() {
+          @Override
+          public List<Message> apply(Collection<Message> fetched) {
+            for (final Message message : fetched) {
+              cache.put(message);
+              found.add(message);
+            }
+            return found;
+          }
+        });
+  }
 
-    return messages;
+  public CompletableFuture<Collection<String>> userStatusUpdateAsync(final String name,
+                                                                    final Uuid owner) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.USER_STATUS_UPDATE_REQUEST);
+        Serializers.STRING.write(out, name);
+        Uuid.SERIALIZER.write(out, owner);
+      }
+    }, Channel.expect(NetworkCode.USER_STATUS_UPDATE_RESPONSE,
+                      Serializers.collection(Serializers.STRING),
+                      new ArrayList<String>()));
   }
 
   @Override
   public Collection<String> userStatusUpdate(String name, Uuid owner) {
+    return Channel.await(userStatusUpdateAsync(name, owner), new ArrayList<String>());
+  }
 
-    final Collection<String> conversations = new ArrayList<>();
+  public CompletableFuture<Integer> conversationStatusUpdateAsync(final String title,
+                                                                 final Uuid owner) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.CONVERSATION_STATUS_UPDATE_REQUEST);
+        Serializers.STRING.write(out, title);
+        Uuid.SERIALIZER.write(out, owner);
+      }
+    }, Channel.expect(NetworkCode.CONVERSATION_STATUS_UPDATE_RESPONSE, Serializers.INTEGER, 0));
+  }
 
-    try (final Connection connection = source.connect()) {
+  @Override
+  public int conversationStatusUpdate(String title, Uuid owner) {
+    return Channel.await(conversationStatusUpdateAsync(title, owner), 0);
+  }
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.USER_STATUS_UPDATE_REQUEST);
-      Serializers.STRING.write(connection.out(), name);
-      Uuid.SERIALIZER.write(connection.out(), owner);
+  public CompletableFuture<Integer> attemptJoinConversationAsync(final String title,
+                                                                final Uuid currentUser) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.ATTEMPT_JOIN_CONVERSATION_REQUEST);
+        Serializers.STRING.write(out, title);
+        Uuid.SERIALIZER.write(out, currentUser);
+      }
+    }, Channel.expect(NetworkCode.ATTEMPT_JOIN_CONVERSATION_RESPONSE, Serializers.INTEGER, 0));
+  }
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.USER_STATUS_UPDATE_RESPONSE) {
-        conversations.addAll(Serializers.collection(Serializers.STRING).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
+  @Override
+  public int attemptJoinConversation(String title, Uuid currentUser) {
+    return Channel.await(attemptJoinConversationAsync(title, currentUser), 0);
+  }
+
+  public CompletableFuture<Collection<String>> listUsersAsync(final Uuid currentConversation) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.LIST_USERS_REQUEST);
+        Uuid.SERIALIZER.write(out, currentConversation);
       }
+    }, new Channel.Response<Collection<String>>() {
+      @Override
+      public Collection<String> read(InputStream in) throws IOException {
 
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
+        final Collection<String> userCategorySet = new HashSet<>();
+
+        if (Serializers.INTEGER.read(in) == NetworkCode.LIST_USERS_RESPONSE) {
+          userCategorySet.addAll(Serializers.collection(Serializers.STRING).read(in));
+        } else {
+          LOG.error("Response from server failed.");
+        }
 
-    return conversations;
+        return userCategorySet;
+      }
+    });
   }
 
-  @Override
-  public int conversationStatusUpdate(String title, Uuid owner) {
+  public Collection<String> listUsers(Uuid currentConversation) {
+    return Channel.await(listUsersAsync(currentConversation), new HashSet<String>());
+  }
 
-    int newMessages = 0;
+  // SUBSCRIBE
+  //
+  // Have the server push the new messages of the user's conversations to the
+  // subscriber. Blocks for as long as the subscription lasts, returns false
+  // once it was refused, lost, or dropped by the server.
+  public boolean subscribe(Uuid user, Subscriber subscriber) {
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.CONVERSATION_STATUS_UPDATE_REQUEST);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), owner);
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), user);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.CONVERSATION_STATUS_UPDATE_RESPONSE) {
-        newMessages = Serializers.INTEGER.read(connection.in());
-      } else {
+      if (Serializers.INTEGER.read(connection.in()) != NetworkCode.SUBSCRIBE_RESPONSE) {
         LOG.error("Response from server failed.");
+        return false;
       }
 
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
+      if (!Serializers.BOOLEAN.read(connection.in())) {
+        LOG.error("Server refused the subscription.");
+        return false;
+      }
 
-    return newMessages;
-  }
+      subscriber.onSubscribe();
 
-  @Override
-  public int attemptJoinConversation(String title, Uuid currentUser) {
+      while (true) {
 
-    int response = 0;
+        final int type = Serializers.INTEGER.read(connection.in());
 
-    try (final Connection connection = source.connect()) {
+        if (type == NetworkCode.SUBSCRIBE_PUSH) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.ATTEMPT_JOIN_CONVERSATION_REQUEST);
-      Serializers.STRING.write(connection.out(), title);
-      Uuid.SERIALIZER.write(connection.out(), currentUser);
+          final Uuid conversation = Uuid.SERIALIZER.read(connection.in());
+          final Message message = Message.SERIALIZER.read(connection.in());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.ATTEMPT_JOIN_CONVERSATION_RESPONSE) {
-        response = Serializers.INTEGER.read(connection.in());
-      } else {
-        LOG.error("Response from server failed.");
+          // The pushed message is the conversation's newest, which keeps the
+          // cache from having to ask for the payload to find that out.
+          cache.version(conversation, message.id);
+          cache.put(message);
+
+          subscriber.onMessage(conversation, message);
+
+        } else if (type == NetworkCode.SUBSCRIBE_DROPPED) {
+
+          subscriber.onDropped();
+          return false;
+
+        } else if (type != NetworkCode.SUBSCRIBE_HEARTBEAT) {
+          throw new IOException(String.format("Unexpected message from server (%d)", type));
+        }
       }
+
     } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
+      LOG.error(ex, "Subscription to server was lost.");
     }
 
-    return response;
+    return false;
   }
 
-  public Collection<String> listUsers(Uuid currentConversation) {
+  public CompletableFuture<ServerStats> getStatsAsync() {
+    return channel.call(
+        request(NetworkCode.SERVER_STATS_REQUEST),
+        Channel.expect(NetworkCode.SERVER_STATS_RESPONSE, ServerStats.SERIALIZER, null));
+  }
 
-    final Collection<String> userCategorySet = new HashSet<>();
+  public ServerStats getStats() {
+    return Channel.await(getStatsAsync(), null);
+  }
 
-    try (final Connection connection = source.connect()) {
+  // Everything created after "since" in the server's change sequence. Changes
+  // are not added to the message cache - a message's "next" link can change
+  // after it is sent and the cache only tracks that for messages it fetched
+  // itself.
+  public CompletableFuture<Changes> getChangesAsync(final long epoch, final long since) {
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_CHANGES_REQUEST);
+        Serializers.LONG.write(out, epoch);
+        Serializers.LONG.write(out, since);
+      }
+    }, Channel.expect(NetworkCode.GET_CHANGES_RESPONSE, Changes.SERIALIZER, null));
+  }
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.LIST_USERS_REQUEST);
-      Uuid.SERIALIZER.write(connection.out(), currentConversation);
+  public Changes getChanges(long epoch, long since) {
+    return Channel.await(getChangesAsync(epoch, since), null);
+  }
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.LIST_USERS_RESPONSE) {
-        userCategorySet.addAll(Serializers.collection(Serializers.STRING).read(connection.in()));
-      } else {
+  public CompletableFuture<ServerInfo> getInfoAsync() {
+    return channel.call(request(NetworkCode.SERVER_INFO_REQUEST), new Channel.Response<ServerInfo>() {
+      @Override
+      public ServerInfo read(InputStream in) throws IOException {
+        if (Serializers.INTEGER.read(in) == NetworkCode.SERVER_INFO_RESPONSE) {
+          final Uuid version = Uuid.SERIALIZER.read(in);
+          final Time startTime = Time.SERIALIZER.read(in);
+          return new ServerInfo(version, startTime);
+        }
         LOG.error("Response from server failed.");
+        return null;
       }
-    } catch (Exception ex) {
-      System.out.println("ERROR: Exception during call on server. Check log for details.");
-      LOG.error(ex, "Exception during call on server.");
-    }
-
-    return userCategorySet;
+    });
   }
 
   @Override
   public ServerInfo getInfo() {
-    try (final Connection connection = this.source.connect()) {
-      Serializers.INTEGER.write(connection.out(), NetworkCode.SERVER_INFO_REQUEST);
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SERVER_INFO_RESPONSE) {
-        final Uuid version = Uuid.SERIALIZER.read(connection.in());
-        final Time startTime = Time.SERIALIZER.read(connection.in());
-        return new ServerInfo(version, startTime);
-      } else {
-	       LOG.error("Response from server failed.");
+    return Channel.await(getInfoAsync(), null);
+  }
+
+  // A request that is only its code.
+  private static Channel.Request request(final int code) {
+    return new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, code);
+      }
+    };
+  }
+
+  // IF MODIFIED
+  //
+  // Ask for a whole table, sending the version of the copy already held. If
+  // the server says it has not changed, the held copy is used. Every caller
+  // gets a copy of its own.
+  private <T> CompletableFuture<Collection<T>> ifModified(final int requestCode,
+                                                          final int responseCode,
+                                                          final Serializer<T> serializer,
+                                                          final Held<T> held) {
+
+    final long epoch;
+    final long version;
+
+    synchronized (held) {
+      epoch = held.epoch;
+      version = held.version;
+    }
+
+    return channel.call(new Channel.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, requestCode);
+        Serializers.LONG.write(out, epoch);
+        Serializers.LONG.write(out, version);
+      }
+    }, new Channel.Response<Collection<T>>() {
+      @Override
+      public Collection<T> read(InputStream in) throws IOException {
+
+        if (Serializers.INTEGER.read(in) != responseCode) {
+          LOG.error("Response from server failed.");
+          return new ArrayList<T>();
+        }
+
+        final long newEpoch = Serializers.LONG.read(in);
+        final long newVersion = Serializers.LONG.read(in);
+        final boolean modified = Serializers.BOOLEAN.read(in);
+
+        if (!modified) {
+          synchronized (held) {
+            return new ArrayList<T>(held.items);
+          }
+        }
+
+        final Collection<T> items = Serializers.collection(serializer).read(in);
+
+        // Calls can finish out of order. Keep whichever copy is newest.
+        synchronized (held) {
+          if (newEpoch != held.epoch || newVersion >= held.version) {
+            held.items = items;
+            held.epoch = newEpoch;
+            held.version = newVersion;
+          }
+        }
+
+        return new ArrayList<T>(items);
+      }
+    });
+  }
+
+  // The messages that were found, in the order they were asked for.
+  private static Collection<Message> inOrder(Collection<Uuid> ids, Map<Uuid, Message> found) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    for (final Uuid id : ids) {
+      final Message message = found.get(id);
+      if (message != null) {
+        messages.add(message);
       }
-    } catch (Exception ex) {
-      	System.out.println("ERROR: Exception during call on server. Check log for details.");
-	      LOG.error(ex, "Exception during call on server.");
     }
-    return null;
+
+    return messages;
   }
 }
@@ -0,0 +1,53 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+// CAPABILITIES
+//
+// Optional protocol features that a client and server agree on when a
+// multiplexed connection starts. The client sends the ones it would like as
+// the bits of an INTEGER right after MULTIPLEX_REQUEST. The server answers
+// with the ones it will use, as an INTEGER right after MULTIPLEX_RESPONSE.
+// Both ends then use exactly those for every frame on the connection. A
+// server that does not know a bit leaves it out of its answer.
+//
+// The relay agrees on them the same way, except that as it takes one request
+// per connection the client sends RELAY_CAPABILITIES_REQUEST and its INTEGER
+// just ahead of the request, without waiting, and the relay answers with
+// RELAY_CAPABILITIES_RESPONSE and its INTEGER ahead of the response. The relay
+// only knows DEFLATE.
+public final class Capabilities {
+
+  private Capabilities() { }
+
+  // Every request and response in a frame uses the compact encoding. See
+  // codeu.chat.util.Compact.
+  public static final int COMPACT = 1;
+
+  // Frames are packed with codeu.chat.util.Deflate, so large ones go out
+  // compressed. On the relay, everything it sends after agreeing is in
+  // Deflate frames.
+  public static final int DEFLATE = 2;
+
+  // Everything this code base supports.
+  public static final int SUPPORTED = COMPACT | DEFLATE;
+
+  // Everything the relay supports.
+  public static final int RELAY_SUPPORTED = DEFLATE;
+
+  public static boolean has(int capabilities, int capability) {
+    return (capabilities & capability) != 0;
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// CHANGES
+//
+// Everything that was created on a server after a given point in its change
+// sequence. Every user, conversation and message a server creates gets the
+// next number in the sequence. A client remembers the "epoch" and "sequence"
+// of the last changes it saw and asks for what came after them.
+//
+// The epoch identifies one run of the server - the sequence starts again when
+// the server restarts, so a sequence number is only meaningful together with
+// its epoch.
+//
+// If "resync" is set the server could not tell what changed (it was
+// restarted, or it no longer remembers that far back) and the lists are
+// empty. The client should fetch everything again and then ask for changes
+// after this "sequence". If "more" is set there were too many changes for one
+// response and the client should ask again straight away.
+public final class Changes {
+
+  public static final Serializer<Changes> SERIALIZER = new Serializer<Changes>() {
+
+    @Override
+    public void write(OutputStream out, Changes value) throws IOException {
+
+      Serializers.LONG.write(out, value.epoch);
+      Serializers.LONG.write(out, value.sequence);
+      Serializers.BOOLEAN.write(out, value.resync);
+      Serializers.BOOLEAN.write(out, value.more);
+      Serializers.collection(User.SERIALIZER).write(out, value.users);
+      Serializers.collection(ConversationHeader.SERIALIZER).write(out, value.conversations);
+      Serializers.collection(Message.SERIALIZER).write(out, value.messages);
+
+    }
+
+    @Override
+    public Changes read(InputStream in) throws IOException {
+
+      return new Changes(
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Serializers.BOOLEAN.read(in),
+          Serializers.BOOLEAN.read(in),
+          Serializers.collection(User.SERIALIZER).read(in),
+          Serializers.collection(ConversationHeader.SERIALIZER).read(in),
+          Serializers.collection(Message.SERIALIZER).read(in)
+      );
+
+    }
+  };
+
+  public final long epoch;
+  public final long sequence;
+  public final boolean resync;
+  public final boolean more;
+  public final Collection<User> users;
+  public final Collection<ConversationHeader> conversations;
+  public final Collection<Message> messages;
+
+  public Changes(long epoch,
+                 long sequence,
+                 boolean resync,
+                 boolean more,
+                 Collection<User> users,
+                 Collection<ConversationHeader> conversations,
+                 Collection<Message> messages) {
+
+    this.epoch = epoch;
+    this.sequence = sequence;
+    this.resync = resync;
+    this.more = more;
+    this.users = users;
+    this.conversations = conversations;
+    this.messages = messages;
+
+  }
+}
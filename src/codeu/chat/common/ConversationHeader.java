@@ -17,29 +17,27 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import codeu.chat.util.EncodedForm;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import java.util.Map;
-import java.util.HashMap;
 
 public final class ConversationHeader {
 
+  // Nothing that is written ever changes (the members are not sent), so the
+  // encoded form is kept and reused. See EncodedForm.
+  private static final EncodedForm.Fields<ConversationHeader> FIELDS = ConversationHeader::writeFields;
+
   public static final Serializer<ConversationHeader> SERIALIZER = new Serializer<ConversationHeader>() {
 
     @Override
     public void write(OutputStream out, ConversationHeader value) throws IOException {
-
-      Uuid.SERIALIZER.write(out, value.id);
-      Uuid.SERIALIZER.write(out, value.owner);
-      Time.SERIALIZER.write(out, value.creation);
-      Serializers.STRING.write(out, value.title);
-
+      value.encoded().write(out, FIELDS, value);
     }
 
     @Override
@@ -75,7 +73,12 @@ public final class ConversationHeader {
   public final Uuid owner;
   public final Time creation;
   public final String title;
-  public Map<Uuid, Integer> userCategory = new HashMap<Uuid, Integer>();
+  // Members are added and promoted on the main executor while messages are
+  // published to subscribers from conversation lanes, so this is read and
+  // written from several threads at once.
+  public ConcurrentMap<Uuid, Integer> userCategory = new ConcurrentHashMap<Uuid, Integer>();
+
+  private transient EncodedForm encoded;
 
   public ConversationHeader(Uuid id, Uuid owner, Time creation, String title) {
 
@@ -100,4 +103,20 @@ public final class ConversationHeader {
     }
     return count;
   }
+
+  // Made when first needed, as conversations read back by Gson do not run the
+  // constructor.
+  private EncodedForm encoded() {
+    if (encoded == null) {
+      encoded = new EncodedForm();
+    }
+    return encoded;
+  }
+
+  private static void writeFields(OutputStream out, ConversationHeader value) throws IOException {
+    Uuid.SERIALIZER.write(out, value.id);
+    Uuid.SERIALIZER.write(out, value.owner);
+    Time.SERIALIZER.write(out, value.creation);
+    Serializers.STRING.write(out, value.title);
+  }
 }
@@ -48,9 +48,11 @@ public final class ConversationPayload {
 
   public final Uuid id;
 
-  // These are allowed to be updated and therefore are not marked final
-  public Uuid firstMessage = Uuid.NULL;
-  public Uuid lastMessage = Uuid.NULL;
+  // These are allowed to be updated and therefore are not marked final. They
+  // are updated while holding the payload's lock (see Controller.newMessage)
+  // but can be read from any thread.
+  public volatile Uuid firstMessage = Uuid.NULL;
+  public volatile Uuid lastMessage = Uuid.NULL;
 
   public ConversationPayload(Uuid id) {
     this.id = id;
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import codeu.chat.util.EncodedForm;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -25,6 +26,10 @@ import codeu.chat.util.Uuid;
 
 public final class Message {
 
+  // Everything after "next" never changes, so its encoded form is kept and
+  // reused. See EncodedForm. "id" is a Uuid that is already cheap to write.
+  private static final EncodedForm.Fields<Message> FIXED_FIELDS = Message::writeFixedFields;
+
   public static final Serializer<Message> SERIALIZER = new Serializer<Message>() {
 
     @Override
@@ -32,10 +37,7 @@ public final class Message {
 
       Uuid.SERIALIZER.write(out, value.id);
       Uuid.SERIALIZER.write(out, value.next);
-      Uuid.SERIALIZER.write(out, value.previous);
-      Time.SERIALIZER.write(out, value.creation);
-      Uuid.SERIALIZER.write(out, value.author);
-      Serializers.STRING.write(out, value.content);
+      value.encoded().write(out, FIXED_FIELDS, value);
 
     }
 
@@ -59,7 +61,9 @@ public final class Message {
   public final Time creation;
   public final Uuid author;
   public final String content;
-  public Uuid next;
+  public volatile Uuid next;
+
+  private transient EncodedForm encoded;
 
   public Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, String content) {
 
@@ -71,4 +75,20 @@ public final class Message {
     this.content = content;
 
   }
+
+  // Made when first needed, as messages read back by Gson do not run the
+  // constructor.
+  private EncodedForm encoded() {
+    if (encoded == null) {
+      encoded = new EncodedForm();
+    }
+    return encoded;
+  }
+
+  private static void writeFixedFields(OutputStream out, Message value) throws IOException {
+    Uuid.SERIALIZER.write(out, value.previous);
+    Time.SERIALIZER.write(out, value.creation);
+    Uuid.SERIALIZER.write(out, value.author);
+    Serializers.STRING.write(out, value.content);
+  }
 }
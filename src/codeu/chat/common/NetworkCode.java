@@ -14,6 +14,9 @@
 
 package codeu.chat.common;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
 public final class NetworkCode {
 
   public static final int
@@ -57,5 +60,50 @@ public final class NetworkCode {
       ATTEMPT_JOIN_CONVERSATION_REQUEST = 49,
       ATTEMPT_JOIN_CONVERSATION_RESPONSE = 50,
       LIST_USERS_REQUEST = 51,
-      LIST_USERS_RESPONSE = 52;
+      LIST_USERS_RESPONSE = 52,
+      RELAY_SUBSCRIBE_REQUEST = 53,
+      RELAY_SUBSCRIBE_RESPONSE = 54,
+      RELAY_PUSH = 55,
+      RELAY_ACK = 56,
+      RELAY_HEARTBEAT = 57,
+      SERVER_STATS_REQUEST = 58,
+      SERVER_STATS_RESPONSE = 59,
+      SUBSCRIBE_REQUEST = 60,
+      SUBSCRIBE_RESPONSE = 61,
+      SUBSCRIBE_PUSH = 62,
+      SUBSCRIBE_HEARTBEAT = 63,
+      SUBSCRIBE_DROPPED = 64,
+      MULTIPLEX_REQUEST = 65,
+      MULTIPLEX_RESPONSE = 66,
+      GET_MESSAGE_RANGE_REQUEST = 67,
+      GET_MESSAGE_RANGE_RESPONSE = 68,
+      GET_CHANGES_REQUEST = 69,
+      GET_CHANGES_RESPONSE = 70,
+      GET_USERS_IF_MODIFIED_REQUEST = 71,
+      GET_USERS_IF_MODIFIED_RESPONSE = 72,
+      GET_ALL_CONVERSATIONS_IF_MODIFIED_REQUEST = 73,
+      GET_ALL_CONVERSATIONS_IF_MODIFIED_RESPONSE = 74,
+      RELAY_CAPABILITIES_REQUEST = 75,
+      RELAY_CAPABILITIES_RESPONSE = 76;
+
+  // NAME
+  //
+  // The name of a code, like "NEW_MESSAGE_REQUEST", for showing to people. Codes
+  // that are not defined here are shown as numbers.
+  public static String name(int code) {
+
+    for (final Field field : NetworkCode.class.getFields()) {
+      try {
+        if (Modifier.isStatic(field.getModifiers()) &&
+            field.getType() == int.class &&
+            field.getInt(null) == code) {
+          return field.getName();
+        }
+      } catch (IllegalAccessException ex) {
+        // All the fields are public so this will not happen.
+      }
+    }
+
+    return Integer.toString(code);
+  }
 }
@@ -133,4 +133,38 @@ public interface Relay {
   // was given Uuids.NULL.
   Collection<Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range);
 
+  // SUBSCRIBER
+  //
+  // Receives the bundles that the relay pushes to a subscribed team. Bundles are
+  // given to the subscriber in the same order that they would be returned by "read".
+  // A bundle is only acknowledged to the relay once "onBundle" returns, so the
+  // subscriber should not return until it is done with the bundle.
+  interface Subscriber {
+
+    // ON SUBSCRIBE
+    //
+    // Called once the relay has accepted the subscription and before any bundles
+    // are given to the subscriber.
+    void onSubscribe();
+
+    // ON BUNDLE
+    //
+    // Called for each bundle the relay pushes.
+    void onBundle(Bundle bundle);
+
+  }
+
+  // SUBSCRIBE
+  //
+  // Ask the relay to push bundles to the subscriber as they arrive rather than having
+  // to poll with "read". The relay tracks a delivery cursor for the team. If the root
+  // is Uuids.NULL the relay will continue from the team's last acknowledged bundle (or
+  // its earliest point if the team has never subscribed), otherwise it will start
+  // after the root like "read" does. The relay will not have more than "window"
+  // bundles waiting for an acknowledgement at any time.
+  //
+  // This call blocks for as long as the subscription is open. It will return false if
+  // the relay rejected the subscription or if the subscription was lost.
+  boolean subscribe(Uuid teamId, Secret teamSecret, Uuid root, int window, Subscriber subscriber);
+
 }
@@ -0,0 +1,159 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+
+// SERVER STATS
+//
+// A snapshot of how much work a server has done for each kind of request since
+// it started. Latencies are in microseconds, from reading the request's type to
+// writing its response. It also says how far behind the relay the server is:
+// how many bundles it has read from the relay but not yet applied, and how old
+// (by the relay's clock) the last bundle it applied was.
+public final class ServerStats {
+
+  public static final Serializer<ServerStats> SERIALIZER = new Serializer<ServerStats>() {
+
+    @Override
+    public void write(OutputStream out, ServerStats value) throws IOException {
+
+      Time.SERIALIZER.write(out, value.time);
+      Serializers.collection(Command.SERIALIZER).write(out, value.commands);
+      Serializers.INTEGER.write(out, value.relayPendingBundles);
+      Serializers.LONG.write(out, value.relayLagMs);
+
+    }
+
+    @Override
+    public ServerStats read(InputStream in) throws IOException {
+
+      return new ServerStats(
+          Time.SERIALIZER.read(in),
+          Serializers.collection(Command.SERIALIZER).read(in),
+          Serializers.INTEGER.read(in),
+          Serializers.LONG.read(in)
+      );
+
+    }
+  };
+
+  // COMMAND
+  //
+  // The stats for one request type (a NetworkCode).
+  public static final class Command {
+
+    public static final Serializer<Command> SERIALIZER = new Serializer<Command>() {
+
+      @Override
+      public void write(OutputStream out, Command value) throws IOException {
+
+        Serializers.INTEGER.write(out, value.code);
+        Serializers.LONG.write(out, value.count);
+        Serializers.LONG.write(out, value.errors);
+        Serializers.LONG.write(out, value.bytesIn);
+        Serializers.LONG.write(out, value.bytesOut);
+        Serializers.LONG.write(out, value.meanUs);
+        Serializers.LONG.write(out, value.p50Us);
+        Serializers.LONG.write(out, value.p90Us);
+        Serializers.LONG.write(out, value.p99Us);
+        Serializers.LONG.write(out, value.p999Us);
+        Serializers.LONG.write(out, value.maxUs);
+
+      }
+
+      @Override
+      public Command read(InputStream in) throws IOException {
+
+        return new Command(
+            Serializers.INTEGER.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in)
+        );
+
+      }
+    };
+
+    public final int code;
+    public final long count;
+    public final long errors;
+    public final long bytesIn;
+    public final long bytesOut;
+    public final long meanUs;
+    public final long p50Us;
+    public final long p90Us;
+    public final long p99Us;
+    public final long p999Us;
+    public final long maxUs;
+
+    public Command(int code,
+                   long count,
+                   long errors,
+                   long bytesIn,
+                   long bytesOut,
+                   long meanUs,
+                   long p50Us,
+                   long p90Us,
+                   long p99Us,
+                   long p999Us,
+                   long maxUs) {
+
+      this.code = code;
+      this.count = count;
+      this.errors = errors;
+      this.bytesIn = bytesIn;
+      this.bytesOut = bytesOut;
+      this.meanUs = meanUs;
+      this.p50Us = p50Us;
+      this.p90Us = p90Us;
+      this.p99Us = p99Us;
+      this.p999Us = p999Us;
+      this.maxUs = maxUs;
+
+    }
+  }
+
+  public final Time time;
+  public final Collection<Command> commands;
+  public final int relayPendingBundles;
+  public final long relayLagMs;
+
+  public ServerStats(Time time,
+                     Collection<Command> commands,
+                     int relayPendingBundles,
+                     long relayLagMs) {
+
+    this.time = time;
+    this.commands = commands;
+    this.relayPendingBundles = relayPendingBundles;
+    this.relayLagMs = relayLagMs;
+
+  }
+}
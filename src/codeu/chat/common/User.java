@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.HashMap;
 
+import codeu.chat.util.EncodedForm;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -29,15 +30,15 @@ import codeu.chat.util.Uuid;
 
 public final class User {
 
+  // Nothing that is written ever changes, so the encoded form is kept and
+  // reused. See EncodedForm.
+  private static final EncodedForm.Fields<User> FIELDS = User::writeFields;
+
   public static final Serializer<User> SERIALIZER = new Serializer<User>() {
 
     @Override
     public void write(OutputStream out, User value) throws IOException {
-
-      Uuid.SERIALIZER.write(out, value.id);
-      Serializers.STRING.write(out, value.name);
-      Time.SERIALIZER.write(out, value.creation);
-
+      value.encoded().write(out, FIELDS, value);
     }
 
     @Override
@@ -61,6 +62,8 @@ public final class User {
   public final String name;
   public final Time creation;
 
+  private transient EncodedForm encoded;
+
   public User(Uuid id, String name, Time creation) {
 
     this.id = id;
@@ -68,4 +71,19 @@ public final class User {
     this.creation = creation;
 
   }
+
+  // Made when first needed, as users read back by Gson do not run the
+  // constructor.
+  private EncodedForm encoded() {
+    if (encoded == null) {
+      encoded = new EncodedForm();
+    }
+    return encoded;
+  }
+
+  private static void writeFields(OutputStream out, User value) throws IOException {
+    Uuid.SERIALIZER.write(out, value.id);
+    Serializers.STRING.write(out, value.name);
+    Time.SERIALIZER.write(out, value.creation);
+  }
 }
@@ -0,0 +1,132 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.Relay;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// BUNDLE BYTES
+//
+// The relay does not need to look inside the bundles that it forwards, so it
+// keeps each one in the same form that it is sent over the network:
+//
+//   [ header     ] : bundle id, relay time, and team id
+//   [ components ] : user, conversation, and message, each written as
+//                    [ UUID id ][ STRING text ][ TIME time ]
+//
+// The components are copied from the writer's connection as they arrive and
+// the header is written once when the bundle is added to the history. After
+// that, sending a bundle is two array writes.
+final class BundleBytes {
+
+  // The most text any one component is allowed to carry. This is far more than
+  // any real name, title, or message needs but stops a bad length from making
+  // the relay allocate a huge array.
+  static final int MAX_TEXT_BYTES = 1 << 20;
+
+  // ENCODE COMPONENTS
+  //
+  // Write the three components into a single array. This is only needed when a
+  // bundle is written to the relay through the "Relay" interface, connections
+  // give the relay bytes that are already encoded.
+  static byte[] encodeComponents(Relay.Bundle.Component user,
+                                 Relay.Bundle.Component conversation,
+                                 Relay.Bundle.Component message) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (final Relay.Bundle.Component component : new Relay.Bundle.Component[] { user, conversation, message }) {
+      Uuid.SERIALIZER.write(out, component.id());
+      Serializers.STRING.write(out, component.text());
+      Time.SERIALIZER.write(out, component.time());
+    }
+
+    return out.toByteArray();
+  }
+
+  // ENCODE HEADER
+  //
+  // Write the fields that the relay adds to a bundle.
+  static byte[] encodeHeader(Uuid id, Time time, Uuid team) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+
+    Uuid.SERIALIZER.write(out, id);
+    Time.SERIALIZER.write(out, time);
+    Uuid.SERIALIZER.write(out, team);
+
+    return out.toByteArray();
+  }
+
+  // READ COMPONENTS
+  //
+  // Copy the three components of a bundle from the stream without decoding
+  // them. The lengths in the stream are checked as they are copied so that only
+  // well-formed components are ever stored and sent on to other servers. If the
+  // stream ends early or a length is out of range an IOException is thrown.
+  static byte[] readComponents(InputStream in) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+
+    for (int i = 0; i < 3; i++) {
+
+      // UUID : one byte chain length followed by a four byte int per link.
+      final int links = copy(in, out, 1)[0] & 0xFF;
+      copy(in, out, links * 4);
+
+      // STRING : four byte length followed by the bytes.
+      final byte[] length = copy(in, out, 4);
+      final int text = ((length[0] & 0xFF) << 24) |
+                       ((length[1] & 0xFF) << 16) |
+                       ((length[2] & 0xFF) << 8) |
+                       (length[3] & 0xFF);
+
+      if (text < 0 || text > MAX_TEXT_BYTES) {
+        throw new IOException(String.format("Component text length %d is out of range", text));
+      }
+
+      copy(in, out, text);
+
+      // TIME : eight byte long.
+      copy(in, out, 8);
+    }
+
+    return out.toByteArray();
+  }
+
+  private static byte[] copy(InputStream in, ByteArrayOutputStream out, int length) throws IOException {
+
+    final byte[] buffer = new byte[length];
+
+    for (int read = 0; read < length;) {
+      final int count = in.read(buffer, read, length - read);
+      if (count < 0) {
+        throw new EOFException("Stream ended in the middle of a bundle");
+      }
+      read += count;
+    }
+
+    out.write(buffer, 0, length);
+
+    return buffer;
+  }
+}
@@ -14,19 +14,22 @@
 
 package codeu.chat.relay;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.util.Logger;
-import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
@@ -57,28 +60,36 @@ public final class Server implements Relay {
 
   }
 
-  private static final class Bundle implements Relay.Bundle {
+  // BUNDLE
+  //
+  // A bundle as the relay stores it. The relay only needs the header fields to
+  // find and authenticate bundles, so the components are kept as the bytes that
+  // the writer sent (see BundleBytes) and are only decoded if someone in the
+  // same process asks for them.
+  static final class Bundle implements Relay.Bundle {
 
+    private final long sequence;
     private final Uuid id;
     private final Time time;
     private final Uuid team;
-    private final Component user;
-    private final Component conversation;
-    private final Component message;
+    private final byte[] header;
+    private final byte[] components;
+
+    private volatile Component[] decoded;
 
-    public Bundle(Uuid id,
+    public Bundle(long sequence,
+                  Uuid id,
                   Time time,
                   Uuid team,
-                  Component user,
-                  Component conversation,
-                  Component message) {
+                  byte[] header,
+                  byte[] components) {
 
+      this.sequence = sequence;
       this.id = id;
       this.time = time;
       this.team = team;
-      this.user = user;
-      this.conversation = conversation;
-      this.message = message;
+      this.header = header;
+      this.components = components;
 
     }
 
@@ -92,18 +103,110 @@ public final class Server implements Relay {
     public Uuid team() { return team; }
 
     @Override
-    public Component user() { return user; }
+    public Component user() { return decode()[0]; }
 
     @Override
-    public Component conversation() { return conversation; }
+    public Component conversation() { return decode()[1]; }
 
     @Override
-    public Component message() { return message; }
+    public Component message() { return decode()[2]; }
+
+    // WRITE TO
+    //
+    // Write the bundle in the same format that the relay's clients read bundles
+    // in. Nothing is encoded here, the stored bytes are written as they are.
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(header);
+      out.write(components);
+    }
+
+    private Component[] decode() {
+
+      Component[] current = decoded;
+
+      if (current == null) {
+
+        final InputStream in = new ByteArrayInputStream(components);
+
+        try {
+          current = new Component[3];
+          for (int i = 0; i < current.length; i++) {
+            final Uuid id = Uuid.SERIALIZER.read(in);
+            final String text = Serializers.STRING.read(in);
+            final Time time = Time.SERIALIZER.read(in);
+            current[i] = new Server.Component(id, text, time);
+          }
+        } catch (IOException ex) {
+          // The bytes were checked when they were written so this can only
+          // happen if there is a bug in BundleBytes.
+          throw new IllegalStateException("Stored bundle could not be decoded", ex);
+        }
+
+        decoded = current;
+      }
 
+      return current;
+    }
   }
 
-  private final Queue<Relay.Bundle> history = new LinkedList<>();
-  private final Map<Uuid, Secret> teamSecrets = new HashMap<>();
+  // CURSOR
+  //
+  // The delivery position for a team that has subscribed to the relay. The
+  // cursor remembers the last bundle that the team acknowledged, and how many
+  // subscriptions the team has open. A team that reconnects can open its new
+  // subscription before the old one has noticed it is gone, so this is a count
+  // rather than a flag.
+  //
+  // Cursors are kept, and keep holding back history trimming, once their
+  // subscriptions close. A team that went away (a chat server restarting, say)
+  // picks up where it left off and finds everything it had not acknowledged.
+  private static final class Cursor {
+
+    private volatile Uuid acknowledged = Uuid.NULL;
+
+    // Guarded by "writeLock".
+    private int subscriptions = 0;
+
+  }
+
+  // How long a subscription waits for new bundles before checking back in with
+  // the subscriber.
+  private static final long SUBSCRIBE_WAIT_MS = 5000;
+
+  // HISTORY
+  //
+  // The history is a ring of bundles. Every bundle is given a sequence number
+  // when it is written and lives in the slot "sequence % ring length" until it
+  // is overwritten or trimmed.
+  //
+  // There is only ever one writer at a time (everything that changes the ring,
+  // "head", "tail", or the cursors holds "writeLock"), but readers never take a
+  // lock. A reader takes a copy of "head" and then checks the sequence of each
+  // bundle it pulls from the ring. If the writer has lapped the reader, the
+  // bundle in the slot will have a different sequence and is skipped just like
+  // it would have been if it had been dropped before the read started.
+  private final AtomicReferenceArray<Bundle> history;
+
+  // The sequence number that the next bundle will get. Everything before "head"
+  // has been fully written to the ring.
+  private volatile long head = 0;
+
+  // The first sequence number that has not been trimmed. The oldest bundle in
+  // the history is whichever is newer of "tail" and "head - ring length".
+  private volatile long tail = 0;
+
+  private final Object writeLock = new Object();
+
+  // Subscriptions waiting for something to be written wait on this.
+  private final Object writeSignal = new Object();
+
+  private final ConcurrentMap<Uuid, Secret> teamSecrets = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Uuid, Cursor> cursors = new ConcurrentHashMap<>();
+
+  // The limits RelayMain runs with. Servers reading from several relays (see
+  // codeu.chat.server.ShardedRelay) need to know the read limit.
+  public static final int DEFAULT_MAX_HISTORY = 1024;
+  public static final int DEFAULT_MAX_READ = 16;
 
   private final int maxHistory;
   private final int maxRead;
@@ -124,8 +227,13 @@ public final class Server implements Relay {
   //
   // As a side note, the ids start at 1 and not 0 to avoid the first id from
   // matching the NULL id which is defined as (null, 0);
+  //
+  // As the generator counts up by one for every bundle, a bundle's id is always
+  // its sequence number plus FIRST_ID (the first value the generator makes).
+  // This lets a read find its root in the ring without searching.
 
- private final Uuid.Generator idGenerator = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
+  private static final int FIRST_ID = 2;
+  private final Uuid.Generator idGenerator = new LinearUuidGenerator(null, FIRST_ID - 1, Integer.MAX_VALUE);
 
   // SERVER
   //
@@ -136,6 +244,7 @@ public final class Server implements Relay {
   public Server(int maxHistory, int maxRead) {
     this.maxHistory = Math.max(0, maxHistory);
     this.maxRead = Math.max(0, maxRead);
+    this.history = new AtomicReferenceArray<>(Math.max(1, this.maxHistory));
   }
 
   // ADD TEAM
@@ -147,11 +256,7 @@ public final class Server implements Relay {
 
     LOG.info("Adding team to relay %s", id);
 
-    final boolean open = teamSecrets.get(id) == null;
-
-    if (open) {
-      teamSecrets.put(id, secret);
-    }
+    final boolean open = teamSecrets.putIfAbsent(id, secret) == null;
 
     LOG.info(open ?
              "Adding team was successful" :
@@ -181,17 +286,13 @@ public final class Server implements Relay {
           conversation.id(),
           message.id());
 
-      if (history.size() >= maxHistory) {
-         history.remove();
+      try {
+        return store(teamId, BundleBytes.encodeComponents(user, conversation, message));
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to encode bundle team=%s", teamId);
+        return false;
       }
 
-      return history.offer(new Bundle(
-          idGenerator.make(),
-          Time.now(),
-          teamId,
-          user,
-          conversation,
-          message));
     } else {
 
       LOG.warning(
@@ -205,10 +306,44 @@ public final class Server implements Relay {
     }
   }
 
+  // WRITE
+  //
+  // The same as the "Relay" write except that the user, conversation, and
+  // message are already encoded (see BundleBytes.readComponents). The bytes are
+  // stored as they are.
+  public boolean write(Uuid teamId, Secret teamSecret, byte[] components) {
+
+    if (authenticate(teamId, teamSecret)) {
+
+      LOG.info("Writing to server team=%s bytes=%d", teamId, components.length);
+
+      try {
+        return store(teamId, components);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to encode bundle team=%s", teamId);
+        return false;
+      }
+
+    } else {
+
+      LOG.warning("Unauthorized write attempt to server team=%s", teamId);
+
+      return false;
+    }
+  }
+
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+    return Collections.<Relay.Bundle>unmodifiableCollection(readStored(teamId, teamSecret, root, range));
+  }
+
+  // READ STORED
+  //
+  // The same as "read" but gives back the relay's own bundles so that they can
+  // be written out without being encoded again.
+  public Collection<Bundle> readStored(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
-    final Collection<Relay.Bundle> found = new ArrayList<>();
+    Collection<Bundle> found = new ArrayList<>();
 
     if (authenticate(teamId, teamSecret)) {
 
@@ -217,19 +352,7 @@ public final class Server implements Relay {
           range,
           maxRead);
 
-      for (final Relay.Bundle message : history) {
-
-        // Only add a message if there is room. We cannot stop
-        // searching in case we see the root later on.
-        if (found.size() < Math.min(range, maxRead)) {
-          found.add(message);
-        }
-
-        // If the start is found, drop all previous messages.
-        if (message.id().equals(root)) {
-          found.clear();
-        }
-      }
+      found = after(root, range);
 
       LOG.info(
           "Read request complete requested=%d fullfilled=%d",
@@ -246,6 +369,322 @@ public final class Server implements Relay {
     return found;
   }
 
+  @Override
+  public boolean subscribe(Uuid teamId,
+                           Secret teamSecret,
+                           Uuid root,
+                           int window,
+                           Relay.Subscriber subscriber) {
+
+    Uuid position = openCursor(teamId, teamSecret, root);
+
+    if (position == null) {
+      return false;
+    }
+
+    subscriber.onSubscribe();
+
+    try {
+      while (true) {
+        for (final Relay.Bundle bundle : await(teamId, teamSecret, position, Math.max(1, window), SUBSCRIBE_WAIT_MS)) {
+          subscriber.onBundle(bundle);
+          position = bundle.id();
+          acknowledge(teamId, position);
+        }
+      }
+    } catch (InterruptedException ex) {
+      LOG.info("Subscription interrupted team=%s", teamId);
+    } finally {
+      closeCursor(teamId);
+    }
+
+    return false;
+  }
+
+  // OPEN CURSOR
+  //
+  // Activate the delivery cursor for a team and return the id of the bundle that
+  // delivery should start after. If the root is Uuids.NULL the team's last
+  // acknowledged bundle is used, otherwise the cursor is moved to the root. If
+  // the team can not be authenticated, null is returned.
+  public Uuid openCursor(Uuid teamId, Secret teamSecret, Uuid root) {
+
+    if (!authenticate(teamId, teamSecret)) {
+      LOG.warning("Unauthorized attempt to subscribe to server team=%s", teamId);
+      return null;
+    }
+
+    final Uuid start;
+
+    synchronized (writeLock) {
+
+      Cursor cursor = cursors.get(teamId);
+
+      if (cursor == null) {
+        cursor = new Cursor();
+        cursors.put(teamId, cursor);
+      }
+
+      if (!Uuid.equals(root, Uuid.NULL)) {
+        cursor.acknowledged = root;
+      }
+
+      cursor.subscriptions++;
+      start = cursor.acknowledged;
+    }
+
+    LOG.info("Cursor opened team=%s start=%s", teamId, start);
+
+    return start;
+  }
+
+  // CLOSE CURSOR
+  //
+  // Close one of the team's subscriptions. Every "openCursor" that succeeded
+  // is matched by one call to this. The cursor's position is kept so that the
+  // team can continue from it when it subscribes again, and it still holds
+  // back trimming, so nothing is dropped.
+  public void closeCursor(Uuid teamId) {
+
+    final Cursor cursor = cursors.get(teamId);
+
+    if (cursor != null) {
+
+      final int open;
+
+      synchronized (writeLock) {
+        cursor.subscriptions = Math.max(0, cursor.subscriptions - 1);
+        open = cursor.subscriptions;
+      }
+
+      LOG.info("Cursor closed team=%s last=%s open=%d", teamId, cursor.acknowledged, open);
+    }
+  }
+
+  // The number of subscriptions the team has open.
+  int subscriptions(Uuid teamId) {
+
+    final Cursor cursor = cursors.get(teamId);
+
+    synchronized (writeLock) {
+      return cursor == null ? 0 : cursor.subscriptions;
+    }
+  }
+
+  // ACKNOWLEDGE
+  //
+  // Move the team's cursor forward to the given bundle. Once every cursor has
+  // moved past a bundle, the bundle is dropped from the history (see "trim").
+  public void acknowledge(Uuid teamId, Uuid bundle) {
+
+    final Cursor cursor = cursors.get(teamId);
+
+    if (cursor != null) {
+      synchronized (writeLock) {
+        cursor.acknowledged = bundle;
+        trim();
+      }
+    }
+  }
+
+  // AWAIT
+  //
+  // The same as "read" except that when there is nothing after the root, this
+  // will wait up to "timeoutMs" for something new to be written.
+  public Collection<Relay.Bundle> await(Uuid teamId,
+                                        Secret teamSecret,
+                                        Uuid root,
+                                        int range,
+                                        long timeoutMs) throws InterruptedException {
+    return Collections.<Relay.Bundle>unmodifiableCollection(
+        awaitStored(teamId, teamSecret, root, range, timeoutMs));
+  }
+
+  // AWAIT STORED
+  //
+  // The same as "await" but gives back the relay's own bundles, see
+  // "readStored".
+  public Collection<Bundle> awaitStored(Uuid teamId,
+                                        Secret teamSecret,
+                                        Uuid root,
+                                        int range,
+                                        long timeoutMs) throws InterruptedException {
+
+    if (!authenticate(teamId, teamSecret)) {
+      return new ArrayList<>();
+    }
+
+    final long end = System.currentTimeMillis() + timeoutMs;
+
+    Collection<Bundle> found = after(root, range);
+
+    for (long wait = timeoutMs;
+         found.isEmpty() && wait > 0;
+         wait = end - System.currentTimeMillis()) {
+
+      // Check "head" again while holding the signal so that a write that
+      // happens between the read above and the wait below is not missed.
+      synchronized (writeSignal) {
+        if (!hasAfter(root)) {
+          writeSignal.wait(wait);
+        }
+      }
+
+      found = after(root, range);
+    }
+
+    return found;
+  }
+
+  // HISTORY SIZE
+  //
+  // The number of bundles that the relay is currently holding.
+  public int historySize() {
+    final long end = head;
+    return (int) (end - oldest(end));
+  }
+
+  // STORE
+  //
+  // Add a bundle to the history. The caller must have already authenticated
+  // the team.
+  private boolean store(Uuid teamId, byte[] components) throws IOException {
+
+    if (maxHistory == 0) {
+      return false;
+    }
+
+    synchronized (writeLock) {
+
+      final long sequence = head;
+      final Uuid id = idGenerator.make();
+      final Time time = Time.now();
+
+      history.set(slot(sequence), new Bundle(
+          sequence,
+          id,
+          time,
+          teamId,
+          BundleBytes.encodeHeader(id, time, teamId),
+          components));
+
+      // Only move the head once the bundle is in the ring so that readers
+      // never see a sequence that has not been written yet.
+      head = sequence + 1;
+    }
+
+    // Wake up any subscriptions that are waiting for something new to send.
+    synchronized (writeSignal) {
+      writeSignal.notifyAll();
+    }
+
+    return true;
+  }
+
+  private Collection<Bundle> after(Uuid root, int range) {
+
+    final Collection<Bundle> found = new ArrayList<>();
+    final int limit = Math.min(range, maxRead);
+
+    final long end = head;
+
+    for (long sequence = start(root, end);
+         sequence < end && found.size() < limit;
+         sequence++) {
+
+      final Bundle bundle = history.get(slot(sequence));
+
+      // If the sequence does not match, the bundle was overwritten or trimmed
+      // after "end" was read. It is gone, so move on.
+      if (bundle != null && bundle.sequence == sequence) {
+        found.add(bundle);
+      }
+    }
+
+    return found;
+  }
+
+  private boolean hasAfter(Uuid root) {
+    final long end = head;
+    return start(root, end) < end;
+  }
+
+  // Find the first sequence that should be sent after the root. If the root is
+  // not in the history, that is the oldest sequence in the history.
+  private long start(Uuid root, long end) {
+    final long position = sequenceOf(root, end);
+    return position < 0 ? oldest(end) : position + 1;
+  }
+
+  // Find the sequence of the bundle with the given id. If the bundle is not in
+  // the history, -1 is returned.
+  private long sequenceOf(Uuid id, long end) {
+
+    if (id == null || id.root() != null) {
+      return -1;
+    }
+
+    final long sequence = (id.id() & 0xFFFFFFFFL) - FIRST_ID;
+
+    if (sequence < oldest(end) || sequence >= end) {
+      return -1;
+    }
+
+    final Bundle bundle = history.get(slot(sequence));
+
+    return bundle != null && bundle.sequence == sequence ? sequence : -1;
+  }
+
+  private long oldest(long end) {
+    return Math.max(tail, end - history.length());
+  }
+
+  private int slot(long sequence) {
+    return (int) (sequence % history.length());
+  }
+
+  // TRIM
+  //
+  // Drop every bundle that every cursor has acknowledged, whether or not its
+  // team is subscribed right now. A cursor whose bundle is not in the history
+  // (it never acknowledged one, or it was dropped before the cursor moved on)
+  // needs everything that is left.
+  //
+  // A team that only polls with "read" has no cursor, and there is no way to
+  // know what it has read. While there is one, nothing is trimmed and the
+  // history keeps its full "maxHistory" bundles, dropping only the oldest as
+  // the ring wraps. A team whose root was dropped will be treated as if it
+  // had given Uuids.NULL, which is still correct as everything left in the
+  // history will be newer than its root.
+  //
+  // Must be called while holding "writeLock".
+  private void trim() {
+
+    if (cursors.size() < teamSecrets.size()) {
+      return;
+    }
+
+    final long end = head;
+    final long first = oldest(end);
+
+    long slowest = end - 1;
+
+    for (final Cursor cursor : cursors.values()) {
+      final long position = sequenceOf(cursor.acknowledged, end);
+      slowest = Math.min(slowest, position < 0 ? first - 1 : position);
+    }
+
+    if (slowest >= first) {
+
+      tail = slowest + 1;
+
+      // Clear the slots so that the trimmed bundles can be collected.
+      for (long sequence = first; sequence < tail; sequence++) {
+        history.set(slot(sequence), null);
+      }
+    }
+  }
+
   private boolean authenticate(Uuid id, Secret secret) {
     return id != null && secret != null && secret.equals(teamSecrets.get(id));
   }
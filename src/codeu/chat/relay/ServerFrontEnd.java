@@ -14,18 +14,20 @@
 
 package codeu.chat.relay;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
 
+import codeu.chat.common.Capabilities;
 import codeu.chat.common.NetworkCode;
-import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.util.Deflate;
+import codeu.chat.util.EventLog;
 import codeu.chat.util.Logger;
-import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
-import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
 
@@ -33,147 +35,245 @@ public final class ServerFrontEnd {
 
   private final static Logger.Log LOG = Logger.newLog(ServerFrontEnd.class);
 
-  private static final Serializer<Relay.Bundle.Component> COMPONENT_SERIALIZER =
-      new Serializer<Relay.Bundle.Component>() {
+  // One event per request in place of formatting text for every request.
+  private static final EventLog.Event READ_EVENT =
+      EventLog.define(100, "relay.read", "team:uuid", "bundles:int", "took:duration");
+  private static final EventLog.Event WRITE_EVENT =
+      EventLog.define(101, "relay.write", "team:uuid", "bytes:int", "took:duration");
 
-    @Override
-    public Relay.Bundle.Component read(InputStream in) throws IOException {
+  // How long an idle subscription goes before sending a heartbeat. Writing the
+  // heartbeat is how a subscription notices that the other side has gone away.
+  private static final long HEARTBEAT_MS = 5000;
 
-      final Uuid id = Uuid.SERIALIZER.read(in);
-      final String text = Serializers.STRING.read(in);
-      final Time time = Time.SERIALIZER.read(in);
+  private final Server backEnd;
 
-      // I could have passed the relay and use its "pack" method but that would
-      // have been more work than just building an object here.
-      return new Relay.Bundle.Component() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public String text() { return text; }
-        @Override
-        public Time time() { return time; }
-      };
-    }
+  public ServerFrontEnd(Server backEnd) {
+    this.backEnd = backEnd;
+  }
 
-    @Override
-    public void write(OutputStream out, Relay.Bundle.Component value) throws IOException {
-      Uuid.SERIALIZER.write(out, value.id());
-      Serializers.STRING.write(out, value.text());
-      Time.SERIALIZER.write(out, value.time());
-    }
-  };
+  public void handleConnection(Connection connection) throws IOException {
 
-  private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
-      new Serializer<Relay.Bundle>() {
+    LOG.verbose("Handling Connection - start");
 
-    @Override
-    public Relay.Bundle read(InputStream in) throws IOException {
+    // A subscription takes over its connection, everything else is done with
+    // the connection once it has sent its response.
+    boolean handedOff = false;
 
-      final Uuid id = Uuid.SERIALIZER.read(in);
-      final Time time = Time.SERIALIZER.read(in);
-      final Uuid team = Uuid.SERIALIZER.read(in);
-      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
+    try {
 
-      return new Relay.Bundle() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public Time time() { return time; }
-        @Override
-        public Uuid team() { return team; }
-        @Override
-        public Relay.Bundle.Component user() { return user; }
-        @Override
-        public Relay.Bundle.Component conversation() { return conversation; }
-        @Override
-        public Relay.Bundle.Component message() { return message; }
-      };
-    }
+      int type = Serializers.INTEGER.read(connection.in());
+      OutputStream out = connection.out();
 
-    @Override
-    public void write(OutputStream out, Relay.Bundle value) throws IOException {
-      Uuid.SERIALIZER.write(out, value.id());
-      Time.SERIALIZER.write(out, value.time());
-      Uuid.SERIALIZER.write(out, value.team());
-      COMPONENT_SERIALIZER.write(out, value.user());
-      COMPONENT_SERIALIZER.write(out, value.conversation());
-      COMPONENT_SERIALIZER.write(out, value.message());
-    }
-  };
+      // A client that wants Capabilities asks for them ahead of its request.
+      // Everything after the answer is sent in Deflate frames if it asked for
+      // DEFLATE, so every response has to be flushed once it is written.
+      if (type == NetworkCode.RELAY_CAPABILITIES_REQUEST) {
 
-  private final Relay backEnd;
+        final int capabilities =
+            Serializers.INTEGER.read(connection.in()) & Capabilities.RELAY_SUPPORTED;
 
-  public ServerFrontEnd(Relay backEnd) {
-    this.backEnd = backEnd;
-  }
+        Serializers.INTEGER.write(out, NetworkCode.RELAY_CAPABILITIES_RESPONSE);
+        Serializers.INTEGER.write(out, capabilities);
 
-  public void handleConnection(Connection connection) throws IOException {
+        if (Capabilities.has(capabilities, Capabilities.DEFLATE)) {
+          out = new Deflate.Output(out, Deflate.DEFAULT);
+        }
 
-    LOG.info("Handling Connection - start");
+        type = Serializers.INTEGER.read(connection.in());
+      }
 
-    switch (Serializers.INTEGER.read(connection.in())) {
-      case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection); break;
-      case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection); break;
+      switch (type) {
+        case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection, out); break;
+        case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection, out); break;
+        case NetworkCode.RELAY_SUBSCRIBE_REQUEST: handedOff = handleSubscribeMessage(connection, out); break;
+      }
+    } finally {
+      if (!handedOff) {
+        connection.close();
+      }
     }
 
-    LOG.info("Handling Connection - end");
+    LOG.verbose("Handling Connection - end");
   }
 
-  private void handleReadMessage(Connection connection) throws IOException {
+  private void handleReadMessage(Connection connection, OutputStream connectionOut) throws IOException {
+
+    LOG.verbose("Handling Read Message - start");
 
-    LOG.info("Handling Read Message - start");
+    final long start = System.nanoTime();
 
     final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
     final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
     final Uuid root = Uuid.SERIALIZER.read(connection.in());
     final int range = Serializers.INTEGER.read(connection.in());
 
-    LOG.info(
+    LOG.verbose(
         "Reading team=%s root=%s range=%d",
         teamId,
         root,
         range);
 
-    final Collection<Relay.Bundle> result = backEnd.read(teamId, teamSecret, root, range);
+    final Collection<Server.Bundle> result = backEnd.readStored(teamId, teamSecret, root, range);
+
+    LOG.verbose("Reading result.size=%d", result.size());
+
+    // The stored bundles are already in the format that Serializers.collection
+    // would write them in, so they can go out as they are.
+    final OutputStream out = new BufferedOutputStream(connectionOut);
+
+    Serializers.INTEGER.write(out, NetworkCode.RELAY_READ_RESPONSE);
+    Serializers.INTEGER.write(out, result.size());
+    for (final Server.Bundle bundle : result) {
+      bundle.writeTo(out);
+    }
+
+    out.flush();
+
+    READ_EVENT.log(teamId, result.size(), System.nanoTime() - start);
+
+    LOG.verbose("Handling Read Message - end");
+  }
+
+  private void handleWriteMessage(Connection connection, OutputStream out) throws IOException {
+
+    LOG.verbose("Handling Write Message - start");
+
+    final long start = System.nanoTime();
+
+    // The writer sends the whole request before waiting for the response so
+    // it is safe to read ahead of what is needed.
+    final InputStream in = new BufferedInputStream(connection.in());
+
+    final Uuid teamId = Uuid.SERIALIZER.read(in);
+    final Secret teamSecret = Secret.SERIALIZER.read(in);
+
+    // The user, conversation, and message are copied as they are. They are only
+    // checked to be well-formed, the relay never needs to decode them.
+    final byte[] components = BundleBytes.readComponents(in);
+
+    LOG.verbose(
+        "Writing team=%s bytes=%d",
+        teamId,
+        components.length);
 
-    LOG.info("Reading result.size=%d", result.size());
+    final boolean result = backEnd.write(teamId, teamSecret, components);
 
-    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_RESPONSE);
-    Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+    LOG.verbose("Writing result=%s", result ? "success" : "fail");
 
-    LOG.info("Handling Read Message - end");
+    Serializers.INTEGER.write(out, NetworkCode.RELAY_WRITE_RESPONSE);
+    Serializers.BOOLEAN.write(out, result);
+    out.flush();
+
+    WRITE_EVENT.log(teamId, components.length, System.nanoTime() - start);
+
+    LOG.verbose("Handling Write Message - end");
   }
 
-  private void handleWriteMessage(Connection connection) throws IOException {
+  private boolean handleSubscribeMessage(final Connection connection,
+                                         final OutputStream out) throws IOException {
 
-    LOG.info("Handling Write Message - start");
+    LOG.info("Handling Subscribe Message - start");
 
     final Uuid teamId = Uuid.SERIALIZER.read(connection.in());
     final Secret teamSecret = Secret.SERIALIZER.read(connection.in());
-    final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(connection.in());
-    final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(connection.in());
-    final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(connection.in());
+    final Uuid root = Uuid.SERIALIZER.read(connection.in());
+    final int window = Math.max(1, Serializers.INTEGER.read(connection.in()));
 
     LOG.info(
-        "Writing team=%s user=%s conversation=%s message=%s",
+        "Subscribing team=%s root=%s window=%d",
         teamId,
-        user.id(),
-        conversation.id(),
-        message.id());
+        root,
+        window);
 
-    final boolean result = backEnd.write(teamId,
-                                         teamSecret,
-                                         user,
-                                         conversation,
-                                         message);
+    final Uuid start = backEnd.openCursor(teamId, teamSecret, root);
 
-    LOG.info("Writing result=%s", result ? "success" : "fail");
+    Serializers.INTEGER.write(out, NetworkCode.RELAY_SUBSCRIBE_RESPONSE);
+    Serializers.BOOLEAN.write(out, start != null);
+    out.flush();
 
-    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_RESPONSE);
-    Serializers.BOOLEAN.write(connection.out(), result);
+    if (start != null) {
+
+      // A subscription keeps its connection for as long as the team stays
+      // subscribed. Running it here would hold up every connection that comes
+      // after it, so it gets a thread of its own.
+      final Thread pusher = new Thread() {
+        @Override
+        public void run() {
+          try {
+            push(connection, out, teamId, teamSecret, start, window);
+          } catch (Exception ex) {
+            LOG.info("Subscription ended team=%s (%s)", teamId, ex.toString());
+          } finally {
+            backEnd.closeCursor(teamId);
+            try {
+              connection.close();
+            } catch (IOException ex) {
+              LOG.error(ex, "Exception while closing subscription.");
+            }
+          }
+        }
+      };
 
-    LOG.info("Handling Write Message - end");
+      pusher.setDaemon(true);
+      pusher.start();
+    }
+
+    LOG.info("Handling Subscribe Message - end");
+
+    return start != null;
+  }
+
+  // PUSH
+  //
+  // Send bundles to the subscriber as they are written to the relay. At most
+  // "window" bundles will be sent before the subscriber acknowledges them. The
+  // subscriber acknowledges each bundle once it has applied it, and each
+  // acknowledgement moves the team's cursor on the relay forward.
+  //
+  // Each batch is flushed on its own, so on a connection that agreed on
+  // DEFLATE each batch is one frame.
+  private void push(Connection connection,
+                    OutputStream connectionOut,
+                    Uuid teamId,
+                    Secret teamSecret,
+                    Uuid start,
+                    int window) throws IOException, InterruptedException {
+
+    final InputStream in = connection.in();
+    final OutputStream out = new BufferedOutputStream(connectionOut);
+
+    Uuid sent = start;
+    int waiting = 0;
+
+    while (true) {
+
+      // Collect acknowledgements. Only block on them when the window is full,
+      // otherwise just take the ones that have already arrived.
+      while (waiting > 0 && (waiting >= window || in.available() > 0)) {
+
+        if (Serializers.INTEGER.read(in) != NetworkCode.RELAY_ACK) {
+          throw new IOException("Subscriber did not send RELAY_ACK");
+        }
+
+        backEnd.acknowledge(teamId, Uuid.SERIALIZER.read(in));
+        waiting--;
+      }
+
+      final Collection<Server.Bundle> bundles =
+          backEnd.awaitStored(teamId, teamSecret, sent, window - waiting, HEARTBEAT_MS);
+
+      if (bundles.isEmpty()) {
+        Serializers.INTEGER.write(out, NetworkCode.RELAY_HEARTBEAT);
+      }
+
+      for (final Server.Bundle bundle : bundles) {
+        Serializers.INTEGER.write(out, NetworkCode.RELAY_PUSH);
+        bundle.writeTo(out);
+        sent = bundle.id();
+        waiting++;
+      }
+
+      out.flush();
+    }
   }
 }
@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+// CHANGE JOURNAL
+//
+// The most recent things added to the model, numbered in the order they were
+// added. The journal remembers the last "capacity" of them in a ring, so
+// finding where a client left off is a single index and the journal never
+// grows. Once a change has been pushed out of the ring, a client that has not
+// seen it is told to resync rather than being sent a partial picture.
+final class ChangeJournal {
+
+  private final long epoch;
+  private final Object[] ring;
+
+  // The sequence number of the newest change. The first change is 1, so 0
+  // means nothing has changed yet.
+  private long sequence = 0;
+
+  public ChangeJournal(int capacity) {
+    // A new client feed starts at epoch 0, which must never match.
+    long epoch = 0;
+    while (epoch == 0) {
+      epoch = new Random().nextLong();
+    }
+
+    this.epoch = epoch;
+    this.ring = new Object[capacity];
+  }
+
+  public long epoch() {
+    return epoch;
+  }
+
+  public synchronized long sequence() {
+    return sequence;
+  }
+
+  // RECORD
+  //
+  // Add a user, conversation or message to the journal. Returns its sequence
+  // number.
+  public synchronized long record(Object change) {
+    sequence++;
+    ring[(int) (sequence % ring.length)] = change;
+    return sequence;
+  }
+
+  // SINCE
+  //
+  // Up to "limit" changes after "since", oldest first. Asks for a resync if
+  // "epoch" is not this journal's, "since" is in the future, or some of the
+  // changes after "since" have already been pushed out of the ring.
+  public synchronized Changes since(long epoch, long since, int limit) {
+
+    final Collection<User> users = new ArrayList<>();
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
+    final Collection<Message> messages = new ArrayList<>();
+
+    if (epoch != this.epoch || since > sequence || sequence - since > ring.length) {
+      return new Changes(this.epoch, sequence, true, false, users, conversations, messages);
+    }
+
+    final long last = Math.min(sequence, since + limit);
+
+    for (long i = since + 1; i <= last; i++) {
+
+      final Object change = ring[(int) (i % ring.length)];
+
+      if (change instanceof User) {
+        users.add((User) change);
+      } else if (change instanceof ConversationHeader) {
+        conversations.add((ConversationHeader) change);
+      } else if (change instanceof Message) {
+        messages.add((Message) change);
+      }
+    }
+
+    return new Changes(this.epoch, last, false, last < sequence, users, conversations, messages);
+  }
+}
@@ -57,6 +57,9 @@ public final class Controller implements RawController, BasicController {
   @Override
   public Message newMessage(Uuid id, Uuid author, Uuid conversation, String body, Time creationTime) {
 
+    final ServerEvents.NewMessage event = new ServerEvents.NewMessage();
+    event.begin();
+
     final User foundUser = model.userById().first(author);
     final ConversationPayload foundConversation = model.conversationPayloadById().first(conversation);
 
@@ -64,36 +67,54 @@ public final class Controller implements RawController, BasicController {
 
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body);
-      model.add(message);
-      LOG.info("Message added: %s", message.id);
+      // Messages for different conversations may be added at the same time,
+      // but linking the message into its conversation must be done one message
+      // at a time per conversation.
+      synchronized (foundConversation) {
 
-      // Find and update the previous "last" message so that it's "next" value
-      // will point to the new message.
+        // The new message goes after the current last message (NULL when the
+        // conversation is empty), so that conversations can be walked in both
+        // directions.
+        message = new Message(id, Uuid.NULL, foundConversation.lastMessage, creationTime, author, body);
+        model.add(message);
+        LOG.info("Message added: %s", message.id);
 
-      if (Uuid.equals(foundConversation.lastMessage, Uuid.NULL)) {
+        // Find and update the previous "last" message so that it's "next" value
+        // will point to the new message.
 
-        // The conversation has no messages in it, that's why the last message is NULL (the first
-        // message should be NULL too. Since there is no last message, then it is not possible
-        // to update the last message's "next" value.
+        if (Uuid.equals(foundConversation.lastMessage, Uuid.NULL)) {
 
-      } else {
-        final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
-        lastMessage.next = message.id;
-      }
+          // The conversation has no messages in it, that's why the last message is NULL (the first
+          // message should be NULL too. Since there is no last message, then it is not possible
+          // to update the last message's "next" value.
 
-      // If the first message points to NULL it means that the conversation was empty and that
-      // the first message should be set to the new message. Otherwise the message should
-      // not change.
+        } else {
+          final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
+          lastMessage.next = message.id;
+        }
 
-      foundConversation.firstMessage =
-          Uuid.equals(foundConversation.firstMessage, Uuid.NULL) ?
-          message.id :
-          foundConversation.firstMessage;
+        // If the first message points to NULL it means that the conversation was empty and that
+        // the first message should be set to the new message. Otherwise the message should
+        // not change.
 
-      // Update the conversation to point to the new last message as it has changed.
+        foundConversation.firstMessage =
+            Uuid.equals(foundConversation.firstMessage, Uuid.NULL) ?
+            message.id :
+            foundConversation.firstMessage;
+
+        // Update the conversation to point to the new last message as it has changed.
+
+        foundConversation.lastMessage = message.id;
+      }
+    }
 
-      foundConversation.lastMessage = message.id;
+    if (event.shouldCommit()) {
+      event.message = id.toString();
+      event.conversation = conversation.toString();
+      event.author = author.toString();
+      event.bodyLength = body.length();
+      event.added = message != null;
+      event.commit();
     }
 
     return message;
@@ -344,7 +365,7 @@ public final class Controller implements RawController, BasicController {
         return -4;
       }
 
-  private Uuid createId() {
+  private synchronized Uuid createId() {
 
     Uuid candidate;
 
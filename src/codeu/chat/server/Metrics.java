@@ -0,0 +1,106 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.common.ServerStats;
+import codeu.chat.util.Histogram;
+
+// METRICS
+//
+// Counters and a latency histogram for every request type (NetworkCode) the
+// server handles. Recording never locks so it can be done from any thread. A
+// request type gets its counters the first time it is recorded.
+public final class Metrics {
+
+  private static final class Counters {
+
+    public final AtomicLong count = new AtomicLong();
+    public final AtomicLong errors = new AtomicLong();
+    public final AtomicLong bytesIn = new AtomicLong();
+    public final AtomicLong bytesOut = new AtomicLong();
+    public final Histogram latencyUs = new Histogram();
+  }
+
+  private final ConcurrentMap<Integer, Counters> counters = new ConcurrentHashMap<>();
+
+  // RECORD
+  //
+  // Record one request of the given type. A request that failed counts as an
+  // error as well as towards the count and latency.
+  public void record(int code, long nanos, long bytesIn, long bytesOut, boolean failed) {
+
+    final Counters command = countersFor(code);
+
+    command.count.incrementAndGet();
+    command.bytesIn.addAndGet(bytesIn);
+    command.bytesOut.addAndGet(bytesOut);
+    command.latencyUs.record(nanos / 1000);
+
+    if (failed) {
+      command.errors.incrementAndGet();
+    }
+  }
+
+  // SNAPSHOT
+  //
+  // The stats for every request type seen so far, ordered by type.
+  public Collection<ServerStats.Command> snapshot() {
+
+    final Collection<ServerStats.Command> commands = new ArrayList<>();
+
+    for (final Map.Entry<Integer, Counters> entry : new TreeMap<>(counters).entrySet()) {
+
+      final Counters command = entry.getValue();
+      final Histogram latency = command.latencyUs;
+
+      commands.add(new ServerStats.Command(
+          entry.getKey(),
+          command.count.get(),
+          command.errors.get(),
+          command.bytesIn.get(),
+          command.bytesOut.get(),
+          Math.round(latency.mean()),
+          latency.percentile(50),
+          latency.percentile(90),
+          latency.percentile(99),
+          latency.percentile(99.9),
+          latency.max()));
+    }
+
+    return commands;
+  }
+
+  private Counters countersFor(int code) {
+
+    final Counters existing = counters.get(code);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    final Counters created = new Counters();
+    final Counters raced = counters.putIfAbsent(code, created);
+
+    return raced == null ? created : raced;
+  }
+}
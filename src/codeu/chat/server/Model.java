@@ -15,6 +15,7 @@
 package codeu.chat.server;
 
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
@@ -28,21 +29,7 @@ import codeu.chat.util.store.StoreAccessor;
 
 public final class Model {
 
-  private static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
-
-    @Override
-    public int compare(Uuid a, Uuid b) {
-
-      if (a == b) { return 0; }
-
-      if (a == null && b != null) { return -1; }
-
-      if (a != null && b == null) { return 1; }
-
-      final int order = Integer.compare(a.id(), b.id());
-      return order == 0 ? compare(a.root(), b.root()) : order;
-    }
-  };
+  private static final Comparator<Uuid> UUID_COMPARE = Uuid.COMPARE;
 
   private static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
     @Override
@@ -53,6 +40,9 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
+  // How many of the most recent changes the change journal remembers.
+  private static final int JOURNAL_CAPACITY = 100000;
+
   private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
   private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
   private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
@@ -67,10 +57,24 @@ public final class Model {
   private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
   private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
 
+  private final ChangeJournal journal = new ChangeJournal(JOURNAL_CAPACITY);
+
+  // The version of the user and conversation tables - the journal sequence
+  // of the last user or conversation added. Nothing that is sent about a user
+  // or conversation header changes after it is added, so adding is the only
+  // change these need to track.
+  private final AtomicLong usersVersion = new AtomicLong();
+  private final AtomicLong conversationsVersion = new AtomicLong();
+
   public void add(User user) {
     userById.insert(user.id, user);
     userByTime.insert(user.creation, user);
     userByText.insert(user.name, user);
+    raise(usersVersion, journal.record(user));
+  }
+
+  public long usersVersion() {
+    return usersVersion.get();
   }
 
   public StoreAccessor<Uuid, User> userById() {
@@ -90,6 +94,11 @@ public final class Model {
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
     conversationPayloadById.insert(conversation.id, new ConversationPayload(conversation.id));
+    raise(conversationsVersion, journal.record(conversation));
+  }
+
+  public long conversationsVersion() {
+    return conversationsVersion.get();
   }
 
   public StoreAccessor<Uuid, ConversationHeader> conversationById() {
@@ -112,6 +121,7 @@ public final class Model {
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
     messageByText.insert(message.content, message);
+    journal.record(message);
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -125,4 +135,16 @@ public final class Model {
   public StoreAccessor<String, Message> messageByText() {
     return messageByText;
   }
+
+  // Everything that has been added, in the order it was added.
+  public ChangeJournal journal() {
+    return journal;
+  }
+
+  // Adds can finish out of order, so only ever move a version forward.
+  private static void raise(AtomicLong version, long to) {
+    for (long current = version.get();
+         current < to && !version.compareAndSet(current, to);
+         current = version.get()) { }
+  }
 }
@@ -64,4 +64,14 @@ public final class NoOpRelay implements Relay {
 
     return new ArrayList<Relay.Bundle>();
   }
+
+  @Override
+  public boolean subscribe(Uuid teamId,
+                           Secret teamSecret,
+                           Uuid root,
+                           int window,
+                           Relay.Subscriber subscriber) {
+
+    return false;
+  }
 }
@@ -20,9 +20,11 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import codeu.chat.common.Capabilities;
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.util.Deflate;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
@@ -119,9 +121,17 @@ public final class RemoteRelay implements Relay {
   };
 
   private final ConnectionSource source;
+  private final int capabilities;
 
   public RemoteRelay(ConnectionSource source) {
+    this(source, Capabilities.RELAY_SUPPORTED);
+  }
+
+  // "capabilities" are the ones to ask the relay for. With none, the request
+  // goes out just as it did before relays knew about Capabilities.
+  public RemoteRelay(ConnectionSource source, int capabilities) {
     this.source = source;
+    this.capabilities = capabilities;
   }
 
   @Override
@@ -136,10 +146,15 @@ public final class RemoteRelay implements Relay {
                        Relay.Bundle.Component conversation,
                        Relay.Bundle.Component message) {
 
+    final ServerEvents.RelayWrite event = new ServerEvents.RelayWrite();
+    event.begin();
+
     boolean result = false;
 
     try (final Connection connection = source.connect()) {
 
+      ask(connection);
+
       Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), teamId);
       Secret.SERIALIZER.write(connection.out(), teamSecret);
@@ -147,8 +162,10 @@ public final class RemoteRelay implements Relay {
       COMPONENT_SERIALIZER.write(connection.out(), conversation);
       COMPONENT_SERIALIZER.write(connection.out(), message);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_WRITE_RESPONSE) {
-        result = Serializers.BOOLEAN.read(connection.in());
+      final InputStream in = answer(connection);
+
+      if (Serializers.INTEGER.read(in) == NetworkCode.RELAY_WRITE_RESPONSE) {
+        result = Serializers.BOOLEAN.read(in);
       } else {
         LOG.error("Server did not handle RELAY_WRITE_REQUEST");
       }
@@ -156,24 +173,40 @@ public final class RemoteRelay implements Relay {
       LOG.error(ex, "Unexpected error when sending RELAY_WRITE_REQUEST");;
     }
 
+    if (event.shouldCommit()) {
+      event.team = teamId.toString();
+      event.conversation = conversation.id().toString();
+      event.message = message.id().toString();
+      event.bodyLength = message.text().length();
+      event.written = result;
+      event.commit();
+    }
+
     return result;
   }
 
   @Override
   public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
 
+    final ServerEvents.RelayRead event = new ServerEvents.RelayRead();
+    event.begin();
+
     final Collection<Relay.Bundle> result = new ArrayList<>();
 
     try (final Connection connection = source.connect()) {
 
+      ask(connection);
+
       Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), teamId);
       Secret.SERIALIZER.write(connection.out(), teamSecret);
       Uuid.SERIALIZER.write(connection.out(), root);
       Serializers.INTEGER.write(connection.out(), range);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_RESPONSE) {
-        result.addAll(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
+      final InputStream in = answer(connection);
+
+      if (Serializers.INTEGER.read(in) == NetworkCode.RELAY_READ_RESPONSE) {
+        result.addAll(Serializers.collection(BUNDLE_SERIALIZER).read(in));
       } else {
         LOG.error("Server did not handle RELAY_READ_REQUEST");
       }
@@ -181,6 +214,102 @@ public final class RemoteRelay implements Relay {
       LOG.error(ex, "Unexpected error when sending RELAY_READ_REQUEST");
     }
 
+    if (event.shouldCommit()) {
+      event.team = teamId.toString();
+      event.root = root.toString();
+      event.range = range;
+      event.bundles = result.size();
+      event.commit();
+    }
+
     return result;
   }
+
+  @Override
+  public boolean subscribe(Uuid teamId,
+                           Secret teamSecret,
+                           Uuid root,
+                           int window,
+                           Relay.Subscriber subscriber) {
+
+    try (final Connection connection = source.connect()) {
+
+      ask(connection);
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), teamId);
+      Secret.SERIALIZER.write(connection.out(), teamSecret);
+      Uuid.SERIALIZER.write(connection.out(), root);
+      Serializers.INTEGER.write(connection.out(), window);
+
+      final InputStream in = answer(connection);
+
+      if (Serializers.INTEGER.read(in) != NetworkCode.RELAY_SUBSCRIBE_RESPONSE) {
+        LOG.error("Server did not handle RELAY_SUBSCRIBE_REQUEST");
+        return false;
+      }
+
+      if (!Serializers.BOOLEAN.read(in)) {
+        LOG.error("Server rejected RELAY_SUBSCRIBE_REQUEST");
+        return false;
+      }
+
+      subscriber.onSubscribe();
+
+      while (true) {
+
+        final int type = Serializers.INTEGER.read(in);
+
+        if (type == NetworkCode.RELAY_PUSH) {
+
+          final Relay.Bundle bundle = BUNDLE_SERIALIZER.read(in);
+          subscriber.onBundle(bundle);
+
+          // Only acknowledge the bundle once the subscriber is done with it so
+          // that the relay's cursor never gets ahead of what was applied.
+          Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_ACK);
+          Uuid.SERIALIZER.write(connection.out(), bundle.id());
+
+        } else if (type != NetworkCode.RELAY_HEARTBEAT) {
+          throw new IOException(String.format("Unexpected message from relay (%d)", type));
+        }
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Subscription to relay was lost.");
+    }
+
+    return false;
+  }
+
+  // ASK
+  //
+  // Ask for Capabilities just ahead of the request. The relay answers just
+  // ahead of its response, so there is no extra round trip.
+  private void ask(Connection connection) throws IOException {
+    if (capabilities != 0) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_CAPABILITIES_REQUEST);
+      Serializers.INTEGER.write(connection.out(), capabilities);
+    }
+  }
+
+  // ANSWER
+  //
+  // Read the relay's answer to "ask" and return the stream that the rest of
+  // the response comes on.
+  private InputStream answer(Connection connection) throws IOException {
+
+    final InputStream in = connection.in();
+
+    if (capabilities == 0) {
+      return in;
+    }
+
+    if (Serializers.INTEGER.read(in) != NetworkCode.RELAY_CAPABILITIES_RESPONSE) {
+      throw new IOException("Relay did not handle RELAY_CAPABILITIES_REQUEST");
+    }
+
+    final int agreed = Serializers.INTEGER.read(in) & capabilities;
+
+    return Capabilities.has(agreed, Capabilities.DEFLATE) ? new Deflate.Input(in) : in;
+  }
 }
@@ -0,0 +1,70 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import codeu.chat.util.Compact;
+
+// RESPONSE CACHE
+//
+// The encoded form of a response that many clients ask for, like the list of
+// every user. It is encoded once and the same bytes are sent to every client
+// until the version of the data it was made from changes.
+//
+// The version is read before the data is encoded, so the cached bytes are
+// always at least as new as the version they are kept under.
+final class ResponseCache {
+
+  public interface Encoder {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private final Encoder encoder;
+
+  private long version = -1;
+  private byte[] bytes;
+
+  public ResponseCache(Encoder encoder) {
+    this.encoder = encoder;
+  }
+
+  // Write the response for "version", encoding it again if what is cached is
+  // for an older version. A compact response depends on what else is in it,
+  // so it is always encoded afresh.
+  public void write(OutputStream out, long version) throws IOException {
+
+    if (out instanceof Compact.Output) {
+      encoder.write(out);
+      return;
+    }
+
+    out.write(get(version));
+  }
+
+  private synchronized byte[] get(long version) throws IOException {
+
+    if (bytes == null || this.version != version) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      encoder.write(out);
+      this.bytes = out.toByteArray();
+      this.version = version;
+    }
+
+    return bytes;
+  }
+}
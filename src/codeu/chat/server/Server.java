@@ -15,7 +15,13 @@
 
 package codeu.chat.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FileWriter;
 import java.io.FileReader;
 import java.io.BufferedReader;
@@ -25,12 +31,23 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.LinkedList;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.common.Capabilities;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.LinearUuidGenerator;
@@ -39,7 +56,13 @@ import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
+import codeu.chat.util.Compact;
+import codeu.chat.util.CountingInputStream;
+import codeu.chat.util.CountingOutputStream;
+import codeu.chat.util.Deflate;
+import codeu.chat.util.EventLog;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -55,15 +78,64 @@ public final class Server {
     void onMessage(InputStream in, OutputStream out) throws IOException;
   }
 
+  // LANE COMMAND
+  //
+  // A command that only changes one conversation. The request is read on the
+  // timeline's main executor and the rest of the work is moved to the
+  // conversation's lane, so requests for different conversations can be
+  // handled at the same time while requests for the same conversation are
+  // still handled in the order they arrived.
+  private interface LaneCommand {
+    LaneWork onRequest(InputStream in) throws IOException;
+  }
+
+  private static abstract class LaneWork {
+
+    public final Uuid lane;
+
+    public LaneWork(Uuid lane) {
+      this.lane = lane;
+    }
+
+    public abstract void onMessage(OutputStream out) throws IOException;
+  }
+
   private static final Logger.Log LOG = Logger.newLog(Server.class);
 
+  // Every request the server handles, with how long it took from reading its
+  // type to writing its response.
+  private static final EventLog.Event REQUEST_EVENT =
+      EventLog.define(1, "server.request", "type:int", "took:duration");
+
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
+  private static final int RELAY_WINDOW = 32;
+  private static final int RELAY_PAGE = 128;
+  private static final int RELAY_PAGES_IN_FLIGHT = 4;
   private static final int SAVE_SERVER_MS = 30000;  // 30 seconds
 
+  // How many messages can wait for a subscriber before it is dropped, and how
+  // long an idle subscription goes before sending a heartbeat. Writing the
+  // heartbeat is how a subscription notices that the client has gone away.
+  private static final int SUBSCRIPTION_QUEUE = 256;
+  private static final long SUBSCRIPTION_HEARTBEAT_MS = 5000;
+
+  // The most messages one Get Message Range request can return.
+  private static final int MESSAGE_RANGE_LIMIT = 1000;
+
+  // The most changes one Get Changes request can return.
+  private static final int CHANGES_LIMIT = 1000;
+
+  // How many requests from one multiplexed connection can be handled at once,
+  // and the largest request it may send.
+  private static final int MULTIPLEX_WINDOW = 256;
+  private static final int MULTIPLEX_MAX_FRAME = 16 * 1024 * 1024;
+
 
   private static final ServerInfo info = new ServerInfo();
 
-  private final Timeline timeline = new Timeline();
+  // Message appends run on per-conversation lanes, one lane per core.
+  private final Timeline timeline =
+      new Timeline(Timeline.DEFAULT_TICK_MS, Runtime.getRuntime().availableProcessors());
 
   private final Gson gson = new Gson();
 
@@ -74,9 +146,21 @@ public final class Server {
   private FileReader fileReader = null;
   private BufferedReader bufferedReader = null;
 
-  private LinkedList<String> dataList = new LinkedList<>();
+  // Added to from the conversation lanes as well as the main executor.
+  private final List<String> dataList = Collections.synchronizedList(new LinkedList<String>());
 
   private final Map<Integer, Command> commands = new HashMap<>();
+  private final Map<Integer, LaneCommand> laneCommands = new HashMap<>();
+
+  private final Metrics metrics = new Metrics();
+
+  // Clients that have new messages pushed to them, and the threads doing the
+  // pushing (one per subscription as each blocks on its own connection).
+  private final Subscriptions subscriptions = new Subscriptions(SUBSCRIPTION_QUEUE);
+  private final Collection<Thread> pushers = new CopyOnWriteArrayList<>();
+
+  // Connections that carry many requests (see "multiplex").
+  private final Collection<Connection> multiplexed = new CopyOnWriteArrayList<>();
 
   private final Uuid id;
   private final Secret secret;
@@ -87,10 +171,58 @@ public final class Server {
 
   private final Model model = new Model();
   private final View view = new View(model);
+
+  // The encoded lists of every user and every conversation, kept until a user
+  // or conversation is added.
+  private final ResponseCache usersResponse = new ResponseCache(new ResponseCache.Encoder() {
+    @Override
+    public void write(OutputStream out) throws IOException {
+      Serializers.collection(User.SERIALIZER).write(out, view.getUsers());
+    }
+  });
+
+  private final ResponseCache conversationsResponse = new ResponseCache(new ResponseCache.Encoder() {
+    @Override
+    public void write(OutputStream out) throws IOException {
+      Serializers.collection(ConversationHeader.SERIALIZER).write(out, view.getConversations());
+    }
+  });
   private final Controller controller;
 
   private final Relay relay;
-  private Uuid lastSeen = Uuid.NULL;
+  private volatile Uuid lastSeen = Uuid.NULL;
+
+  // True while the relay is pushing bundles to this server. While subscribed
+  // there is no need to poll the relay.
+  private volatile boolean subscribed = false;
+
+  // RELAY INGESTION
+  //
+  // Reading from the relay is done on its own timeline so that waiting on the
+  // network never holds up clients. Pages that have been read are handed to
+  // the main timeline to be applied to the model. "relayPages" limits how many
+  // pages can be waiting there so a server that is far behind does not fill
+  // its memory with bundles it has not applied yet.
+  private final Timeline relayTimeline = new Timeline();
+  private final Semaphore relayPages = new Semaphore(RELAY_PAGES_IN_FLIGHT);
+
+  // Pages waiting to be applied, in the order they were read. Events that are
+  // scheduled for the same time on the timeline may run in any order, so each
+  // event takes the oldest page from here rather than carrying its own.
+  private final ConcurrentLinkedQueue<Collection<Relay.Bundle>> relayBacklog =
+      new ConcurrentLinkedQueue<>();
+
+  // How far behind the relay this server is. "relayPending" is the number of
+  // bundles that have been read from the relay but not yet applied.
+  // "relayLagMs" is how old the last applied bundle was (by the relay's clock)
+  // when it was applied, and drops back to zero once there is nothing left to
+  // read.
+  private final AtomicInteger relayPending = new AtomicInteger();
+  private volatile long relayLagMs = 0;
+
+  private final Timeline.Periodic relayPoll;
+  private final Thread relaySubscriber;
+  private Timeline.Periodic saveTask;
 
   public Server(final Uuid id, final Secret secret, final Relay relay) {
 
@@ -99,33 +231,44 @@ public final class Server {
     this.controller = new Controller(id, model);
     this.relay = relay;
 
-    // New Message - A client wants to add a new message to the back end.
-    this.commands.put(NetworkCode.NEW_MESSAGE_REQUEST, new Command() {
+    // New Message - A client wants to add a new message to the back end. This
+    //               runs on the conversation's lane.
+    this.laneCommands.put(NetworkCode.NEW_MESSAGE_REQUEST, new LaneCommand() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public LaneWork onRequest(InputStream in) throws IOException {
 
         final Uuid author = Uuid.SERIALIZER.read(in);
         final Uuid conversation = Uuid.SERIALIZER.read(in);
         final String content = Serializers.STRING.read(in);
 
-        // Grab the conversation ID that corresponds to the message
-        final String convoID = gson.toJson(conversation);
+        return new LaneWork(conversation) {
+          @Override
+          public void onMessage(OutputStream out) throws IOException {
 
-        final Message message = controller.newMessage(author, conversation, content);
+            // Grab the conversation ID that corresponds to the message
+            final String convoID = gson.toJson(conversation);
 
-        // Append an "identifier" before the object itself so that the reader can
-        // split, identify, and create the proper object later
-        // For a message, it will also append the corresponding conversation ID
-        final String stringMessage = MESSAGE_PREFIX + convoID + ";" + gson.toJson(message);
-        dataList.add(stringMessage);
+            final Message message = controller.newMessage(author, conversation, content);
+
+            if (message != null) {
+              subscriptions.publish(view.findConversation(conversation), message);
+            }
+
+            // Append an "identifier" before the object itself so that the reader can
+            // split, identify, and create the proper object later
+            // For a message, it will also append the corresponding conversation ID
+            final String stringMessage = MESSAGE_PREFIX + convoID + ";" + gson.toJson(message);
+            dataList.add(stringMessage);
 
-        Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
-        Serializers.nullable(Message.SERIALIZER).write(out, message);
+            Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
+            Serializers.nullable(Message.SERIALIZER).write(out, message);
 
-        timeline.scheduleNow(createSendToRelayEvent(
-            author,
-            conversation,
-            message.id));
+            timeline.scheduleNow(Timeline.Priority.REPLICATION, createSendToRelayEvent(
+                author,
+                conversation,
+                message.id));
+          }
+        };
       }
     });
 
@@ -171,10 +314,21 @@ public final class Server {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<User> users = view.getUsers();
-
         Serializers.INTEGER.write(out, NetworkCode.GET_USERS_RESPONSE);
-        Serializers.collection(User.SERIALIZER).write(out, users);
+        usersResponse.write(out, model.usersVersion());
+      }
+    });
+
+    // Get Users If Modified - A client that already has a list of users wants
+    //                         it again only if users have been added since.
+    this.commands.put(NetworkCode.GET_USERS_IF_MODIFIED_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+        writeIfModified(in,
+                        out,
+                        NetworkCode.GET_USERS_IF_MODIFIED_RESPONSE,
+                        model.usersVersion(),
+                        usersResponse);
       }
     });
 
@@ -183,10 +337,22 @@ public final class Server {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<ConversationHeader> conversations = view.getConversations();
-
         Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-        Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+        conversationsResponse.write(out, model.conversationsVersion());
+      }
+    });
+
+    // Get Conversations If Modified - A client that already has a list of
+    //                                 conversations wants it again only if
+    //                                 conversations have been added since.
+    this.commands.put(NetworkCode.GET_ALL_CONVERSATIONS_IF_MODIFIED_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+        writeIfModified(in,
+                        out,
+                        NetworkCode.GET_ALL_CONVERSATIONS_IF_MODIFIED_RESPONSE,
+                        model.conversationsVersion(),
+                        conversationsResponse);
       }
     });
 
@@ -219,6 +385,43 @@ public final class Server {
       }
     });
 
+    // Get Message Range - A client wants a run of messages from a conversation,
+    //                     starting at one message and following its links. This
+    //                     lets a client walking a conversation get the next
+    //                     messages without knowing their ids.
+    this.commands.put(NetworkCode.GET_MESSAGE_RANGE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid start = Uuid.SERIALIZER.read(in);
+        final int count = Serializers.INTEGER.read(in);
+        final boolean forward = Serializers.BOOLEAN.read(in);
+
+        final Collection<Message> messages =
+            view.getMessageRange(start, Math.min(count, MESSAGE_RANGE_LIMIT), forward);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGE_RANGE_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, messages);
+      }
+    });
+
+    // Get Changes - A client wants every user, conversation and message created
+    //               since the last changes it saw, rather than fetching
+    //               everything again.
+    this.commands.put(NetworkCode.GET_CHANGES_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final long epoch = Serializers.LONG.read(in);
+        final long since = Serializers.LONG.read(in);
+
+        final Changes changes = model.journal().since(epoch, since, CHANGES_LIMIT);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_CHANGES_RESPONSE);
+        Changes.SERIALIZER.write(out, changes);
+      }
+    });
+
     // Add User Interest - A client wants to add a user to their interests.
     this.commands.put (NetworkCode.NEW_USER_INTEREST_REQUEST, new Command() {
       @Override
@@ -381,16 +584,33 @@ public final class Server {
       }
     });
 
-    this.timeline.scheduleNow(new Runnable() {
+    // Get Server Stats - A client wants to see how much work each kind of
+    // request has been for the server
+    this.commands.put(NetworkCode.SERVER_STATS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.SERVER_STATS_RESPONSE);
+        ServerStats.SERIALIZER.write(out, stats());
+      }
+    });
+
+    // Poll the relay for new bundles. While there is more to read, the next
+    // page is read as soon as the last one has been handed off so that a server
+    // that was down for a while catches up at the speed of the network instead
+    // of one page every RELAY_REFRESH_MS. Once a read comes back empty, the
+    // server is caught up and goes back to waiting between reads.
+    this.relayPoll = relayTimeline.scheduleWithFixedDelay(0, RELAY_REFRESH_MS, new Runnable() {
+
+      // The last bundle read from the relay. This can be ahead of "lastSeen"
+      // while pages are waiting to be applied.
+      private Uuid fetched = Uuid.NULL;
+
       @Override
       public void run() {
         try {
 
-          LOG.info("Reading update from relay...");
-
-          for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
-            lastSeen = bundle.id();
+          while (!subscribed && readPage()) {
+            // Keep going until the relay has nothing new.
           }
 
         } catch (Exception ex) {
@@ -398,17 +618,211 @@ public final class Server {
           LOG.error(ex, "Failed to read update from relay.");
 
         }
+      }
+
+      // Read the next page from the relay and hand it off to be applied.
+      // Returns false once there was nothing left to read.
+      private boolean readPage() throws InterruptedException {
+
+        relayPages.acquire();
+
+        // When nothing is waiting to be applied, everything that was read
+        // has made it into the model (or the subscription moved things
+        // along), so start from there.
+        if (relayPending.get() == 0) {
+          fetched = lastSeen;
+        }
+
+        LOG.info("Reading update from relay...");
+
+        final Collection<Relay.Bundle> page;
+
+        try {
+          page = relay.read(id, secret, fetched, RELAY_PAGE);
+        } catch (RuntimeException ex) {
+          relayPages.release();
+          throw ex;
+        }
+
+        if (page.isEmpty()) {
+
+          relayPages.release();
 
-        timeline.scheduleIn(RELAY_REFRESH_MS, this);
+          if (relayPending.get() == 0) {
+            relayLagMs = 0;
+          }
+
+          return false;
+        }
+
+        for (final Relay.Bundle bundle : page) {
+          fetched = bundle.id();
+        }
+
+        relayPending.addAndGet(page.size());
+        applyBundles(page);
+
+        return true;
       }
     });
+
+    // When the relay supports it, it will push new bundles to this server over
+    // a connection that stays open. As a subscription blocks for as long as it
+    // is open, it needs its own thread. If the subscription is refused or lost,
+    // the timeline goes back to polling until the next attempt.
+    this.relaySubscriber = new Thread() {
+      @Override
+      public void run() {
+        while (true) {
+
+          relay.subscribe(id, secret, lastSeen, RELAY_WINDOW, new Relay.Subscriber() {
+            @Override
+            public void onSubscribe() {
+              LOG.info("Subscribed to relay.");
+              subscribed = true;
+            }
+
+            @Override
+            public void onBundle(Relay.Bundle bundle) {
+              applyBundle(bundle);
+            }
+          });
+
+          subscribed = false;
+
+          try {
+            Thread.sleep(RELAY_REFRESH_MS);
+          } catch (InterruptedException ex) {
+            LOG.info("Relay subscriber interrupted.");
+            return;
+          }
+        }
+      }
+    };
+
+    relaySubscriber.setDaemon(true);
+    relaySubscriber.start();
+  }
+
+  // STATS
+  //
+  // A snapshot of the requests the server has handled and of how far behind
+  // the relay it is, the same as what is sent in response to
+  // SERVER_STATS_REQUEST.
+  public ServerStats stats() {
+    return new ServerStats(Time.now(), metrics.snapshot(), relayPendingBundles(), relayLagMs());
+  }
+
+  // RELAY PENDING BUNDLES
+  //
+  // The number of bundles that have been read from the relay but not yet
+  // applied to the model. This is not how far behind the relay's newest bundle
+  // the server is - the relay can not be asked that - so it stays small even
+  // while catching up, as at most RELAY_PAGES_IN_FLIGHT pages are read ahead.
+  // "relayLagMs" shows how far behind the server is.
+  public int relayPendingBundles() {
+    return relayPending.get();
+  }
+
+  // RELAY LAG MS
+  //
+  // How far behind the relay the model is in milliseconds. This is zero when
+  // the server has caught up.
+  public long relayLagMs() {
+    return relayLagMs;
+  }
+
+  // Apply a bundle pushed from the relay on the timeline (where all changes to
+  // the model are made) and wait for it to be applied. Waiting means that the
+  // relay will not see the bundle as acknowledged until it is in the model.
+  private void applyBundle(final Relay.Bundle bundle) {
+
+    final CountDownLatch applied = new CountDownLatch(1);
+
+    relayPending.incrementAndGet();
+
+    timeline.scheduleNow(Timeline.Priority.REPLICATION, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          applyOne(bundle);
+        } finally {
+          applied.countDown();
+        }
+      }
+    });
+
+    try {
+      applied.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Apply a page of bundles read from the relay. The whole page is applied as
+  // one event on the timeline so that catching up costs one hand-off per page
+  // rather than one per bundle. Pages are replication work, so client requests
+  // that arrive while catching up run ahead of the pages still waiting.
+  private void applyBundles(Collection<Relay.Bundle> bundles) {
+
+    relayBacklog.add(bundles);
+
+    timeline.scheduleNow(Timeline.Priority.REPLICATION, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (final Relay.Bundle bundle : relayBacklog.remove()) {
+            applyOne(bundle);
+          }
+        } finally {
+          relayPages.release();
+        }
+      }
+    });
+  }
+
+  // Must be called on the timeline. A bundle that can not be applied is logged
+  // and skipped so that it does not hold up every bundle after it.
+  private void applyOne(Relay.Bundle bundle) {
+
+    try {
+      onBundle(bundle);
+    } catch (Exception ex) {
+      LOG.error(ex, "Failed to apply bundle from relay.");
+    }
+
+    lastSeen = bundle.id();
+    relayLagMs = Math.max(0, System.currentTimeMillis() - bundle.time().inMs());
+    relayPending.decrementAndGet();
   }
 
   // This method will write the contents of dataList to a txt file
-  public void saveServer() {
-    timeline.scheduleIn(SAVE_SERVER_MS, new Runnable() {
+  // Calling this again replaces the running save task rather than adding a
+  // second one.
+  public synchronized void saveServer() {
+
+    if (saveTask != null) {
+      saveTask.cancel();
+    }
+
+    saveTask = timeline.scheduleWithFixedDelay(Timeline.Priority.MAINTENANCE,
+                                               SAVE_SERVER_MS,
+                                               SAVE_SERVER_MS,
+                                               new Runnable() {
       @Override
       public void run() {
+        final ServerEvents.Save event = new ServerEvents.Save();
+        event.begin();
+
+        // Take what is pending and clear it in one step. Conversation lanes
+        // keep adding while the file is written, and anything they add now
+        // waits for the next save rather than being cleared unwritten.
+        final List<String> pending;
+        synchronized (dataList) {
+          pending = new ArrayList<>(dataList);
+          dataList.clear();
+        }
+
         try {
 
           // Check if the data storage file exists, and if not, create it
@@ -422,33 +836,58 @@ public final class Server {
 
           LOG.info("Writing sever content.");
 
-          for (int i = 0; i < dataList.size(); i++) {
+          for (final String data : pending) {
             // Write JSON object with identifier: <identifier>:<JSON Object>
-            bufferedWriter.write(dataList.get(i));
+            bufferedWriter.write(data);
             bufferedWriter.newLine();
+            event.records++;
+            event.bytes += data.length() + 1;
           }
 
         } catch (IOException ex) {
           LOG.error(ex, "There was an exception while writing server content.");
         } finally {
           closeWriters();
+          event.commit();
         }
-
-        // Clear Linked List in order to avoid rewrites
-        while (!dataList.isEmpty()) {
-          dataList.removeFirst();
-        }
-
-        timeline.scheduleIn(SAVE_SERVER_MS, this);
       }
     });
   }
 
+  // STOP
+  //
+  // Cancel the server's periodic work and shut down its timelines. Connections
+  // that were already handed to the server may not be handled.
+  public synchronized void stop() {
+
+    relayPoll.cancel();
+
+    if (saveTask != null) {
+      saveTask.cancel();
+    }
+
+    relaySubscriber.interrupt();
+
+    for (final Thread pusher : pushers) {
+      pusher.interrupt();
+    }
+
+    for (final Connection connection : multiplexed) {
+      closeConnection(connection);
+    }
+
+    relayTimeline.stop();
+    timeline.stop();
+  }
+
   // This method will read the JSON from the txt file and restore the server
   public void restoreServer() {
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
+        final ServerEvents.Restore event = new ServerEvents.Restore();
+        event.begin();
+
         try {
           String currentLine;
 
@@ -464,6 +903,8 @@ public final class Server {
           while ((currentLine = bufferedReader.readLine()) != null) {
             // Pass line into method that will restore the JSON objects
             restoreJsonObjects(currentLine);
+            event.records++;
+            event.bytes += currentLine.length() + 1;
           }
 
           LOG.info("The server has been restored.");
@@ -471,6 +912,7 @@ public final class Server {
           LOG.error(ex, "There was an exception while restoring server content.");
         } finally {
           closeReaders();
+          event.commit();
         }
       }
     });
@@ -537,37 +979,434 @@ public final class Server {
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
+
+        Request request = null;
+
         try {
 
-          LOG.info("Handling connection...");
+          LOG.verbose("Handling connection...");
+
+          request = new Request(connection);
 
-          final int type = Serializers.INTEGER.read(connection.in());
-          final Command command = commands.get(type);
+          final Command command = commands.get(request.type);
+          final LaneCommand laneCommand = laneCommands.get(request.type);
+
+          if (laneCommand != null) {
+            handleOnLane(connection, request, laneCommand.onRequest(request.in));
+            return;
+          }
+
+          if (request.type == NetworkCode.SUBSCRIBE_REQUEST) {
+            // An accepted subscription's pusher owns the connection from here.
+            final boolean accepted = subscribe(connection, request);
+            request.finish(false);
+            if (!accepted) {
+              closeConnection(connection);
+            }
+            return;
+          }
+
+          if (request.type == NetworkCode.MULTIPLEX_REQUEST) {
+            // The connection's reader owns it from here.
+            multiplex(connection, request);
+            request.finish(false);
+            return;
+          }
 
           if (command == null) {
             // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
+            Serializers.INTEGER.write(request.out, NetworkCode.NO_MESSAGE);
             LOG.info("Connection rejected");
           } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
+            command.onMessage(request.in, request.out);
+            LOG.verbose("Connection accepted");
           }
 
+          request.finish(false);
+
         } catch (Exception ex) {
 
           LOG.error(ex, "Exception while handling connection.");
 
+          if (request != null) {
+            request.finish(true);
+          }
         }
 
+        closeConnection(connection);
+      }
+    });
+  }
+
+  // Finish a lane command on its lane. The lane now owns the connection.
+  private void handleOnLane(final Connection connection,
+                            final Request request,
+                            final LaneWork work) {
+    timeline.scheduleNow(work.lane, new Runnable() {
+      @Override
+      public void run() {
         try {
-          connection.close();
+          work.onMessage(request.out);
+          LOG.verbose("Connection accepted");
+          request.finish(false);
         } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+          LOG.error(ex, "Exception while handling connection.");
+          request.finish(true);
         }
+
+        closeConnection(connection);
       }
     });
   }
 
+  // WRITE IF MODIFIED
+  //
+  // Answer a conditional request for a whole table. The client sends the
+  // epoch and version of the copy it has. If that is still current the
+  // response says so and nothing else, otherwise it carries the new epoch,
+  // version and the table itself from the response cache.
+  private void writeIfModified(InputStream in,
+                               OutputStream out,
+                               int code,
+                               long version,
+                               ResponseCache table) throws IOException {
+
+    final long heldEpoch = Serializers.LONG.read(in);
+    final long heldVersion = Serializers.LONG.read(in);
+
+    final long epoch = model.journal().epoch();
+    final boolean modified = heldEpoch != epoch || heldVersion != version;
+
+    Serializers.INTEGER.write(out, code);
+    Serializers.LONG.write(out, epoch);
+    Serializers.LONG.write(out, version);
+    Serializers.BOOLEAN.write(out, modified);
+
+    if (modified) {
+      table.write(out, version);
+    }
+  }
+
+  // SUBSCRIBE
+  //
+  // Accept a subscription for a user and start pushing the new messages of
+  // every conversation the user is a member of. The subscription is in place
+  // before the client hears that it was accepted, so nothing added after
+  // that is missed. Returns true if the connection was handed to a pusher.
+  private boolean subscribe(final Connection connection, Request request) throws IOException {
+
+    final Uuid user = Uuid.SERIALIZER.read(request.in);
+    final boolean accepted = view.findUser(user) != null;
+
+    final Subscriptions.Subscription subscription =
+        accepted ? subscriptions.subscribe(user) : null;
+
+    Serializers.INTEGER.write(request.out, NetworkCode.SUBSCRIBE_RESPONSE);
+    Serializers.BOOLEAN.write(request.out, accepted);
+
+    if (!accepted) {
+      LOG.warning("Subscription refused, no user %s", user);
+      return false;
+    }
+
+    LOG.info("Subscribed user=%s", user);
+
+    final Thread pusher = new Thread("subscription-" + user) {
+      @Override
+      public void run() {
+        try {
+          push(connection, subscription);
+        } catch (Exception ex) {
+          LOG.info("Subscription ended user=%s (%s)", user, ex.toString());
+        } finally {
+          subscriptions.unsubscribe(subscription);
+          pushers.remove(this);
+          closeConnection(connection);
+        }
+      }
+    };
+
+    pusher.setDaemon(true);
+    pushers.add(pusher);
+    pusher.start();
+
+    return true;
+  }
+
+  // PUSH
+  //
+  // Send queued messages to the subscriber as they arrive, as many as are
+  // waiting in each write. If the subscription was dropped for falling
+  // behind, the client is told so once it has everything queued before that.
+  private void push(Connection connection, Subscriptions.Subscription subscription)
+      throws IOException, InterruptedException {
+
+    final OutputStream out = new BufferedOutputStream(connection.out());
+    final Collection<Subscriptions.Update> updates = new ArrayList<>();
+
+    while (true) {
+
+      final Subscriptions.Update next = subscription.next(SUBSCRIPTION_HEARTBEAT_MS);
+
+      if (next != null) {
+
+        updates.add(next);
+        subscription.drainTo(updates);
+
+        for (final Subscriptions.Update update : updates) {
+          Serializers.INTEGER.write(out, NetworkCode.SUBSCRIBE_PUSH);
+          Uuid.SERIALIZER.write(out, update.conversation);
+          Message.SERIALIZER.write(out, update.message);
+        }
+
+        updates.clear();
+
+      } else if (subscription.dropped()) {
+
+        LOG.warning("Subscription dropped for falling behind user=%s", subscription.user);
+        Serializers.INTEGER.write(out, NetworkCode.SUBSCRIBE_DROPPED);
+        out.flush();
+        return;
+
+      } else {
+
+        Serializers.INTEGER.write(out, NetworkCode.SUBSCRIBE_HEARTBEAT);
+      }
+
+      out.flush();
+    }
+  }
+
+  // MULTIPLEX
+  //
+  // Take many requests over one connection. Each request comes as a frame:
+  //
+  //   [INTEGER id][BYTES request]
+  //
+  // and is handled as if it came on a connection of its own, so it is counted
+  // and scheduled like any other request. Its response goes back as a frame
+  // with the same id as soon as it is done, which can be before the responses
+  // to requests that came in ahead of it.
+  //
+  // A thread of its own reads the frames. Once MULTIPLEX_WINDOW requests from
+  // the connection are being handled it stops reading until one is done,
+  // which pushes back on the client.
+  //
+  // The client starts by asking for Capabilities, and the server answers with
+  // the ones it supports.
+  private void multiplex(final Connection connection, Request request) throws IOException {
+
+    final int capabilities = Serializers.INTEGER.read(request.in) & Capabilities.SUPPORTED;
+    final boolean compact = Capabilities.has(capabilities, Capabilities.COMPACT);
+    final Deflate deflate = Capabilities.has(capabilities, Capabilities.DEFLATE) ? Deflate.DEFAULT : null;
+
+    Serializers.INTEGER.write(request.out, NetworkCode.MULTIPLEX_RESPONSE);
+    Serializers.INTEGER.write(request.out, capabilities);
+
+    final OutputStream out = new BufferedOutputStream(connection.out());
+    final Semaphore window = new Semaphore(MULTIPLEX_WINDOW);
+
+    multiplexed.add(connection);
+
+    final Thread reader = new Thread("multiplex") {
+      @Override
+      public void run() {
+        try {
+
+          final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.in()));
+
+          while (true) {
+
+            final int id = in.readInt();
+            final int length = in.readInt();
+
+            if (length < 1 || length > MULTIPLEX_MAX_FRAME) {
+              throw new IOException("Bad frame length " + length);
+            }
+
+            final byte[] frame = Serializers.readBytes(in, length);
+
+            final byte[] bytes = deflate == null ? frame : Deflate.unpack(frame);
+
+            window.acquire();
+
+            final Frame request = new Frame(id, bytes, compact, deflate, out, window);
+
+            // A frame can only hold a request that is done once it responds.
+            if (request.type == NetworkCode.SUBSCRIBE_REQUEST ||
+                request.type == NetworkCode.MULTIPLEX_REQUEST) {
+              Serializers.INTEGER.write(request.wire(request.out()), NetworkCode.NO_MESSAGE);
+              request.close();
+            } else {
+              handleConnection(request);
+            }
+          }
+
+        } catch (EOFException ex) {
+          LOG.verbose("Multiplexed connection closed by client.");
+        } catch (Exception ex) {
+          LOG.info("Multiplexed connection ended (%s)", ex.toString());
+        } finally {
+
+          // Give the requests still being handled a chance to respond.
+          try {
+            window.tryAcquire(MULTIPLEX_WINDOW, SUBSCRIPTION_HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+
+          multiplexed.remove(connection);
+          closeConnection(connection);
+        }
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // FRAME
+  //
+  // One request from a multiplexed connection, seen as a connection of its
+  // own. Closing it sends the response. If the connection agreed on the
+  // compact encoding, the request and response are read and written through
+  // Compact streams (see "wire"). If it agreed on DEFLATE, the response is
+  // packed before it is sent, outside the lock so that large responses are
+  // not compressed one at a time.
+  private static final class Frame implements Connection {
+
+    public final int type;
+    public final boolean compact;
+
+    private final int id;
+    private final Deflate deflate;
+    private final InputStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final OutputStream link;
+    private final Semaphore window;
+    private boolean closed = false;
+
+    public Frame(int id,
+                 byte[] request,
+                 boolean compact,
+                 Deflate deflate,
+                 OutputStream link,
+                 Semaphore window) throws IOException {
+      this.id = id;
+      this.compact = compact;
+      this.deflate = deflate;
+      this.in = new ByteArrayInputStream(request);
+      this.link = link;
+      this.window = window;
+      this.type = Serializers.INTEGER.read(wire(new ByteArrayInputStream(request)));
+    }
+
+    public InputStream wire(InputStream in) {
+      return compact ? new Compact.Input(in) : in;
+    }
+
+    public OutputStream wire(OutputStream out) {
+      return compact ? new Compact.Output(out) : out;
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void close() throws IOException {
+
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+
+      try {
+        final byte[] response = deflate == null ? out.toByteArray() : deflate.pack(out.toByteArray());
+        synchronized (link) {
+          Serializers.INTEGER.write(link, id);
+          Serializers.BYTES.write(link, response);
+          link.flush();
+        }
+      } finally {
+        window.release();
+      }
+    }
+  }
+
+  // REQUEST
+  //
+  // One request from a client, from reading its type to writing its response.
+  // The streams count the bytes that go through them so that they can be
+  // recorded in the metrics along with how long the request took. Requests
+  // that came in a compact frame are read and written in that encoding.
+  private final class Request {
+
+    public final long start = System.nanoTime();
+    public final ServerEvents.Request event = new ServerEvents.Request();
+    public final InputStream in;
+    public final OutputStream out;
+    public final int type;
+
+    private final CountingInputStream bytesIn;
+    private final CountingOutputStream bytesOut;
+
+    public Request(Connection connection) throws IOException {
+
+      event.begin();
+
+      this.bytesIn = new CountingInputStream(connection.in());
+      this.bytesOut = new CountingOutputStream(connection.out());
+
+      if (connection instanceof Frame) {
+        this.in = ((Frame) connection).wire(bytesIn);
+        this.out = ((Frame) connection).wire(bytesOut);
+      } else {
+        this.in = bytesIn;
+        this.out = bytesOut;
+      }
+
+      this.type = Serializers.INTEGER.read(in);
+    }
+
+    public void finish(boolean failed) {
+
+      final long nanos = System.nanoTime() - start;
+
+      // Requests of unknown types are all counted as NO_MESSAGE so that a bad
+      // client can not fill the metrics with made up types.
+      final int code = commands.containsKey(type) ||
+                       laneCommands.containsKey(type) ||
+                       type == NetworkCode.SUBSCRIBE_REQUEST ||
+                       type == NetworkCode.MULTIPLEX_REQUEST ?
+          type :
+          NetworkCode.NO_MESSAGE;
+
+      metrics.record(code, nanos, bytesIn.count(), bytesOut.count(), failed);
+      REQUEST_EVENT.log(type, nanos);
+
+      if (event.shouldCommit()) {
+        event.type = type;
+        event.command = NetworkCode.name(code);
+        event.bytesIn = bytesIn.count();
+        event.bytesOut = bytesOut.count();
+        event.failed = failed;
+        event.commit();
+      }
+    }
+  }
+
+  private static void closeConnection(Connection connection) {
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
+  }
+
   private void onBundle(Relay.Bundle bundle) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
@@ -601,6 +1440,7 @@ public final class Server {
                                       conversation.id,
                                       relayMessage.text(),
                                       relayMessage.time());
+      subscriptions.publish(conversation, message);
     }
   }
 
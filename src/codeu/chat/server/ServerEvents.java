@@ -0,0 +1,158 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// SERVER EVENTS
+//
+// Java Flight Recorder events for the server's work. They cost next to nothing
+// unless a recording is running, so they are always on. To record a profile of
+// a running server:
+//
+//   $ jcmd <pid> JFR.start name=chat settings=profile filename=chat.jfr
+//   $ jcmd <pid> JFR.stop name=chat
+//
+// or start the server with -XX:StartFlightRecording. The events show up under
+// "CodeU Chat" in JDK Mission Control next to GC pauses and lock contention on
+// the same threads and times.
+//
+// Where filling in an event's fields costs something (like turning a Uuid into
+// text), the code checks "shouldCommit" first so that nothing is done when the
+// event is not being recorded.
+final class ServerEvents {
+
+  private ServerEvents() { }
+
+  @Name("codeu.chat.Request")
+  @Label("Request")
+  @Category({ "CodeU Chat", "Server" })
+  @Description("A client request, from reading its type to writing its response")
+  static final class Request extends Event {
+
+    @Label("Type")
+    int type;
+
+    @Label("Command")
+    String command;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Failed")
+    boolean failed;
+  }
+
+  @Name("codeu.chat.NewMessage")
+  @Label("New Message")
+  @Category({ "CodeU Chat", "Model" })
+  @Description("Adding a message to the model and linking it into its conversation")
+  static final class NewMessage extends Event {
+
+    @Label("Message")
+    String message;
+
+    @Label("Conversation")
+    String conversation;
+
+    @Label("Author")
+    String author;
+
+    @Label("Body Length")
+    int bodyLength;
+
+    @Label("Added")
+    boolean added;
+  }
+
+  @Name("codeu.chat.Save")
+  @Label("Save")
+  @Category({ "CodeU Chat", "Persistence" })
+  @Description("Writing a batch of changes to the data storage file")
+  static final class Save extends Event {
+
+    @Label("Records")
+    int records;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("codeu.chat.Restore")
+  @Label("Restore")
+  @Category({ "CodeU Chat", "Persistence" })
+  @Description("Reading the data storage file back into the model")
+  static final class Restore extends Event {
+
+    @Label("Records")
+    int records;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("codeu.chat.RelayRead")
+  @Label("Relay Read")
+  @Category({ "CodeU Chat", "Relay" })
+  @Description("Reading a page of bundles from the relay")
+  static final class RelayRead extends Event {
+
+    @Label("Team")
+    String team;
+
+    @Label("Root")
+    String root;
+
+    @Label("Range")
+    int range;
+
+    @Label("Bundles")
+    int bundles;
+  }
+
+  @Name("codeu.chat.RelayWrite")
+  @Label("Relay Write")
+  @Category({ "CodeU Chat", "Relay" })
+  @Description("Writing a message to the relay")
+  static final class RelayWrite extends Event {
+
+    @Label("Team")
+    String team;
+
+    @Label("Conversation")
+    String conversation;
+
+    @Label("Message")
+    String message;
+
+    @Label("Body Length")
+    int bodyLength;
+
+    @Label("Written")
+    boolean written;
+  }
+}
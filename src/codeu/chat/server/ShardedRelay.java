@@ -0,0 +1,290 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.HashRing;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SHARDED RELAY
+//
+// Spreads the relay over several relay servers (shards). Each conversation is
+// owned by one shard, picked by consistent hashing on the conversation's id, so
+// all the messages of a conversation go to the same shard in the order they
+// were written. As every team reads every bundle, reads go to all shards and
+// the results are merged by the time each bundle reached its relay.
+//
+// The relay only gives out a single id to read from, so the ids of the bundles
+// returned by this relay are cursors over all the shards: a Uuid chain with one
+// link per shard (in the order the shards were added) holding the id of the
+// last bundle read from that shard. A server can keep using the id of the last
+// bundle it saw as the root of its next read without knowing about shards.
+//
+// ADDING A SHARD
+//
+// Shards are only ever added to the end of the list. Once a shard is added, the
+// conversations that now hash to it are written there, everything that was
+// written before stays on its old shard and is still read from there. Cursors
+// made before the shard was added are one link short, the missing link is read
+// as Uuids.NULL which starts the new shard from its oldest bundle. To add a
+// shard to a running cluster:
+//
+//   1. Start the new relay (RelayMain) with the same team file.
+//   2. Add its address to the end of each server's relay list and restart the
+//      servers. Every server must use the same list in the same order.
+//
+// Subscriptions are not supported across shards, "subscribe" returns false
+// right away and servers will read from the shards instead.
+public final class ShardedRelay implements Relay {
+
+  private final static Logger.Log LOG = Logger.newLog(ShardedRelay.class);
+
+  // How many points each shard gets on the hash ring. More points spreads the
+  // conversations more evenly.
+  private static final int RING_REPLICAS = 64;
+
+  private final HashRing<Relay> ring = new HashRing<>(RING_REPLICAS);
+  private final List<Relay> shards = new ArrayList<>();
+  private final List<Integer> maxReads = new ArrayList<>();
+
+  private final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  // ADD SHARD
+  //
+  // Add a relay to the end of the shard list. The name is used to place the
+  // shard on the hash ring and must be the same in every process (the address
+  // of the relay is a good choice). "maxRead" is the most bundles the shard
+  // gives out in one read (see codeu.chat.relay.Server), which is needed to
+  // tell a page the shard cut short from one that was all it had.
+  public synchronized void addShard(String name, Relay shard, int maxRead) {
+
+    LOG.info("Adding relay shard %s (shard %d)", name, shards.size());
+
+    shards.add(shard);
+    maxReads.add(maxRead);
+    ring.add(name, shard);
+  }
+
+  // SHARD FOR
+  //
+  // The shard that owns the conversation.
+  public Relay shardFor(Uuid conversation) {
+    return ring.get(conversation);
+  }
+
+  @Override
+  public Relay.Bundle.Component pack(final Uuid id, final String text, final Time time) {
+    return new Relay.Bundle.Component() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public String text() { return text; }
+      @Override
+      public Time time() { return time; }
+    };
+  }
+
+  @Override
+  public boolean write(Uuid teamId,
+                       Secret teamSecret,
+                       Relay.Bundle.Component user,
+                       Relay.Bundle.Component conversation,
+                       Relay.Bundle.Component message) {
+
+    final Relay shard = shardFor(conversation.id());
+
+    if (shard == null) {
+      LOG.error("No relay shards to write to");
+      return false;
+    }
+
+    return shard.write(teamId,
+                       teamSecret,
+                       shard.pack(user.id(), user.text(), user.time()),
+                       shard.pack(conversation.id(), conversation.text(), conversation.time()),
+                       shard.pack(message.id(), message.text(), message.time()));
+  }
+
+  @Override
+  public Collection<Relay.Bundle> read(final Uuid teamId,
+                                       final Secret teamSecret,
+                                       Uuid root,
+                                       final int range) {
+
+    final List<Relay> current;
+    final List<Integer> limits;
+
+    synchronized (this) {
+      current = new ArrayList<>(shards);
+      limits = new ArrayList<>(maxReads);
+    }
+
+    final int[] positions = positions(root, current.size());
+
+    // Ask every shard at once, a read should take as long as the slowest shard
+    // rather than all of them added together.
+    final List<Future<Collection<Relay.Bundle>>> pending = new ArrayList<>();
+
+    for (int i = 0; i < current.size(); i++) {
+
+      final Relay shard = current.get(i);
+      final Uuid shardRoot = positions[i] == 0 ? Uuid.NULL : new Uuid(positions[i]);
+
+      pending.add(readers.submit(new Callable<Collection<Relay.Bundle>>() {
+        @Override
+        public Collection<Relay.Bundle> call() {
+          return shard.read(teamId, teamSecret, shardRoot, range);
+        }
+      }));
+    }
+
+    final List<ArrayDeque<Relay.Bundle>> pages = new ArrayList<>();
+    final boolean[] full = new boolean[current.size()];
+
+    for (int i = 0; i < pending.size(); i++) {
+      try {
+        pages.add(new ArrayDeque<>(pending.get(i).get()));
+        full[i] = pages.get(i).size() >= Math.min(range, limits.get(i));
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to read from relay shard");
+        pages.add(new ArrayDeque<Relay.Bundle>());
+      }
+    }
+
+    return merge(pages, full, positions, range);
+  }
+
+  @Override
+  public boolean subscribe(Uuid teamId,
+                           Secret teamSecret,
+                           Uuid root,
+                           int window,
+                           Relay.Subscriber subscriber) {
+    return false;
+  }
+
+  // MERGE
+  //
+  // Take bundles from the pages oldest first. Each bundle is given the cursor
+  // that includes it as its id. A shard whose page came back "full" (as long
+  // as was asked for, or as long as the shard gives out in one read) may have
+  // had more to give, so merging stops as soon as such a page runs out;
+  // anything newer on the other shards could be newer than what that shard
+  // has not sent yet. A page that came back shorter was everything the shard
+  // had, so an almost idle shard does not cut every read short. Whatever is
+  // left over will be read again next time.
+  private static Collection<Relay.Bundle> merge(List<ArrayDeque<Relay.Bundle>> pages,
+                                                boolean[] full,
+                                                int[] positions,
+                                                int range) {
+
+    final Collection<Relay.Bundle> merged = new ArrayList<>();
+
+    while (merged.size() < range) {
+
+      int next = -1;
+
+      for (int i = 0; i < pages.size(); i++) {
+        final Relay.Bundle head = pages.get(i).peek();
+        if (head != null &&
+            (next < 0 || head.time().compareTo(pages.get(next).peek().time()) < 0)) {
+          next = i;
+        }
+      }
+
+      if (next < 0) {
+        break;
+      }
+
+      final ArrayDeque<Relay.Bundle> page = pages.get(next);
+      final Relay.Bundle bundle = page.remove();
+
+      positions[next] = bundle.id().id();
+      merged.add(withId(bundle, cursor(positions)));
+
+      if (page.isEmpty() && full[next]) {
+        break;
+      }
+    }
+
+    return merged;
+  }
+
+  // Split a cursor into the position on each shard. The first shard is at the
+  // root of the chain.
+  private static int[] positions(Uuid cursor, int shards) {
+
+    int links = 0;
+    for (Uuid current = cursor; current != null; current = current.root()) {
+      links++;
+    }
+
+    final int[] positions = new int[shards];
+
+    int link = links - 1;
+    for (Uuid current = cursor; current != null; current = current.root(), link--) {
+      if (link < shards) {
+        positions[link] = current.id();
+      }
+    }
+
+    return positions;
+  }
+
+  private static Uuid cursor(int[] positions) {
+    Uuid cursor = null;
+    for (final int position : positions) {
+      cursor = new Uuid(cursor, position);
+    }
+    return cursor;
+  }
+
+  private static Relay.Bundle withId(final Relay.Bundle bundle, final Uuid id) {
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public Time time() { return bundle.time(); }
+      @Override
+      public Uuid team() { return bundle.team(); }
+      @Override
+      public Relay.Bundle.Component user() { return bundle.user(); }
+      @Override
+      public Relay.Bundle.Component conversation() { return bundle.conversation(); }
+      @Override
+      public Relay.Bundle.Component message() { return bundle.message(); }
+    };
+  }
+}
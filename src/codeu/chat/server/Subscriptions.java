@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// SUBSCRIPTIONS
+//
+// The clients that want new messages pushed to them. Every subscription has
+// its own bounded queue that "publish" adds to and the subscription's pusher
+// takes from, so a slow client never holds up the lane that added the
+// message or any other client.
+//
+// When a subscription's queue is full it is dropped: nothing more is added to
+// it, and once its pusher has sent what is already queued it tells the client
+// and closes the connection. A client that gets dropped has missed messages
+// and needs to list its conversations again before it subscribes again.
+// Dropping the subscription (rather than the oldest messages) means a client
+// never sees a gap it does not know about.
+final class Subscriptions {
+
+  // UPDATE
+  //
+  // A message and the conversation it was added to.
+  public static final class Update {
+
+    public final Uuid conversation;
+    public final Message message;
+
+    public Update(Uuid conversation, Message message) {
+      this.conversation = conversation;
+      this.message = message;
+    }
+  }
+
+  // SUBSCRIPTION
+  //
+  // The messages waiting to be pushed to one client.
+  public static final class Subscription {
+
+    public final Uuid user;
+
+    private final BlockingQueue<Update> queue;
+    private volatile boolean dropped = false;
+
+    private Subscription(Uuid user, int capacity) {
+      this.user = user;
+      this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    // Wait up to "timeoutMs" for the next update. Returns null if there was
+    // none, or at once if the subscription was dropped and everything queued
+    // before that has been taken.
+    public Update next(long timeoutMs) throws InterruptedException {
+      return dropped ? queue.poll() : queue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Take the updates that are already waiting, without blocking.
+    public int drainTo(Collection<Update> updates) {
+      return queue.drainTo(updates);
+    }
+
+    public boolean dropped() {
+      return dropped;
+    }
+
+    private void offer(Update update) {
+      if (!dropped && !queue.offer(update)) {
+        dropped = true;
+      }
+    }
+  }
+
+  private final int capacity;
+  private final Collection<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  public Subscriptions(int capacity) {
+    this.capacity = capacity;
+  }
+
+  public Subscription subscribe(Uuid user) {
+    final Subscription subscription = new Subscription(user, capacity);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  public void unsubscribe(Subscription subscription) {
+    subscriptions.remove(subscription);
+  }
+
+  public int size() {
+    return subscriptions.size();
+  }
+
+  // PUBLISH
+  //
+  // Queue the message for every subscriber who is a member of the
+  // conversation. Never blocks.
+  public void publish(ConversationHeader conversation, Message message) {
+
+    if (conversation == null || message == null) {
+      return;
+    }
+
+    final Update update = new Update(conversation.id, message);
+
+    for (final Subscription subscription : subscriptions) {
+      if (conversation.userCategory.containsKey(subscription.user)) {
+        subscription.offer(update);
+      }
+    }
+  }
+}
@@ -76,6 +76,24 @@ public final class View implements BasicView, SinglesView {
     return intersect(model.messageById(), ids);
   }
 
+  // GET MESSAGE RANGE
+  //
+  // Up to "count" messages starting with "start" and following the "next"
+  // links (or the "previous" links if "forward" is false). Stops early at the
+  // end of the conversation. Returns nothing if there is no "start" message.
+  public List<Message> getMessageRange(Uuid start, int count, boolean forward) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    for (Message message = findMessage(start);
+         message != null && messages.size() < count;
+         message = findMessage(forward ? message.next : message.previous)) {
+      messages.add(message);
+    }
+
+    return messages;
+  }
+
   @Override
   public User findUser(Uuid id) { return model.userById().first(id); }
 
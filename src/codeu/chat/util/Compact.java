@@ -0,0 +1,227 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// COMPACT
+//
+// A smaller encoding for the same serializers, used on connections where both
+// ends agreed to it. A request or response that uses it is written to an
+// Output and read from an Input. Serializers, Uuid and Time check for these
+// and switch encoding, so no other serializer needs to know about them.
+//
+//   INTEGER, LONG : zig-zag varints, so small values (codes, counts,
+//                   lengths) take one byte whichever their sign.
+//   Time          : the zig-zag varint difference from the last time in the
+//                   same request or response. Times in a page of messages
+//                   are close together, so each is two or three bytes.
+//   Uuid          : a Uuid that was already written in the same request or
+//                   response is written as its index. Ids are random so
+//                   varints would not help them, but in a page of messages
+//                   most are repeats - the server root, the authors, and each
+//                   message's "next" being the next message's id.
+//
+// The state that makes this work lives in one Output or Input. Each request
+// and response gets a new one, so it never grows past the size of a single
+// response.
+public final class Compact {
+
+  private Compact() { }
+
+  // A Uuid tag is NULL_UUID, NEW_UUID followed by its root and id, or an odd
+  // number 2i+1 for the Uuid at index i.
+  private static final int NULL_UUID = 0;
+  private static final int NEW_UUID = 2;
+
+  // The longest chain of new Uuids that will be read, the same as the
+  // standard encoding allows.
+  private static final int MAX_CHAIN = 255;
+
+  public static final class Output extends FilterOutputStream {
+
+    private final Map<Uuid, Integer> seen = new HashMap<>();
+    private long lastTime = 0;
+
+    public Output(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      // FilterOutputStream would write one byte at a time.
+      out.write(buffer, offset, length);
+    }
+
+    public void writeUuid(Uuid value) throws IOException {
+
+      if (value == null) {
+        writeUnsigned(this, NULL_UUID);
+        return;
+      }
+
+      final Integer index = seen.get(value);
+
+      if (index != null) {
+        writeUnsigned(this, 2L * index + 1);
+        return;
+      }
+
+      writeUnsigned(this, NEW_UUID);
+      writeUuid(value.root());
+      writeFixed(this, value.id());
+
+      seen.put(value, seen.size());
+    }
+
+    public void writeTime(long ms) throws IOException {
+      writeSigned(this, ms - lastTime);
+      lastTime = ms;
+    }
+  }
+
+  public static final class Input extends FilterInputStream {
+
+    private final List<Uuid> seen = new ArrayList<>();
+    private long lastTime = 0;
+
+    public Input(InputStream in) {
+      super(in);
+    }
+
+    // A new Uuid's root comes right after its tag, so a chain of new Uuids is
+    // a run of NEW_UUID tags, then the tag of the first root that is not new,
+    // then the ids from the innermost out. It is read in a loop and, like
+    // Uuid.SERIALIZER, refuses chains longer than MAX_CHAIN, so a peer can not
+    // make the reader recurse without end.
+    public Uuid readUuid() throws IOException {
+
+      long tag = readUnsigned(this);
+      int links = 0;
+
+      while (tag == NEW_UUID) {
+        if (++links > MAX_CHAIN) {
+          throw new IOException("Uuid chain too long");
+        }
+        tag = readUnsigned(this);
+      }
+
+      Uuid value;
+
+      if (tag == NULL_UUID) {
+        value = null;
+      } else {
+
+        final long index = tag >>> 1;
+
+        if ((tag & 1) == 0 || index >= seen.size()) {
+          throw new IOException("Bad Uuid tag " + tag);
+        }
+
+        value = seen.get((int) index);
+      }
+
+      for (int i = 0; i < links; i++) {
+        value = new Uuid(value, readFixed(this));
+        seen.add(value);
+      }
+
+      return value;
+    }
+
+    public long readTime() throws IOException {
+      lastTime += readSigned(this);
+      return lastTime;
+    }
+  }
+
+  // WRITE SIGNED
+  //
+  // Zig-zag the value so that small negative numbers are small too, then
+  // write it as a varint.
+  public static void writeSigned(OutputStream out, long value) throws IOException {
+    writeUnsigned(out, (value << 1) ^ (value >> 63));
+  }
+
+  public static long readSigned(InputStream in) throws IOException {
+    final long value = readUnsigned(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // WRITE UNSIGNED
+  //
+  // Seven bits per byte, lowest first, with the top bit set on every byte but
+  // the last.
+  public static void writeUnsigned(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  public static long readUnsigned(InputStream in) throws IOException {
+
+    long value = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+
+      final int b = in.read();
+
+      if (b < 0) {
+        throw new EOFException();
+      }
+
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Varint is too long");
+  }
+
+  private static void writeFixed(OutputStream out, int value) throws IOException {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static int readFixed(InputStream in) throws IOException {
+
+    int value = 0;
+
+    for (int i = 0; i < 4; i++) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value = (value << 8) | b;
+    }
+
+    return value;
+  }
+}
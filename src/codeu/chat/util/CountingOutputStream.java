@@ -0,0 +1,46 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Counts the bytes written through it.
+public final class CountingOutputStream extends FilterOutputStream {
+
+  private long count = 0;
+
+  public CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  public long count() {
+    return count;
+  }
+
+  @Override
+  public void write(int value) throws IOException {
+    out.write(value);
+    count++;
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    // FilterOutputStream would write one byte at a time.
+    out.write(buffer, offset, length);
+    count += length;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+
+// ENCODED FORM
+//
+// The serialized bytes of an object that never changes, made the first time
+// the object is written and copied straight to the output every time after
+// that. Reading a popular list of users or page of messages then costs a copy
+// per object instead of running every field's serializer again.
+//
+// The bytes are held softly. The garbage collector takes them back when
+// memory runs short, and they are made again the next time they are needed,
+// so the cache never has to be sized. Setting the system property
+// "codeu.chat.encodedForm" to "false" turns it off.
+public final class EncodedForm {
+
+  // FIELDS
+  //
+  // How to write the fields of a value that are kept. Only ever written, as
+  // reading goes through the value's own serializer.
+  public interface Fields<T> {
+    void write(OutputStream out, T value) throws IOException;
+  }
+
+  private static volatile boolean enabled =
+      !"false".equals(System.getProperty("codeu.chat.encodedForm"));
+
+  private volatile SoftReference<byte[]> bytes;
+
+  public static boolean enabled() {
+    return enabled;
+  }
+
+  public static void enabled(boolean enabled) {
+    EncodedForm.enabled = enabled;
+  }
+
+  // WRITE
+  //
+  // Write the encoded form of "value" to "out", encoding it first with
+  // "fields" if it has not been kept. Two threads may both encode the same
+  // object, in which case they make the same bytes and either can be kept.
+  public <T> void write(OutputStream out, Fields<T> fields, T value) throws IOException {
+
+    // The compact encoding depends on what else is in the same response, so
+    // it can not be kept.
+    if (!enabled || out instanceof Compact.Output) {
+      fields.write(out, value);
+      return;
+    }
+
+    final SoftReference<byte[]> kept = bytes;
+    byte[] encoded = kept == null ? null : kept.get();
+
+    if (encoded == null) {
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      fields.write(buffer, value);
+      encoded = buffer.toByteArray();
+      bytes = new SoftReference<>(encoded);
+    }
+
+    out.write(encoded);
+  }
+}
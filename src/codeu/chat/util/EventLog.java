@@ -0,0 +1,820 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// EVENT LOG
+//
+// A binary log for events that happen too often to format as text, like every
+// request a server handles. An event is defined once with an id, a name, and
+// the names and kinds of its arguments:
+//
+//   static final EventLog.Event REQUEST =
+//       EventLog.define(1, "server.request", "type:int", "took:duration");
+//
+// and then logged with plain values:
+//
+//   REQUEST.log(type, System.nanoTime() - start);
+//
+// Logging does nothing until the log is opened (see Logger.enableEventLog).
+// Once open, a record is written straight into a memory-mapped file: claiming
+// space is one atomic add, there are no locks, no allocation, and no
+// formatting. The operating system writes the pages out, so records survive
+// the process crashing.
+//
+// FILES
+//
+// The log is a directory of fixed size segment files (events-000000.bin,
+// events-000001.bin, ...). When a segment fills up, a new one is started and
+// every file but the newest configured number is deleted, including any left
+// over from an earlier run that kept more. A full segment is unmapped as soon
+// as the last record in it is finished, so a long-running server only ever
+// has the segment it is writing to mapped. Every
+// segment starts with the definitions of all events, so each file can be
+// decoded on its own (see EventLogMain).
+//
+//   Segment : [INTEGER magic][SHORT version][SHORT 0][LONG start ms]
+//             [LONG start nanos][LONG 0] then records.
+//   Record  : [SHORT length][SHORT event id][LONG nanos since start][args]
+//
+// A record's length is written last, a length of zero marks the end of the
+// records. Arguments are written in the order they were defined:
+//
+//   int      : [INTEGER]
+//   long     : [LONG]
+//   duration : [LONG nanoseconds]
+//   uuid     : [BYTE links][INTEGER]... from the root down
+//
+// Definitions are records with event id 0 and the arguments
+//   [SHORT id][STRING name][BYTE count] then [BYTE kind][STRING name] for each
+// argument, where a STRING is [SHORT length][UTF-8 bytes].
+public final class EventLog {
+
+  private final static Logger.Log LOG = Logger.newLog(EventLog.class);
+
+  public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+  public static final int DEFAULT_SEGMENTS = 8;
+
+  static final int MAGIC = 0x43554556;  // "CUEV"
+  static final short VERSION = 1;
+  static final int SEGMENT_HEADER_BYTES = 32;
+  static final int RECORD_HEADER_BYTES = 12;
+  static final int MAX_RECORD_BYTES = 0xFFFF;
+
+  private static final int DEFINITION = 0;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // KIND
+  //
+  // The kinds of argument an event can have. The code is what is written in
+  // definitions so it must never change.
+  public enum Kind {
+
+    INT(1, 4),
+    LONG(2, 8),
+    DURATION(3, 8),
+    UUID(4, -1);
+
+    public final int code;
+    private final int bytes;
+
+    private Kind(int code, int bytes) {
+      this.code = code;
+      this.bytes = bytes;
+    }
+
+    public static Kind forCode(int code) {
+      for (final Kind kind : values()) {
+        if (kind.code == code) {
+          return kind;
+        }
+      }
+      return null;
+    }
+  }
+
+  // EVENT
+  //
+  // A defined event. The "log" methods take the event's Uuid arguments first
+  // and then its number arguments, each in the order they were defined. Giving
+  // the wrong number of either throws IllegalArgumentException.
+  public static final class Event {
+
+    public final int id;
+    public final String name;
+
+    private final String[] names;
+    private final Kind[] kinds;
+    private final int uuids;
+    private final int numbers;
+    private final int fixedBytes;
+
+    private Event(int id, String name, String[] names, Kind[] kinds) {
+
+      this.id = id;
+      this.name = name;
+      this.names = names;
+      this.kinds = kinds;
+
+      int uuids = 0;
+      int fixedBytes = RECORD_HEADER_BYTES;
+
+      for (final Kind kind : kinds) {
+        if (kind == Kind.UUID) {
+          uuids++;
+          fixedBytes += 1;
+        } else {
+          fixedBytes += kind.bytes;
+        }
+      }
+
+      this.uuids = uuids;
+      this.numbers = kinds.length - uuids;
+      this.fixedBytes = fixedBytes;
+    }
+
+    public int args() { return kinds.length; }
+    public String argName(int index) { return names[index]; }
+    public Kind argKind(int index) { return kinds[index]; }
+
+    public void log() {
+      append(this, null, null, 0, 0, 0, 0, 0);
+    }
+
+    public void log(long a) {
+      append(this, null, null, 0, a, 0, 0, 1);
+    }
+
+    public void log(long a, long b) {
+      append(this, null, null, 0, a, b, 0, 2);
+    }
+
+    public void log(long a, long b, long c) {
+      append(this, null, null, 0, a, b, c, 3);
+    }
+
+    public void log(Uuid a) {
+      append(this, a, null, 1, 0, 0, 0, 0);
+    }
+
+    public void log(Uuid a, long b) {
+      append(this, a, null, 1, b, 0, 0, 1);
+    }
+
+    public void log(Uuid a, long b, long c) {
+      append(this, a, null, 1, b, c, 0, 2);
+    }
+
+    public void log(Uuid a, Uuid b) {
+      append(this, a, b, 2, 0, 0, 0, 0);
+    }
+
+    public void log(Uuid a, Uuid b, long c) {
+      append(this, a, b, 2, c, 0, 0, 1);
+    }
+  }
+
+  // SEGMENT
+  //
+  // One mapped file. "position" is where the next record goes and may run past
+  // the end when several threads find the segment full at once.
+  //
+  // Space is claimed in order, so the records that fit are exactly the ones
+  // claimed before the first that did not. The thread that claims past the
+  // end "seals" the segment by recording where that was in "end". "written"
+  // counts the bytes of finished records, and once it reaches "end" no thread
+  // can still be writing, so the segment is unmapped. Whichever of the sealing
+  // thread and the last writer gets there second does it.
+  private static final class Segment {
+
+    public final File file;
+    public final MappedByteBuffer buffer;
+    public final int capacity;
+    public final long startNanos;
+    public final AtomicInteger position = new AtomicInteger(SEGMENT_HEADER_BYTES);
+
+    private final AtomicInteger written = new AtomicInteger(SEGMENT_HEADER_BYTES);
+    private final AtomicBoolean unmapped = new AtomicBoolean(false);
+    private volatile int end = -1;
+
+    public Segment(File file, int capacity) throws IOException {
+
+      this.file = file;
+      this.capacity = capacity;
+      this.startNanos = System.nanoTime();
+
+      try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(capacity);
+        // The mapping stays valid after the channel is closed.
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      }
+
+      buffer.putInt(0, MAGIC);
+      buffer.putShort(4, VERSION);
+      buffer.putLong(8, System.currentTimeMillis());
+      buffer.putLong(16, startNanos);
+
+      mapped.incrementAndGet();
+    }
+
+    // Claim "size" bytes. Returns where they start, or -1 if they do not fit.
+    public int claim(int size) {
+
+      final int at = position.getAndAdd(size);
+
+      if (at + size <= capacity) {
+        return at;
+      }
+
+      // Only the first claim that does not fit starts inside the segment.
+      if (at <= capacity) {
+        end = at;
+        if (written.get() == at) {
+          unmap();
+        }
+      }
+
+      return -1;
+    }
+
+    // A record claimed with "claim" has been written.
+    public void finished(int size) {
+      if (written.addAndGet(size) == end) {
+        unmap();
+      }
+    }
+
+    // Stop anything more being written, and unmap once what was claimed is
+    // finished.
+    public void seal() {
+      claim(capacity + 1);
+    }
+
+    private void unmap() {
+      if (unmapped.compareAndSet(false, true)) {
+        mapped.decrementAndGet();
+        EventLog.unmap(buffer);
+      }
+    }
+  }
+
+  // UNMAP
+  //
+  // A mapping is otherwise only released when the garbage collector gets to
+  // its buffer, which for a buffer that has lived a while can take a very
+  // long time. The JDK's cleaner is reached through sun.misc.Unsafe. If that
+  // is not there, the buffer is left to the garbage collector.
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+
+    Object unsafe = null;
+    Method invokeCleaner = null;
+
+    try {
+      final Class<?> type = Class.forName("sun.misc.Unsafe");
+      final Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (Exception ex) {
+      LOG.warning("Event log segments will be unmapped by the garbage collector (%s)", ex.toString());
+      unsafe = null;
+      invokeCleaner = null;
+    }
+
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  // Nothing may use the buffer after this.
+  private static void unmap(ByteBuffer buffer) {
+    if (INVOKE_CLEANER != null) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } catch (Exception ex) {
+        LOG.warning("Failed to unmap event log segment (%s)", ex.toString());
+      }
+    }
+  }
+
+  // The number of segments that are mapped and not yet unmapped.
+  private static final AtomicInteger mapped = new AtomicInteger();
+
+  static int mappedSegments() {
+    return mapped.get();
+  }
+
+  // Events by id, guarded by the class lock.
+  private static final Map<Integer, Event> events = new HashMap<>();
+
+  private static volatile Segment segment;
+
+  private static File directory;
+  private static int segmentBytes;
+  private static int keep;
+  private static int nextNumber;
+
+  private EventLog() { }
+
+  // DEFINE
+  //
+  // Define an event. Each argument is given as "<name>:<kind>" where kind is
+  // one of int, long, duration, or uuid. Ids must be between 1 and 65535 and
+  // can only be used once.
+  public static synchronized Event define(int id, String name, String... args) {
+
+    if (id <= DEFINITION || id > 0xFFFF) {
+      throw new IllegalArgumentException("Event id out of range: " + id);
+    }
+
+    if (events.containsKey(id)) {
+      throw new IllegalArgumentException(String.format(
+          "Event id %d is already used by %s", id, events.get(id).name));
+    }
+
+    final String[] names = new String[args.length];
+    final Kind[] kinds = new Kind[args.length];
+
+    for (int i = 0; i < args.length; i++) {
+      final String[] parts = args[i].split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Expected <name>:<kind> but got " + args[i]);
+      }
+      names[i] = parts[0];
+      kinds[i] = Kind.valueOf(parts[1].toUpperCase());
+    }
+
+    final Event event = new Event(id, name, names, kinds);
+    events.put(id, event);
+
+    if (segment != null) {
+      writeDefinition(segment, event);
+    }
+
+    return event;
+  }
+
+  // OPEN
+  //
+  // Start writing events to the directory. Numbering carries on from any
+  // segments already in the directory.
+  public static synchronized void open(File dir, int bytes, int segments) throws IOException {
+
+    close();
+
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create event log directory " + dir);
+    }
+
+    directory = dir;
+    segmentBytes = bytes;
+    keep = Math.max(1, segments);
+    nextNumber = 0;
+
+    for (final File file : segmentFiles(dir)) {
+      nextNumber = Math.max(nextNumber, number(file) + 1);
+    }
+
+    segment = newSegment();
+
+    LOG.info("Writing events to %s", segment.file);
+  }
+
+  // CLOSE
+  //
+  // Stop writing events. Events logged after this are ignored.
+  public static synchronized void close() {
+    if (segment != null) {
+      segment.seal();
+      segment = null;
+    }
+  }
+
+  public static boolean isOpen() {
+    return segment != null;
+  }
+
+  // SEGMENT FILES
+  //
+  // The segment files in a directory, oldest first.
+  public static List<File> segmentFiles(File dir) {
+
+    final List<File> files = new ArrayList<>();
+    final File[] all = dir.listFiles();
+
+    if (all != null) {
+      for (final File file : all) {
+        if (number(file) >= 0) {
+          files.add(file);
+        }
+      }
+    }
+
+    Collections.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Integer.compare(number(a), number(b));
+      }
+    });
+
+    return files;
+  }
+
+  private static int number(File file) {
+    final String name = file.getName();
+    if (!name.startsWith("events-") || !name.endsWith(".bin")) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(name.substring(7, name.length() - 4));
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  private static void append(Event event,
+                             Uuid u0,
+                             Uuid u1,
+                             int uuids,
+                             long n0,
+                             long n1,
+                             long n2,
+                             int numbers) {
+
+    if (uuids != event.uuids || numbers != event.numbers) {
+      throw new IllegalArgumentException(String.format(
+          "Event %s takes %d uuids and %d numbers",
+          event.name, event.uuids, event.numbers));
+    }
+
+    Segment current = segment;
+
+    if (current == null) {
+      return;
+    }
+
+    final long now = System.nanoTime();
+    final int size = event.fixedBytes + 4 * (links(u0) + links(u1));
+
+    if (size > MAX_RECORD_BYTES) {
+      throw new IllegalArgumentException("Event record too large: " + size);
+    }
+
+    // Two tries: if a record does not fit in a new segment it never will.
+    for (int tries = 0; tries < 2 && current != null; tries++) {
+
+      final int at = current.claim(size);
+
+      if (at >= 0) {
+        try {
+          write(current, at, size, event, now, u0, u1, n0, n1, n2);
+        } finally {
+          current.finished(size);
+        }
+        return;
+      }
+
+      current = rotate(current);
+    }
+  }
+
+  private static void write(Segment segment,
+                            int at,
+                            int size,
+                            Event event,
+                            long now,
+                            Uuid u0,
+                            Uuid u1,
+                            long n0,
+                            long n1,
+                            long n2) {
+
+    final ByteBuffer buffer = segment.buffer;
+
+    buffer.putShort(at + 2, (short) event.id);
+    buffer.putLong(at + 4, now - segment.startNanos);
+
+    int position = at + RECORD_HEADER_BYTES;
+    int uuid = 0;
+    int number = 0;
+
+    for (final Kind kind : event.kinds) {
+      if (kind == Kind.UUID) {
+        position = putUuid(buffer, position, uuid++ == 0 ? u0 : u1);
+      } else {
+        final long value = number == 0 ? n0 : number == 1 ? n1 : n2;
+        number++;
+        if (kind == Kind.INT) {
+          buffer.putInt(position, (int) value);
+          position += 4;
+        } else {
+          buffer.putLong(position, value);
+          position += 8;
+        }
+      }
+    }
+
+    // Written last so a record is only seen once it is complete.
+    buffer.putShort(at, (short) size);
+  }
+
+  private static int links(Uuid id) {
+    int links = 0;
+    for (Uuid current = id; current != null; current = current.root()) {
+      links++;
+    }
+    return links;
+  }
+
+  private static int putUuid(ByteBuffer buffer, int position, Uuid id) {
+
+    final int links = links(id);
+    buffer.put(position, (byte) links);
+
+    // Walk from the tail and fill from the back so the root comes first.
+    int at = position + 1 + 4 * links;
+    for (Uuid current = id; current != null; current = current.root()) {
+      at -= 4;
+      buffer.putInt(at, current.id());
+    }
+
+    return position + 1 + 4 * links;
+  }
+
+  // Replace a full segment. Returns the segment to write to, which may have
+  // already been replaced by another thread, or null if the log is closed.
+  private static synchronized Segment rotate(Segment full) {
+
+    if (segment != full) {
+      return segment;
+    }
+
+    try {
+      segment = newSegment();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to start a new event log segment, closing the event log");
+      segment = null;
+    }
+
+    return segment;
+  }
+
+  // Must be called while holding the class lock.
+  private static Segment newSegment() throws IOException {
+
+    final Segment created = new Segment(
+        new File(directory, String.format("events-%06d.bin", nextNumber)),
+        segmentBytes);
+
+    nextNumber++;
+
+    // Keep only the newest "keep" files, the new one included.
+    for (final File old : segmentFiles(directory)) {
+      if (number(old) < nextNumber - keep && !old.delete()) {
+        LOG.warning("Failed to delete old event log segment %s", old);
+      }
+    }
+
+    // Definitions go in before anyone can write to the segment.
+    for (final Event event : events.values()) {
+      writeDefinition(created, event);
+    }
+
+    return created;
+  }
+
+  // Must be called while holding the class lock. If the definition does not
+  // fit, the next segment will have it.
+  private static void writeDefinition(Segment current, Event event) {
+
+    final byte[] name = event.name.getBytes(UTF8);
+
+    int size = RECORD_HEADER_BYTES + 2 + 2 + name.length + 1;
+    final byte[][] names = new byte[event.kinds.length][];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = event.names[i].getBytes(UTF8);
+      size += 1 + 2 + names[i].length;
+    }
+
+    final int at = current.claim(size);
+
+    if (at < 0) {
+      return;
+    }
+
+    try {
+      putDefinition(current, at, size, event, name, names);
+    } finally {
+      current.finished(size);
+    }
+  }
+
+  private static void putDefinition(Segment current,
+                                    int at,
+                                    int size,
+                                    Event event,
+                                    byte[] name,
+                                    byte[][] names) {
+
+    final ByteBuffer buffer = current.buffer;
+
+    buffer.putShort(at + 2, (short) DEFINITION);
+    buffer.putLong(at + 4, System.nanoTime() - current.startNanos);
+
+    int position = at + RECORD_HEADER_BYTES;
+
+    buffer.putShort(position, (short) event.id);
+    position = putString(buffer, position + 2, name);
+    buffer.put(position++, (byte) event.kinds.length);
+
+    for (int i = 0; i < names.length; i++) {
+      buffer.put(position++, (byte) event.kinds[i].code);
+      position = putString(buffer, position, names[i]);
+    }
+
+    buffer.putShort(at, (short) size);
+  }
+
+  private static int putString(ByteBuffer buffer, int position, byte[] bytes) {
+    buffer.putShort(position, (short) bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.put(position + 2 + i, bytes[i]);
+    }
+    return position + 2 + bytes.length;
+  }
+
+  // RECORD
+  //
+  // A decoded record. Values are Longs (int, long, and duration arguments) or
+  // Uuids, in the order the event defines them.
+  public static final class Record {
+
+    public final Event event;
+    public final long timeMs;
+    public final long nanos;  // nanoseconds after timeMs
+    public final Object[] values;
+
+    private Record(Event event, long timeMs, long nanos, Object[] values) {
+      this.event = event;
+      this.timeMs = timeMs;
+      this.nanos = nanos;
+      this.values = values;
+    }
+  }
+
+  public interface Reader {
+    void onRecord(Record record);
+  }
+
+  // READ
+  //
+  // Decode every record in a segment file. Definitions are applied as they are
+  // found and are not passed to the reader. Records for events that were not
+  // defined in the file are skipped.
+  public static void read(File file, Reader reader) throws IOException {
+
+    final ByteBuffer buffer;
+
+    try (final FileInputStream in = new FileInputStream(file)) {
+      final FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    // Reading many files would otherwise leave all of them mapped until the
+    // garbage collector gets to them. Nothing read keeps hold of the buffer.
+    try {
+
+      if (buffer.limit() < SEGMENT_HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+        throw new IOException(file + " is not an event log segment");
+      }
+
+      if (buffer.getShort(4) != VERSION) {
+        throw new IOException(String.format(
+            "%s has version %d, expected %d", file, buffer.getShort(4), VERSION));
+      }
+
+      final long startMs = buffer.getLong(8);
+      final Map<Integer, Event> defined = new HashMap<>();
+
+      int at = SEGMENT_HEADER_BYTES;
+
+      while (at + RECORD_HEADER_BYTES <= buffer.limit()) {
+
+        final int size = buffer.getShort(at) & 0xFFFF;
+
+        if (size < RECORD_HEADER_BYTES || at + size > buffer.limit()) {
+          break;
+        }
+
+        final int id = buffer.getShort(at + 2) & 0xFFFF;
+        final long offset = buffer.getLong(at + 4);
+
+        buffer.position(at + RECORD_HEADER_BYTES);
+
+        if (id == DEFINITION) {
+          final Event event = readDefinition(buffer);
+          if (event != null) {
+            defined.put(event.id, event);
+          }
+        } else if (defined.containsKey(id)) {
+          final Event event = defined.get(id);
+          reader.onRecord(new Record(event,
+                                     startMs + offset / 1000000,
+                                     offset % 1000000,
+                                     readValues(buffer, event)));
+        }
+
+        at += size;
+      }
+
+    } finally {
+      unmap(buffer);
+    }
+  }
+
+  // Returns null if the event uses a kind this version does not know.
+  private static Event readDefinition(ByteBuffer buffer) {
+
+    final int id = buffer.getShort() & 0xFFFF;
+    final String name = getString(buffer);
+    final int count = buffer.get() & 0xFF;
+
+    final String[] names = new String[count];
+    final Kind[] kinds = new Kind[count];
+
+    for (int i = 0; i < count; i++) {
+      kinds[i] = Kind.forCode(buffer.get());
+      names[i] = getString(buffer);
+    }
+
+    for (final Kind kind : kinds) {
+      if (kind == null) {
+        return null;
+      }
+    }
+
+    return new Event(id, name, names, kinds);
+  }
+
+  private static Object[] readValues(ByteBuffer buffer, Event event) {
+
+    final Object[] values = new Object[event.kinds.length];
+
+    for (int i = 0; i < values.length; i++) {
+      final Kind kind = event.kinds[i];
+      if (kind == Kind.UUID) {
+        final int links = buffer.get() & 0xFF;
+        Uuid id = null;
+        for (int link = 0; link < links; link++) {
+          id = new Uuid(id, buffer.getInt());
+        }
+        values[i] = id;
+      } else if (kind == Kind.INT) {
+        values[i] = (long) buffer.getInt();
+      } else {
+        values[i] = buffer.getLong();
+      }
+    }
+
+    return values;
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// HASH RING
+//
+// A consistent hash ring. Each node is placed on the ring at several points
+// (its replicas) and a key belongs to the first node found walking clockwise
+// from the key's own point. Adding a node only moves the keys that fall just
+// before the new node's points, everything else stays where it was.
+//
+// Points are computed from the node's name rather than the node itself so that
+// every process that is given the same names builds the same ring.
+public final class HashRing<T> {
+
+  private final TreeMap<Integer, T> ring = new TreeMap<>();
+  private final int replicas;
+
+  public HashRing(int replicas) {
+    this.replicas = Math.max(1, replicas);
+  }
+
+  // ADD
+  //
+  // Place a node on the ring under the given name. Names must be unique.
+  public synchronized void add(String name, T node) {
+    for (int i = 0; i < replicas; i++) {
+      ring.put(mix(name.hashCode() * 31 + i), node);
+    }
+  }
+
+  // GET
+  //
+  // Find the node that owns the key. Returns null if the ring is empty.
+  public synchronized T get(Uuid key) {
+
+    if (ring.isEmpty()) {
+      return null;
+    }
+
+    final Map.Entry<Integer, T> owner = ring.ceilingEntry(hash(key));
+
+    return owner == null ? ring.firstEntry().getValue() : owner.getValue();
+  }
+
+  private static int hash(Uuid key) {
+
+    int hash = 17;
+
+    for (Uuid current = key; current != null; current = current.root()) {
+      hash = hash * 31 + current.id();
+    }
+
+    return mix(hash);
+  }
+
+  // Spread the bits of the value over the whole ring. Without this, names and
+  // ids that are close to each other end up next to each other on the ring.
+  // (This is the finalizer from MurmurHash3.)
+  private static int mix(int value) {
+    value ^= value >>> 16;
+    value *= 0x85ebca6b;
+    value ^= value >>> 13;
+    value *= 0xc2b2ae35;
+    value ^= value >>> 16;
+    return value;
+  }
+}
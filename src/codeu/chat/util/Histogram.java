@@ -0,0 +1,125 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HISTOGRAM
+//
+// Counts values (like latencies in microseconds) into buckets that keep about
+// two significant digits no matter how big the value is, the same way an HDR
+// histogram does. Values below 128 get a bucket each. Above that, every power
+// of two is split into 64 buckets, so a bucket is never wider than 1/64th of
+// the values in it. Values past MAX_VALUE are counted as MAX_VALUE.
+//
+// Recording is a few atomic adds and never locks, so it can be done from any
+// number of threads. Reads are not atomic across buckets, a snapshot taken
+// while values are being recorded may be off by the values recorded during it.
+public final class Histogram {
+
+  // 2^36 microseconds is a little over 19 hours.
+  public static final long MAX_VALUE = (1L << 36) - 1;
+
+  private static final int LINEAR = 128;
+  private static final int SUB_BUCKETS = 64;
+  private static final int SUB_BITS = 6;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long value) {
+
+    final long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+
+    buckets.incrementAndGet(index(clamped));
+    count.incrementAndGet();
+    sum.addAndGet(clamped);
+
+    long current = max.get();
+    while (clamped > current && !max.compareAndSet(current, clamped)) {
+      current = max.get();
+    }
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public double mean() {
+    final long total = count.get();
+    return total == 0 ? 0 : (double) sum.get() / total;
+  }
+
+  // PERCENTILE
+  //
+  // The smallest value that at least "percent" of the recorded values are at
+  // or below, rounded up to the top of its bucket (but never past the max).
+  public long percentile(double percent) {
+
+    final long total = count.get();
+
+    if (total == 0) {
+      return 0;
+    }
+
+    final long wanted = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+
+    long seen = 0;
+
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= wanted) {
+        return Math.min(highest(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  static int index(long value) {
+
+    if (value < LINEAR) {
+      return (int) value;
+    }
+
+    // "shift" is how many low bits are dropped to leave the top seven bits,
+    // which are between 64 and 127.
+    final int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BITS + 1);
+    final long top = value >>> shift;
+
+    return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (top - SUB_BUCKETS);
+  }
+
+  // The largest value that lands in the bucket.
+  static long highest(int index) {
+
+    if (index < LINEAR) {
+      return index;
+    }
+
+    final int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+    final long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+
+    return ((top + 1) << shift) - 1;
+  }
+}
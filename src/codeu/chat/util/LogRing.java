@@ -0,0 +1,108 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// LOG RING
+//
+// A bounded queue that any number of threads can add to and take from without
+// locking. Each slot has a sequence number that says whose turn it is: a slot
+// whose sequence equals the next add position is free, one whose sequence is one
+// past the next take position is full. Threads claim a position with a CAS and
+// then publish by moving the slot's sequence along.
+//
+// "offer" never waits, when the ring is full it returns false and the caller
+// decides what to do.
+final class LogRing<T> {
+
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final AtomicReferenceArray<T> items;
+
+  private final AtomicLong head = new AtomicLong();  // next position to take
+  private final AtomicLong tail = new AtomicLong();  // next position to add
+
+  // The capacity is rounded up to a power of two.
+  public LogRing(int capacity) {
+
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+
+    mask = size - 1;
+    sequences = new AtomicLongArray(size);
+    items = new AtomicReferenceArray<>(size);
+
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  public boolean offer(T item) {
+
+    while (true) {
+
+      final long position = tail.get();
+      final int slot = (int) position & mask;
+      final long sequence = sequences.get(slot);
+
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          items.set(slot, item);
+          sequences.set(slot, position + 1);
+          return true;
+        }
+      } else if (sequence < position) {
+        // The slot still holds an item from one lap ago - the ring is full.
+        return false;
+      }
+      // Otherwise another thread claimed this position first, try the next.
+    }
+  }
+
+  public T poll() {
+
+    while (true) {
+
+      final long position = head.get();
+      final int slot = (int) position & mask;
+      final long sequence = sequences.get(slot);
+
+      if (sequence == position + 1) {
+        if (head.compareAndSet(position, position + 1)) {
+          final T item = items.get(slot);
+          items.set(slot, null);
+          sequences.set(slot, position + mask + 1);
+          return item;
+        }
+      } else if (sequence < position + 1) {
+        // Nothing has been published here yet - the ring is empty.
+        return null;
+      }
+    }
+  }
+
+  public boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+}
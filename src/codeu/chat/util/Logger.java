@@ -14,9 +14,33 @@
 
 package codeu.chat.util;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
+// LOGGER
+//
+// Log calls do as little as possible on the calling thread:
+//
+//   - A call below the logger's level returns before anything else is done.
+//   - The message is not formatted by the caller. The format string and the
+//     parameters are put on a ring and formatted later by the log writer
+//     thread, which also passes the record to java.util.logging and its
+//     handlers. Because of this, parameters must not be changed after they are
+//     logged.
+//   - The calling class and method are only looked up if caller info has been
+//     turned on with "enableCallerInfo". Otherwise the record names the class
+//     the log was made for.
+//
+// When the ring is full, "whenFull" decides what to do (see WhenFull). Records
+// that are dropped are counted and the count is logged once there is room.
+// Call "flush" to wait for everything logged so far to be written, it is also
+// called when the process exits.
 public final class Logger {
 
   public interface Log {
@@ -32,15 +56,54 @@ public final class Logger {
 
   }
 
+  // WHEN FULL
+  //
+  // DROP               : Drop the record.
+  // WAIT               : Wait for the writer to make room.
+  // DROP_BELOW_WARNING : Drop verbose and info records, wait for room for
+  //                      warnings and errors.
+  public enum WhenFull { DROP, WAIT, DROP_BELOW_WARNING }
+
+  public static final int RING_SIZE = 8192;
+
   private static final java.util.logging.Logger logger =
       java.util.logging.Logger.getLogger("codeu.chat");
 
+  private static final LogRing<Entry> ring = new LogRing<>(RING_SIZE);
+
+  private static final AtomicLong added = new AtomicLong();
+  private static final AtomicLong written = new AtomicLong();
+  private static final AtomicLong dropped = new AtomicLong();
+
+  private static volatile boolean callerInfo = false;
+  private static volatile WhenFull whenFull = WhenFull.DROP_BELOW_WARNING;
+
+  private static final Thread writer = new Thread("log-writer") {
+    @Override
+    public void run() {
+      writeForever();
+    }
+  };
+
+  // Set by the writer before it parks so that loggers know to wake it.
+  private static volatile boolean writerIdle = false;
+
   static {
     logger.setLevel(java.util.logging.Level.INFO);
 
     // Stop this logger from sending its messages up to the root. This will
     // make our logger the new root logger.
     logger.setUseParentHandlers(false);
+
+    writer.setDaemon(true);
+    writer.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        flush();
+      }
+    });
   }
 
   public static void enableFileOutput(String file) throws IOException {
@@ -59,55 +122,237 @@ public final class Logger {
     logger.addHandler(handler);
   }
 
+  // ENABLE EVENT LOG
+  //
+  // Start writing binary events (see EventLog) to segment files in the given
+  // directory. The directory is created if needed.
+  public static void enableEventLog(String dir) throws IOException {
+    EventLog.open(new File(dir), EventLog.DEFAULT_SEGMENT_BYTES, EventLog.DEFAULT_SEGMENTS);
+  }
+
+  // ENABLE CALLER INFO
+  //
+  // Look up the class and method of every log call. This walks the caller's
+  // stack so it costs much more than the rest of a log call.
+  public static void enableCallerInfo(boolean enabled) {
+    callerInfo = enabled;
+  }
+
+  public static void whenFull(WhenFull policy) {
+    whenFull = policy;
+  }
+
+  // DROPPED
+  //
+  // The number of records dropped because the ring was full.
+  public static long dropped() {
+    return dropped.get();
+  }
+
+  // FLUSH
+  //
+  // Wait for every record that was added before this call to be written, or
+  // for the timeout to pass. Returns true if everything was written.
+  public static boolean flush(long timeoutMs) {
+
+    final long target = added.get();
+    final long end = System.currentTimeMillis() + timeoutMs;
+
+    while (written.get() < target) {
+      if (System.currentTimeMillis() >= end) {
+        return false;
+      }
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(100000);
+    }
+
+    return true;
+  }
+
+  public static boolean flush() {
+    return flush(5000);
+  }
+
   public static Log newLog(Class<?> c) {
 
     final java.util.logging.Logger log =
         java.util.logging.Logger.getLogger(c.getName());
 
-    // Note: This Logger calls the standard java Logger, so the class/method lookup
-    // needs to go one level deeper.  Otherwise it will appear that all the log
-    // calls are coming from this object. Use logp() (log precise) to do this.
+    final String name = c.getName();
+
     return new Log() {
 
       @Override
       public void verbose(String message, Object... params) {
-        log.logp(java.util.logging.Level.FINE,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        add(log, name, Level.FINE, null, message, params);
       }
 
       @Override
       public void info(String message, Object... params) {
-        log.logp(java.util.logging.Level.INFO,
-            Thread.currentThread().getStackTrace()[2].getClassName(),
-            Thread.currentThread().getStackTrace()[2].getMethodName(),
-            String.format(message, params));
+        add(log, name, Level.INFO, null, message, params);
       }
 
       @Override
       public void warning(String message, Object... params) {
-        log.logp(java.util.logging.Level.WARNING,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        add(log, name, Level.WARNING, null, message, params);
       }
 
       @Override
       public void error(String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params));
+        add(log, name, Level.SEVERE, null, message, params);
       }
 
       @Override
       public void error(Throwable error, String message, Object... params) {
-        log.logp(java.util.logging.Level.SEVERE,
-                 Thread.currentThread().getStackTrace()[2].getClassName(),
-                 Thread.currentThread().getStackTrace()[2].getMethodName(),
-                 String.format(message, params), error);
+        add(log, name, Level.SEVERE, error, message, params);
       }
     };
   }
+
+  // Everything the writer needs to make the record later.
+  private static final class Entry {
+
+    public final java.util.logging.Logger log;
+    public final Level level;
+    public final long timeMs;
+    public final long threadId;
+    public final String sourceClass;
+    public final String sourceMethod;
+    public final Throwable error;
+    public final String message;
+    public final Object[] params;
+
+    public Entry(java.util.logging.Logger log,
+                 Level level,
+                 String sourceClass,
+                 String sourceMethod,
+                 Throwable error,
+                 String message,
+                 Object[] params) {
+      this.log = log;
+      this.level = level;
+      this.timeMs = System.currentTimeMillis();
+      this.threadId = Thread.currentThread().getId();
+      this.sourceClass = sourceClass;
+      this.sourceMethod = sourceMethod;
+      this.error = error;
+      this.message = message;
+      this.params = params;
+    }
+  }
+
+  private static void add(java.util.logging.Logger log,
+                          String name,
+                          Level level,
+                          Throwable error,
+                          String message,
+                          Object[] params) {
+
+    if (!log.isLoggable(level)) {
+      return;
+    }
+
+    String sourceClass = name;
+    String sourceMethod = null;
+
+    if (callerInfo) {
+      // [0] is add, [1] is the Log method, [2] is whoever called the Log.
+      final StackTraceElement[] stack = new Throwable().getStackTrace();
+      if (stack.length > 2) {
+        sourceClass = stack[2].getClassName();
+        sourceMethod = stack[2].getMethodName();
+      }
+    }
+
+    final Entry entry = new Entry(log, level, sourceClass, sourceMethod, error, message, params);
+
+    final boolean wait = whenFull == WhenFull.WAIT ||
+                   (whenFull == WhenFull.DROP_BELOW_WARNING &&
+                    level.intValue() >= Level.WARNING.intValue());
+
+    while (!ring.offer(entry)) {
+      if (!wait) {
+        dropped.incrementAndGet();
+        return;
+      }
+      LockSupport.unpark(writer);
+      Thread.yield();
+    }
+
+    added.incrementAndGet();
+
+    if (writerIdle) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  private static void writeForever() {
+
+    long reportedDrops = 0;
+
+    while (true) {
+
+      final Entry entry = ring.poll();
+
+      if (entry == null) {
+
+        final long drops = dropped.get();
+        if (drops > reportedDrops) {
+          write(new Entry(logger,
+                          Level.WARNING,
+                          Logger.class.getName(),
+                          null,
+                          null,
+                          "Dropped %d log records because the log ring was full",
+                          new Object[] { drops - reportedDrops }));
+          reportedDrops = drops;
+        }
+
+        writerIdle = true;
+        // Check again after saying we are idle in case a record was added
+        // between the poll and setting the flag.
+        if (ring.isEmpty()) {
+          LockSupport.parkNanos(100000000);
+        }
+        writerIdle = false;
+
+        continue;
+      }
+
+      write(entry);
+      written.incrementAndGet();
+    }
+  }
+
+  // setThreadID is deprecated in newer JDKs, but it is the only way to keep the
+  // logging thread's id on the record.
+  @SuppressWarnings("deprecation")
+  private static void write(Entry entry) {
+    try {
+
+      final LogRecord record = new LogRecord(entry.level, format(entry.message, entry.params));
+
+      record.setLoggerName(entry.log.getName());
+      record.setMillis(entry.timeMs);
+      record.setThreadID((int) entry.threadId);
+      record.setSourceClassName(entry.sourceClass);
+      record.setSourceMethodName(entry.sourceMethod);
+      record.setThrown(entry.error);
+
+      entry.log.log(record);
+
+    } catch (Exception ex) {
+      // A handler failing must not stop the writer. There is nowhere better to
+      // report it than stderr.
+      System.err.println("Failed to write log record: " + ex);
+    }
+  }
+
+  private static String format(String message, Object[] params) {
+    try {
+      return String.format(message, params);
+    } catch (IllegalFormatException ex) {
+      return message + " " + Arrays.toString(params);
+    }
+  }
 }
@@ -40,6 +40,11 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
 
+      if (out instanceof Compact.Output) {
+        Compact.writeSigned(out, value);
+        return;
+      }
+
       for (int i = 24; i >= 0; i -= 8) {
         out.write(0xFF & (value >>> i));
       }
@@ -49,6 +54,10 @@ public final class Serializers {
     @Override
     public Integer read(InputStream in) throws IOException {
 
+      if (in instanceof Compact.Input) {
+        return (int) Compact.readSigned(in);
+      }
+
       int value = 0;
 
       for (int i = 0; i < 4; i++) {
@@ -65,6 +74,11 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Long value) throws IOException {
 
+      if (out instanceof Compact.Output) {
+        Compact.writeSigned(out, value);
+        return;
+      }
+
       for (int i = 56; i >= 0; i -= 8) {
         out.write((int)(0xFF & (value >>> i)));
       }
@@ -74,6 +88,10 @@ public final class Serializers {
     @Override
     public Long read(InputStream in) throws IOException {
 
+      if (in instanceof Compact.Input) {
+        return Compact.readSigned(in);
+      }
+
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
@@ -85,6 +103,11 @@ public final class Serializers {
     }
   };
 
+  // The most bytes a BYTES or STRING value may claim to have. A length is read
+  // before its bytes, so without a limit a bad or hostile peer could make the
+  // reader allocate gigabytes by sending four bytes.
+  public static final int MAX_LENGTH = 16 * 1024 * 1024;
+
   public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
 
     @Override
@@ -98,31 +121,26 @@ public final class Serializers {
     @Override
     public byte[] read(InputStream input) throws IOException {
 
-      final int length = INTEGER.read(input);
-      final byte[] array = new byte[length];
-
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
-      }
-
-      return array;
+      return Utf8.readBytes(input, length(input));
 
     }
   };
 
+  // Strings are always UTF-8. See Utf8.
   public static final Serializer<String> STRING = new Serializer<String>() {
 
     @Override
     public void write(OutputStream out, String value) throws IOException {
 
-      BYTES.write(out, value.getBytes());
+      INTEGER.write(out, Utf8.length(value));
+      Utf8.write(out, value);
 
     }
 
     @Override
     public String read(InputStream input) throws IOException {
 
-      return new String(BYTES.read(input));
+      return Utf8.read(input, length(input));
 
     }
   };
@@ -142,7 +160,13 @@ public final class Serializers {
       @Override
       public Collection<T> read(InputStream in) throws IOException {
         final int size = INTEGER.read(in);
-        Collection<T> list = new ArrayList<>(size);
+        if (size < 0) {
+          throw new IOException("Bad collection size " + size);
+        }
+        // Every item takes at least a byte, so a size bigger than what is
+        // left will fail once the stream runs out. Until then, do not trust
+        // it for the first allocation.
+        Collection<T> list = new ArrayList<>(Math.min(size, 1024));
         for (int i = 0; i < size; i++) {
           list.add(serializer.read(in));
         }
@@ -174,5 +198,24 @@ public final class Serializers {
       }
     };
   }
-}
 
+  // READ BYTES
+  //
+  // Read "length" bytes for a caller that reads and checks its own length.
+  // The array grows as the bytes arrive (see Utf8.readBytes), so a length
+  // that claims more than is sent costs no more than what was sent.
+  public static byte[] readBytes(InputStream in, int length) throws IOException {
+    return Utf8.readBytes(in, length);
+  }
+
+  private static int length(InputStream in) throws IOException {
+
+    final int length = INTEGER.read(in);
+
+    if (length < 0 || length > MAX_LENGTH) {
+      throw new IOException("Bad length " + length);
+    }
+
+    return length;
+  }
+}
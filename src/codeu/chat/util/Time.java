@@ -27,6 +27,11 @@ public final class Time implements Comparable<Time> {
     @Override
     public void write(OutputStream out, Time value) throws IOException {
 
+      if (out instanceof Compact.Output) {
+        ((Compact.Output) out).writeTime(value.inMs());
+        return;
+      }
+
       Serializers.LONG.write(out, value.inMs());
 
     }
@@ -34,6 +39,10 @@ public final class Time implements Comparable<Time> {
     @Override
     public Time read(InputStream in) throws IOException {
 
+      if (in instanceof Compact.Input) {
+        return Time.fromMs(((Compact.Input) in).readTime());
+      }
+
       return Time.fromMs(Serializers.LONG.read(in));
 
     }
@@ -14,9 +14,14 @@
 
 package codeu.chat.util;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TIMELINE
 //
@@ -24,135 +29,728 @@ import java.util.concurrent.PriorityBlockingQueue;
 // when work needs to be ordered by time. The timeline manages its own threads
 // and there is no way to know outside of the code that is executed when the
 // code has been executed.
+//
+// Events that are due now go straight to the executor in the order they were
+// scheduled. Events in the future are kept on a hashed wheel: a ring of
+// buckets where each bucket covers one tick of time. Scheduling and cancelling
+// an event are both constant time no matter how many events are waiting, and
+// the scheduler only wakes up once per tick. The cost is that a future event
+// may run up to one tick later than asked for.
+//
+// LANES
+//
+// By default every event runs on the timeline's one executor thread, one after
+// the other. A timeline can also be given a number of lanes, each with its own
+// thread. Events scheduled with a key always run on the same lane (so events
+// with the same key run in the order they were scheduled) while events with
+// different keys can run at the same time. Keyed events also run at the same
+// time as events without a key, so anything they share must be thread-safe.
+//
+// PRIORITY
+//
+// Every event has a priority. Each thread keeps a queue per priority and picks
+// from them by weight: out of every 12 events that it runs while all queues
+// have work, 8 are interactive, 3 are replication, and 1 is maintenance. No
+// event will be passed over for longer than STARVATION_MS, after that it runs
+// next no matter its priority. Events that do not give a priority are
+// interactive.
+//
+// Priorities only decide which event runs next, an event that is already
+// running is never stopped.
 public final class Timeline {
 
   private final static Logger.Log LOG = Logger.newLog(Timeline.class);
 
-  private static final class Event implements Comparable<Event> {
+  // The tick used by "new Timeline()".
+  public static final long DEFAULT_TICK_MS = 10;
+
+  // The number of buckets on the wheel. Events further out than one turn of
+  // the wheel wait in their bucket for the right number of turns.
+  private static final int WHEEL_SIZE = 512;
+
+  // PRIORITY
+  //
+  // INTERACTIVE : Work that someone is waiting on, like a client request.
+  // REPLICATION : Work that keeps servers in sync, like relay reads and writes.
+  // MAINTENANCE : Work that can wait, like saving to disk.
+  public enum Priority {
+
+    INTERACTIVE(8),
+    REPLICATION(3),
+    MAINTENANCE(1);
+
+    private final int weight;
+
+    private Priority(int weight) {
+      this.weight = weight;
+    }
+  }
+
+  // The longest an event will wait behind higher priority events.
+  public static final long STARVATION_MS = 1000;
+
+  // QUEUE STATS
+  //
+  // A snapshot of the events of one priority that are waiting to run, over all
+  // of the timeline's threads. The wait times are measured from when an event
+  // was due to when it started running.
+  public static final class QueueStats {
+
+    public final Priority priority;
+    public final int depth;
+    public final long runs;
+    public final long lastWaitMs;
+    public final long maxWaitMs;
+    public final double averageWaitMs;
+
+    private QueueStats(Priority priority,
+                       int depth,
+                       long runs,
+                       long lastWaitMs,
+                       long maxWaitMs,
+                       double averageWaitMs) {
+      this.priority = priority;
+      this.depth = depth;
+      this.runs = runs;
+      this.lastWaitMs = lastWaitMs;
+      this.maxWaitMs = maxWaitMs;
+      this.averageWaitMs = averageWaitMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s depth=%d runs=%d wait(last=%dms max=%dms avg=%.1fms)",
+          priority,
+          depth,
+          runs,
+          lastWaitMs,
+          maxWaitMs,
+          averageWaitMs);
+    }
+  }
+
+  // The counters behind QueueStats, one per priority.
+  private static final class QueueCounters {
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+    private volatile long lastWaitMs = 0;
+    private volatile long maxWaitMs = 0;
+
+    public void waited(long waitMs) {
+      runs.incrementAndGet();
+      totalWaitMs.addAndGet(waitMs);
+      lastWaitMs = waitMs;
+      // Racy between threads, but only ever off by one thread's update.
+      if (waitMs > maxWaitMs) {
+        maxWaitMs = waitMs;
+      }
+    }
+  }
+
+  private final QueueCounters[] counters = new QueueCounters[Priority.values().length];
+
+  // HANDLE
+  //
+  // Returned when an event is scheduled so that it can be cancelled.
+  public interface Handle {
+
+    // CANCEL
+    //
+    // Stop the event from running. Returns false if the event has already
+    // started running (or was already cancelled).
+    boolean cancel();
+
+  }
+
+  // PERIODIC
+  //
+  // Returned for events that repeat (see "scheduleAtFixedRate" and
+  // "scheduleWithFixedDelay"). Cancelling stops all future runs. The handle
+  // also keeps track of how long each run takes and how late each run starts
+  // so that it is possible to see when periodic work is falling behind.
+  public interface Periodic extends Handle {
+
+    // RUNS
+    //
+    // How many times the event has run.
+    long runs();
+
+    // MISSED
+    //
+    // For fixed rate events, how many runs were skipped because an earlier run
+    // finished after the next one was due. Always zero for fixed delay events.
+    long missed();
+
+    // RUN MS
+    //
+    // How long the last run took, the longest run, and the average over all runs.
+    long lastRunMs();
+    long maxRunMs();
+    double averageRunMs();
+
+    // LATE MS
+    //
+    // How long after it was due the last run started, and the most that any run
+    // has been late.
+    long lastLateMs();
+    long maxLateMs();
+
+  }
+
+  private static final int PENDING = 0;
+  private static final int CANCELLED = 1;
+  private static final int STARTED = 2;
+
+  private static final AtomicIntegerFieldUpdater<Event> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(Event.class, "state");
+
+  private final class Event implements Handle {
 
     public final long time;
     public final Runnable callback;
+    public final Worker worker;
+    public final Priority priority;
 
-    public Event(long time, Runnable callback) {
+    // Not private so that STATE can reach it.
+    volatile int state = PENDING;
+
+    // Only used by the scheduler thread.
+    private Bucket bucket;
+    private Event previous;
+    private Event next;
+    private long rounds;
+
+    public Event(long time, Runnable callback, Worker worker, Priority priority) {
       this.time = time;
       this.callback = callback;
+      this.worker = worker;
+      this.priority = priority;
     }
 
     @Override
-    public int compareTo(Event other) {
-      return Long.compare(time, other.time);
+    public boolean cancel() {
+      if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+        // Let the scheduler take it off the wheel so that it does not hold on
+        // to the callback until its time comes around.
+        cancelled.add(this);
+        return true;
+      }
+      return false;
     }
   }
 
-  private final BlockingQueue<Event> backlog = new PriorityBlockingQueue<>();
-  private final BlockingQueue<Runnable> todo = new LinkedBlockingQueue<>();
+  // BUCKET
+  //
+  // The events that fall in one tick of the wheel, as a linked list so that
+  // a cancelled event can be taken out without a search.
+  private static final class Bucket {
+
+    private Event head;
+    private Event tail;
 
-  private boolean running = true;
+    public void add(Event event) {
+      event.bucket = this;
+      event.previous = tail;
+      event.next = null;
+      if (tail == null) {
+        head = event;
+      } else {
+        tail.next = event;
+      }
+      tail = event;
+    }
+
+    public void remove(Event event) {
+      if (event.previous == null) {
+        head = event.next;
+      } else {
+        event.previous.next = event.next;
+      }
+      if (event.next == null) {
+        tail = event.previous;
+      } else {
+        event.next.previous = event.previous;
+      }
+      event.bucket = null;
+      event.previous = null;
+      event.next = null;
+    }
+  }
+
+  // PERIODIC TASK
+  //
+  // Runs the callback and then schedules itself again on the same worker.
+  private final class PeriodicTask implements Periodic, Runnable {
+
+    private final Runnable callback;
+    private final long periodMs;
+    private final boolean fixedRate;
+    private final Worker worker;
+    private final Priority priority;
+
+    // The handle for the next run. Guarded by "this" so that a run that is
+    // rescheduling itself can not race with "cancel".
+    private Handle next;
+    private boolean cancelled = false;
+
+    private long dueMs;
+
+    // Only written by the worker running the task.
+    private volatile long runs = 0;
+    private volatile long missed = 0;
+    private volatile long lastRunMs = 0;
+    private volatile long maxRunMs = 0;
+    private volatile long totalRunMs = 0;
+    private volatile long lastLateMs = 0;
+    private volatile long maxLateMs = 0;
+
+    public PeriodicTask(long firstMs,
+                        long periodMs,
+                        boolean fixedRate,
+                        Runnable callback,
+                        Worker worker,
+                        Priority priority) {
+
+      this.callback = callback;
+      this.periodMs = Math.max(1, periodMs);
+      this.fixedRate = fixedRate;
+      this.worker = worker;
+      this.priority = priority;
+      this.dueMs = firstMs;
+
+      synchronized (this) {
+        next = schedule(firstMs, this, worker, priority);
+      }
+    }
 
-  // This thread is used to track the time of events and moves events from the
-  // "backlog" queue to the "todo" queue when it is time to execute. They are
-  // separated to allow this thread to be safely interrupted.
-  private final Thread scheduler = new Thread() {
     @Override
     public void run() {
-      while (running) {
 
-        Event next;
+      final long start = System.currentTimeMillis();
+      final long late = Math.max(0, start - dueMs);
 
-        try {
-          next = backlog.take();
-        } catch (InterruptedException ex) {
-          // Rather than try to handle the exception here, set "next"
-          // to null and let the normal flow handle the case.
-          next = null;
+      try {
+        callback.run();
+      } catch (Exception ex) {
+        LOG.warning(
+            "An exception was seen in a periodic event on the timeline (%s)",
+            ex.toString());
+      }
+
+      final long end = System.currentTimeMillis();
+
+      runs++;
+      lastRunMs = end - start;
+      maxRunMs = Math.max(maxRunMs, lastRunMs);
+      totalRunMs += lastRunMs;
+      lastLateMs = late;
+      maxLateMs = Math.max(maxLateMs, late);
+
+      if (fixedRate) {
+
+        dueMs += periodMs;
+
+        // Do not try to make up for runs that are already in the past, that
+        // would only make the timeline fall further behind.
+        if (dueMs <= end) {
+          final long skipped = (end - dueMs) / periodMs + 1;
+          missed += skipped;
+          dueMs += skipped * periodMs;
+
+          LOG.warning(
+              "Periodic event fell behind (late=%dms run=%dms period=%dms skipped=%d)",
+              late,
+              lastRunMs,
+              periodMs,
+              skipped);
         }
 
-        long sleep = 0;
-
-        if (next != null) {
-
-          final long now = System.currentTimeMillis();
-
-          // Check which queue the event should be added to. If it
-          // is time to execute, it should be added to the "todo"
-          // queue. If it is not time, it should be added back to the
-          // "backlog".
-          // If the item is added back to the backlog, we know how long
-          // it will be until it will be executed. That means we can sleep
-          // until then.
-          if (next.time <= now) {
-            forceAdd(todo, next.callback);
-            sleep = 0;
-          } else {
-            // Put it back (it's not time).
-            forceAdd(backlog, next);
-            sleep = next.time - now;
-          }
+      } else {
+        dueMs = end + periodMs;
+      }
+
+      synchronized (this) {
+        if (!cancelled) {
+          next = schedule(dueMs, this, worker, priority);
         }
+      }
+    }
+
+    @Override
+    public synchronized boolean cancel() {
+
+      if (cancelled) {
+        return false;
+      }
+
+      cancelled = true;
+      next.cancel();
+
+      return true;
+    }
+
+    @Override
+    public long runs() { return runs; }
+
+    @Override
+    public long missed() { return missed; }
+
+    @Override
+    public long lastRunMs() { return lastRunMs; }
+
+    @Override
+    public long maxRunMs() { return maxRunMs; }
+
+    @Override
+    public double averageRunMs() {
+      final long count = runs;
+      return count == 0 ? 0 : (double) totalRunMs / count;
+    }
+
+    @Override
+    public long lastLateMs() { return lastLateMs; }
+
+    @Override
+    public long maxLateMs() { return maxLateMs; }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "runs=%d missed=%d run(last=%dms max=%dms avg=%.1fms) late(last=%dms max=%dms)",
+          runs,
+          missed,
+          lastRunMs,
+          maxRunMs,
+          averageRunMs(),
+          lastLateMs,
+          maxLateMs);
+    }
+  }
+
+  private final long tickMs;
+  private final long startMs = System.currentTimeMillis();
+
+  private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+
+  // Events that have been scheduled or cancelled since the last tick. Only the
+  // scheduler thread touches the wheel, everyone else goes through these.
+  private final Queue<Event> incoming = new ConcurrentLinkedQueue<>();
+  private final Queue<Event> cancelled = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean running = true;
+
+  // This thread turns the wheel one tick at a time. At each tick it places new
+  // events in their buckets and moves the events in the current bucket that
+  // are due to the "todo" queue. It sleeps between ticks and is never woken
+  // early, new events wait in "incoming" until the next tick.
+  private final Thread scheduler = new Thread() {
+    @Override
+    public void run() {
 
-        if (sleep > 0) {
+      long tick = 0;
+
+      while (running) {
+
+        final long wait = startMs + tick * tickMs - System.currentTimeMillis();
+
+        if (wait > 0) {
           try {
-            Thread.sleep(sleep);
+            Thread.sleep(wait);
           } catch (InterruptedException ex) {
-            // There are two cases this will happen:
-            //  1. A new item was added and we are being woken to
-            //     check if we need to update the time.
-            //  2. It is time to exit and we need to wake-up so that
-            //     we can check that "running" is "false".
+            // Only happens when it is time to exit, the loop will check
+            // "running" again.
           }
+          continue;
         }
+
+        transferIncoming(tick);
+        removeCancelled();
+        expire(wheel[(int) (tick % WHEEL_SIZE)]);
+
+        tick++;
       }
     }
   };
 
-  // This thread is used to run the code that was given to the time line. This
+  // WORKER
+  //
+  // A thread that is used to run the code that was given to the time line. A
   // worker does not need to know anything about the time. Once an event gets to
-  // here - it is considered "on time" and will be executed.
-  private final Thread executor = new Thread() {
+  // here - it is considered "on time" and will be executed. Which event runs
+  // next is decided by priority (see PRIORITY above).
+  private final class Worker extends Thread {
+
+    private final List<Queue<Event>> queues = new ArrayList<>();
+    private final int[] credits = new int[Priority.values().length];
+
+    // One permit per event waiting in "queues".
+    private final Semaphore waiting = new Semaphore(0);
+
+    public Worker() {
+      for (final Priority priority : Priority.values()) {
+        queues.add(new ConcurrentLinkedQueue<Event>());
+        credits[priority.ordinal()] = priority.weight;
+      }
+    }
+
+    public void add(Event event) {
+      counters[event.priority.ordinal()].depth.incrementAndGet();
+      queues.get(event.priority.ordinal()).add(event);
+      waiting.release();
+    }
+
     @Override
     public void run() {
       while (running) {
         try {
-          todo.take().run();
-        } catch (Exception ex) {
-          // Catch all exceptions here to stop any rogue action from
-          // take down the timeline.
+
+          waiting.acquire();
+
+          final Event event = next(System.currentTimeMillis());
+          final QueueCounters queue = counters[event.priority.ordinal()];
+
+          queue.depth.decrementAndGet();
+
+          if (STATE.compareAndSet(event, PENDING, STARTED)) {
+            queue.waited(Math.max(0, System.currentTimeMillis() - event.time));
+            event.callback.run();
+          }
+
+        } catch (InterruptedException ex) {
+          // Only happens when it is time to exit.
+        } catch (Throwable ex) {
+          // Catch everything here, errors included, to stop any rogue action
+          // from taking down the timeline. A worker that died would leave
+          // every event after it waiting forever.
           LOG.warning(
               "An exception was seen on the timeline (%s)",
               ex.toString());
         }
       }
     }
-  };
+
+    // Pick the next event. Only called after taking a permit from "waiting", so
+    // there is always at least one event in the queues.
+    private Event next(long now) {
+
+      // An event that has waited too long goes first, lowest priority first as
+      // those are the ones that get passed over.
+      for (int i = queues.size() - 1; i > 0; i--) {
+        final Event head = queues.get(i).peek();
+        if (head != null && now - head.time >= STARVATION_MS) {
+          return queues.get(i).poll();
+        }
+      }
+
+      // Otherwise take from the highest priority that has work and has not yet
+      // used its share. Once every queue with work has used its share, they
+      // all get their full share back.
+      while (true) {
+
+        for (int i = 0; i < queues.size(); i++) {
+          if (credits[i] > 0 && !queues.get(i).isEmpty()) {
+            credits[i]--;
+            return queues.get(i).poll();
+          }
+        }
+
+        final Priority[] priorities = Priority.values();
+        for (int i = 0; i < credits.length; i++) {
+          credits[i] = priorities[i].weight;
+        }
+      }
+    }
+  }
+
+  // Runs every event that was scheduled without a key.
+  private final Worker executor = new Worker();
+
+  private final Worker[] lanes;
 
   public Timeline() {
+    this(DEFAULT_TICK_MS);
+  }
+
+  // TIMELINE
+  //
+  // Create a timeline whose future events are checked every "tickMs". A smaller
+  // tick makes events run closer to their time but wakes the scheduler more
+  // often.
+  public Timeline(long tickMs) {
+    this(tickMs, 0);
+  }
+
+  // TIMELINE
+  //
+  // Create a timeline with "lanes" extra threads for keyed events (see LANES
+  // above). With no lanes, keyed events run on the main executor like all
+  // others.
+  public Timeline(long tickMs, int lanes) {
+
+    this.tickMs = Math.max(1, tickMs);
+    this.lanes = new Worker[Math.max(0, lanes)];
+
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = new QueueCounters();
+    }
+
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Bucket();
+    }
+
     scheduler.start();
     executor.start();
+
+    for (int i = 0; i < this.lanes.length; i++) {
+      this.lanes[i] = new Worker();
+      this.lanes[i].start();
+    }
   }
 
   // SCHEDULE NOW
   //
   // Add an event to the timeline so that it will occur as soon as possible.
-  public void scheduleNow(Runnable callback) {
-    scheduleAt(System.currentTimeMillis(), callback);
+  public Handle scheduleNow(Runnable callback) {
+    return scheduleAt(System.currentTimeMillis(), callback);
   }
 
   // SCHEDULE IN
   //
   // Add an event to the timeline so that it will occur in approximately in a
   // set amount of milliseconds.
-  public void scheduleIn(long ms, Runnable callback) {
-    scheduleAt(System.currentTimeMillis() + ms, callback);
+  public Handle scheduleIn(long ms, Runnable callback) {
+    return scheduleAt(System.currentTimeMillis() + ms, callback);
   }
 
   // SCHEDULE AT
   //
   // Add an event to the timeline so that will occur approximately at a fixed
   // point in time.
-  public void scheduleAt(long timeMs, Runnable callback) {
-    final Event event = new Event(timeMs, callback);
-    forceAdd(backlog, event);
-    scheduler.interrupt();  // wake it up
+  public Handle scheduleAt(long timeMs, Runnable callback) {
+    return schedule(timeMs, callback, executor, Priority.INTERACTIVE);
+  }
+
+  // SCHEDULE NOW (PRIORITY)
+  //
+  // The same as "scheduleNow" but for an event with the given priority.
+  public Handle scheduleNow(Priority priority, Runnable callback) {
+    return scheduleAt(priority, System.currentTimeMillis(), callback);
+  }
+
+  // SCHEDULE IN (PRIORITY)
+  //
+  // The same as "scheduleIn" but for an event with the given priority.
+  public Handle scheduleIn(Priority priority, long ms, Runnable callback) {
+    return scheduleAt(priority, System.currentTimeMillis() + ms, callback);
+  }
+
+  // SCHEDULE AT (PRIORITY)
+  //
+  // The same as "scheduleAt" but for an event with the given priority.
+  public Handle scheduleAt(Priority priority, long timeMs, Runnable callback) {
+    return schedule(timeMs, callback, executor, priority);
+  }
+
+  // SCHEDULE NOW (KEYED)
+  //
+  // Add an event to the key's lane so that it will occur as soon as possible.
+  public Handle scheduleNow(Object key, Runnable callback) {
+    return scheduleAt(key, System.currentTimeMillis(), callback);
+  }
+
+  // SCHEDULE IN (KEYED)
+  //
+  // Add an event to the key's lane so that it will occur in approximately a set
+  // amount of milliseconds.
+  public Handle scheduleIn(Object key, long ms, Runnable callback) {
+    return scheduleAt(key, System.currentTimeMillis() + ms, callback);
+  }
+
+  // SCHEDULE AT (KEYED)
+  //
+  // Add an event to the key's lane so that it will occur approximately at a
+  // fixed point in time. Events with the same key run one at a time in the
+  // order that they are due.
+  public Handle scheduleAt(Object key, long timeMs, Runnable callback) {
+    return schedule(timeMs, callback, laneFor(key), Priority.INTERACTIVE);
+  }
+
+  // SCHEDULE AT FIXED RATE
+  //
+  // Run the callback every "periodMs", starting in "initialDelayMs". Runs are
+  // due at fixed points in time no matter how long each run takes. If a run
+  // ends after the next run was due, the runs that were missed are skipped
+  // (and counted) rather than run back to back.
+  public Periodic scheduleAtFixedRate(long initialDelayMs, long periodMs, Runnable callback) {
+    return scheduleAtFixedRate(Priority.INTERACTIVE, initialDelayMs, periodMs, callback);
+  }
+
+  public Periodic scheduleAtFixedRate(Priority priority,
+                                      long initialDelayMs,
+                                      long periodMs,
+                                      Runnable callback) {
+    return new PeriodicTask(
+        System.currentTimeMillis() + initialDelayMs, periodMs, true, callback, executor, priority);
+  }
+
+  // SCHEDULE WITH FIXED DELAY
+  //
+  // Run the callback "delayMs" after the end of the last run, starting in
+  // "initialDelayMs".
+  public Periodic scheduleWithFixedDelay(long initialDelayMs, long delayMs, Runnable callback) {
+    return scheduleWithFixedDelay(Priority.INTERACTIVE, initialDelayMs, delayMs, callback);
+  }
+
+  public Periodic scheduleWithFixedDelay(Priority priority,
+                                         long initialDelayMs,
+                                         long delayMs,
+                                         Runnable callback) {
+    return new PeriodicTask(
+        System.currentTimeMillis() + initialDelayMs, delayMs, false, callback, executor, priority);
+  }
+
+  // STATS
+  //
+  // Get the queue depth and wait times for events of the given priority.
+  public QueueStats stats(Priority priority) {
+
+    final QueueCounters queue = counters[priority.ordinal()];
+    final long runs = queue.runs.get();
+
+    return new QueueStats(
+        priority,
+        queue.depth.get(),
+        runs,
+        queue.lastWaitMs,
+        queue.maxWaitMs,
+        runs == 0 ? 0 : (double) queue.totalWaitMs.get() / runs);
+  }
+
+  private Handle schedule(long timeMs, Runnable callback, Worker worker, Priority priority) {
+
+    final Event event = new Event(timeMs, callback, worker, priority);
+
+    if (timeMs <= System.currentTimeMillis()) {
+      worker.add(event);
+    } else {
+      incoming.add(event);
+    }
+
+    return event;
+  }
+
+  private Worker laneFor(Object key) {
+
+    if (key == null || lanes.length == 0) {
+      return executor;
+    }
+
+    // Mix the high bits in so that keys that only differ there still spread.
+    final int hash = key.hashCode();
+    return lanes[((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % lanes.length];
   }
 
   // STOP
@@ -166,6 +764,10 @@ public final class Timeline {
     // be sleeping, this will force them awake.
     executor.interrupt();
     scheduler.interrupt();
+
+    for (final Worker lane : lanes) {
+      lane.interrupt();
+    }
   }
 
   // JOIN
@@ -174,6 +776,56 @@ public final class Timeline {
   public void join() {
     forceJoin(executor);
     forceJoin(scheduler);
+
+    for (final Worker lane : lanes) {
+      forceJoin(lane);
+    }
+  }
+
+  // Place new events on the wheel. An event goes in the bucket for the first
+  // tick at or after its time and records how many full turns of the wheel
+  // must pass before it is due.
+  private void transferIncoming(long tick) {
+    for (Event event = incoming.poll(); event != null; event = incoming.poll()) {
+
+      if (event.state != PENDING) {
+        continue;
+      }
+
+      final long due = Math.max(tick, (event.time - startMs + tickMs - 1) / tickMs);
+
+      event.rounds = (due - tick) / WHEEL_SIZE;
+      wheel[(int) (due % WHEEL_SIZE)].add(event);
+    }
+  }
+
+  private void removeCancelled() {
+    for (Event event = cancelled.poll(); event != null; event = cancelled.poll()) {
+      if (event.bucket != null) {
+        event.bucket.remove(event);
+      }
+    }
+  }
+
+  private void expire(Bucket bucket) {
+
+    Event event = bucket.head;
+
+    while (event != null) {
+
+      final Event next = event.next;
+
+      if (event.state != PENDING) {
+        bucket.remove(event);
+      } else if (event.rounds <= 0) {
+        bucket.remove(event);
+        event.worker.add(event);
+      } else {
+        event.rounds--;
+      }
+
+      event = next;
+    }
   }
 
   private static void forceJoin(Thread thread) {
@@ -186,10 +838,4 @@ public final class Timeline {
       }
     }
   }
-
-  private static <T> void forceAdd(BlockingQueue<T> queue, T value) {
-    while (!queue.offer(value)) {
-      LOG.warning("Failed to add to queue, trying again...");
-    }
-  }
 }
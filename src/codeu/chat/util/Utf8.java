@@ -0,0 +1,199 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// UTF-8
+//
+// Strings on the wire are always UTF-8, whatever the platform's default
+// charset is. Encoding goes straight from the string's characters into a
+// scratch buffer that is handed to the output a block at a time, so no
+// byte array is made for each string. Decoding reads the bytes in bulk into
+// the same scratch buffer, so the only thing made is the string itself.
+//
+// Each thread has its own scratch buffer, so strings can be written on any
+// thread. Strings that do not fit are read into an array of their own.
+final class Utf8 {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  private static final int SCRATCH_SIZE = 8192;
+
+  private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[SCRATCH_SIZE];
+    }
+  };
+
+  private Utf8() { }
+
+  // LENGTH
+  //
+  // The number of bytes "value" takes in UTF-8. A surrogate that is not part
+  // of a pair can not be encoded and is written as '?', the same as
+  // String.getBytes does.
+  public static int length(String value) {
+
+    final int chars = value.length();
+    int length = chars;
+
+    for (int i = 0; i < chars; i++) {
+
+      final char c = value.charAt(i);
+
+      if (c < 0x80) {
+        continue;
+      } else if (c < 0x800) {
+        length += 1;
+      } else if (Character.isHighSurrogate(c) &&
+                 i + 1 < chars &&
+                 Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 2;
+        i++;
+      } else if (!Character.isSurrogate(c)) {
+        length += 2;
+      }
+    }
+
+    return length;
+  }
+
+  // WRITE
+  //
+  // Write the UTF-8 bytes of "value" (without a length).
+  public static void write(OutputStream out, String value) throws IOException {
+
+    final byte[] scratch = SCRATCH.get();
+    final int chars = value.length();
+    final int full = scratch.length - 4;
+
+    int used = 0;
+
+    for (int i = 0; i < chars; i++) {
+
+      if (used > full) {
+        out.write(scratch, 0, used);
+        used = 0;
+      }
+
+      final char c = value.charAt(i);
+
+      if (c < 0x80) {
+        scratch[used++] = (byte) c;
+      } else if (c < 0x800) {
+        scratch[used++] = (byte) (0xC0 | (c >> 6));
+        scratch[used++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) &&
+                 i + 1 < chars &&
+                 Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int point = Character.toCodePoint(c, value.charAt(++i));
+        scratch[used++] = (byte) (0xF0 | (point >> 18));
+        scratch[used++] = (byte) (0x80 | ((point >> 12) & 0x3F));
+        scratch[used++] = (byte) (0x80 | ((point >> 6) & 0x3F));
+        scratch[used++] = (byte) (0x80 | (point & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        scratch[used++] = (byte) '?';
+      } else {
+        scratch[used++] = (byte) (0xE0 | (c >> 12));
+        scratch[used++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        scratch[used++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    out.write(scratch, 0, used);
+  }
+
+  // READ
+  //
+  // Read a string of "length" UTF-8 bytes. Bytes that are not valid UTF-8 are
+  // read as the replacement character. Text that is all ASCII is copied
+  // without decoding.
+  public static String read(InputStream in, int length) throws IOException {
+
+    final byte[] bytes;
+
+    if (length <= SCRATCH_SIZE) {
+      bytes = SCRATCH.get();
+      readFully(in, bytes, length);
+    } else {
+      bytes = readBytes(in, length);
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] < 0) {
+        return new String(bytes, 0, length, UTF8);
+      }
+    }
+
+    return new String(bytes, 0, length, LATIN1);
+  }
+
+  // READ FULLY
+  //
+  // Fill the first "length" bytes of "bytes", in as few reads as the stream
+  // allows.
+  public static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+
+    int done = 0;
+
+    while (done < length) {
+
+      final int read = in.read(bytes, done, length - done);
+
+      if (read < 0) {
+        throw new EOFException("Expected " + length + " bytes but got " + done);
+      }
+
+      done += read;
+    }
+  }
+
+  // READ BYTES
+  //
+  // Read "length" bytes into an array of their own. The length comes from the
+  // peer, so the array starts at SCRATCH_SIZE and doubles only as bytes
+  // actually arrive; a frame that claims far more than it sends costs no more
+  // than what it sent.
+  public static byte[] readBytes(InputStream in, int length) throws IOException {
+
+    byte[] bytes = new byte[Math.min(length, SCRATCH_SIZE)];
+    int done = 0;
+
+    while (done < length) {
+
+      if (done == bytes.length) {
+        bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+      }
+
+      final int read = in.read(bytes, done, bytes.length - done);
+
+      if (read < 0) {
+        throw new EOFException("Expected " + length + " bytes but got " + done);
+      }
+
+      done += read;
+    }
+
+    return bytes;
+  }
+}
@@ -18,6 +18,7 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Comparator;
 import java.util.Objects;
 
 public final class Uuid {
@@ -29,6 +30,11 @@ public final class Uuid {
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
+      if (out instanceof Compact.Output) {
+        ((Compact.Output) out).writeUuid(value);
+        return;
+      }
+
       int length = 0;
       for (Uuid current = value; current != null; current = current.root()) {
         length += 1;
@@ -51,6 +57,10 @@ public final class Uuid {
     @Override
     public Uuid read(InputStream in) throws IOException {
 
+      if (in instanceof Compact.Input) {
+        return ((Compact.Input) in).readUuid();
+      }
+
       // "input.read" can only return one by of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
       final int length = in.read();
@@ -85,6 +95,27 @@ public final class Uuid {
     Uuid make();
   }
 
+  // COMPARE
+  //
+  // An ordering of Uuids for sorted indexes. Ids are compared from the tail to
+  // the root, so the order is not numeric but it is cheap as most Uuids differ
+  // in their last link.
+  public static final Comparator<Uuid> COMPARE = new Comparator<Uuid>() {
+
+    @Override
+    public int compare(Uuid a, Uuid b) {
+
+      if (a == b) { return 0; }
+
+      if (a == null && b != null) { return -1; }
+
+      if (a != null && b == null) { return 1; }
+
+      final int order = Integer.compare(a.id(), b.id());
+      return order == 0 ? compare(a.root(), b.root()) : order;
+    }
+  };
+
   private final Uuid root;
   private final int id;
 
@@ -17,8 +17,14 @@ package codeu.chat.util.store;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+// STORE
+//
+// Inserts are done one at a time (insert is synchronized) but reads never take
+// a lock. The index is a concurrent map and links are only ever added, so a
+// reader will see the store either with or without a link that is being added
+// at the same time, never part way.
 public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   // To make the code simpler - use a dummy link for the first link in this
@@ -31,11 +37,11 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
   private final Comparator<KEY> comparator;
 
   public Store(Comparator<KEY> comparator) {
-    this.index = new TreeMap<>(comparator);
+    this.index = new ConcurrentSkipListMap<>(comparator);
     this.comparator = comparator;
   }
 
-  public void insert(KEY key, VALUE value) {
+  public synchronized void insert(KEY key, VALUE value) {
 
     final StoreLink<KEY, VALUE> closestLink = floor(key);
 
@@ -18,7 +18,9 @@ final class StoreLink<KEY, VALUE> {
 
   public final KEY key;
   public final VALUE value;
-  public StoreLink<KEY, VALUE> next;
+  // Readers walk the links without taking a lock, so a new link must be seen
+  // as soon as it is linked in.
+  public volatile StoreLink<KEY, VALUE> next;
 
   public StoreLink(KEY key, VALUE value, StoreLink<KEY, VALUE> next) {
     this.key = key;
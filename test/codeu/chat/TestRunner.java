@@ -22,15 +22,33 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.client.core.MessageCacheTest.class,
+             codeu.chat.client.core.MultiplexerTest.class,
+             codeu.chat.client.core.MessageIteratorTest.class,
+             codeu.chat.client.core.ChangeFeedTest.class,
+             codeu.chat.client.core.ViewTest.class,
              codeu.chat.common.SecretTest.class,
              codeu.chat.relay.ServerTest.class,
+             codeu.chat.relay.ServerFrontEndTest.class,
              codeu.chat.server.BasicControllerTest.class,
              codeu.chat.server.RawControllerTest.class,
              codeu.chat.util.TimeTest.class,
              codeu.chat.util.UuidTest.class,
+             codeu.chat.util.TimelineTest.class,
+             codeu.chat.util.LoggerTest.class,
+             codeu.chat.util.EventLogTest.class,
+             codeu.chat.util.HistogramTest.class,
              codeu.chat.util.store.StoreTest.class,
              codeu.chat.util.TokenizerTest.class,
-             codeu.chat.server.ControllerTest.class
+             codeu.chat.util.EncodedFormTest.class,
+             codeu.chat.util.CompactTest.class,
+             codeu.chat.util.Utf8Test.class,
+             codeu.chat.util.DeflateTest.class,
+             codeu.chat.server.ControllerTest.class,
+             codeu.chat.server.ServerTest.class,
+             codeu.chat.server.ShardedRelayTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.ChangeJournalTest.class
          );
 
       System.out.println("\n===================== Test Status ====================");
@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.Secret;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Uuid;
+
+public final class ChangeFeedTest {
+
+  private Server server;
+  private Context context;
+
+  @Before
+  public void doBefore() {
+    server = new Server(new Uuid(3), new Secret((byte)0x01), new NoOpRelay());
+    context = new Context(new ServerPipe(server));
+  }
+
+  @After
+  public void doAfter() {
+    context.close();
+    server.stop();
+  }
+
+  @Test
+  public void testFeedSeesOnlyNewChanges() {
+
+    context.create("before");
+
+    // A new feed has seen nothing, so it starts with a resync.
+    final ChangeFeed feed = context.changes();
+    assertTrue(feed.poll().resync);
+
+    final UserContext user = context.create("after");
+    final ConversationContext conversation = user.start("conversation");
+    conversation.add("hello");
+
+    final Changes changes = feed.poll();
+
+    assertFalse(changes.resync);
+    assertEquals(1, changes.users.size());
+    assertEquals("after", changes.users.iterator().next().name);
+    assertEquals(1, changes.conversations.size());
+    assertEquals(1, changes.messages.size());
+    assertEquals("hello", changes.messages.iterator().next().content);
+
+    // Nothing has happened since.
+    final Changes none = feed.poll();
+    assertEquals(0, none.users.size() + none.conversations.size() + none.messages.size());
+
+    // A feed can carry on from where another got to.
+    conversation.add("again");
+    final Changes later = context.changes(feed.epoch(), feed.sequence()).poll();
+    assertFalse(later.resync);
+    assertEquals(1, later.messages.size());
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class MessageCacheTest {
+
+  private static final Uuid USER = new Uuid(1);
+  private static final Uuid CONVERSATION = new Uuid(2);
+
+  // A server that only knows one conversation and its messages, and remembers
+  // every message id it was asked for.
+  private static final class FakeServer implements ConnectionSource {
+
+    public final Map<Uuid, Message> messages = new HashMap<>();
+    public final List<Uuid> asked = new ArrayList<>();
+    public ConversationPayload conversation = new ConversationPayload(CONVERSATION);
+
+    // Add a message to the end of the conversation.
+    public Message add(int id) {
+
+      final Message message = new Message(new Uuid(id),
+                                          Uuid.NULL,
+                                          conversation.lastMessage,
+                                          Time.now(),
+                                          USER,
+                                          "message " + id);
+
+      if (Uuid.NULL.equals(conversation.firstMessage)) {
+        conversation = new ConversationPayload(CONVERSATION, message.id, message.id);
+      } else {
+        final Message last = messages.get(conversation.lastMessage);
+        messages.put(last.id, new Message(last.id,
+                                          message.id,
+                                          last.previous,
+                                          last.creation,
+                                          last.author,
+                                          last.content));
+        conversation = new ConversationPayload(CONVERSATION, conversation.firstMessage, message.id);
+      }
+
+      messages.put(message.id, message);
+      return message;
+    }
+
+    @Override
+    public Connection connect() {
+
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+      return new Connection() {
+
+        private InputStream response;
+
+        @Override
+        public OutputStream out() { return request; }
+
+        // The request has been written by the time the client reads.
+        @Override
+        public InputStream in() throws IOException {
+          if (response == null) {
+            response = new ByteArrayInputStream(respond(request.toByteArray()));
+          }
+          return response;
+        }
+
+        @Override
+        public void close() { }
+      };
+    }
+
+    @Override
+    public void close() { }
+
+    private byte[] respond(byte[] request) throws IOException {
+
+      final InputStream in = new ByteArrayInputStream(request);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      final int type = Serializers.INTEGER.read(in);
+      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+
+      if (type == NetworkCode.GET_MESSAGES_BY_ID_REQUEST) {
+        final Collection<Message> found = new ArrayList<>();
+        for (final Uuid id : ids) {
+          asked.add(id);
+          if (messages.containsKey(id)) {
+            found.add(messages.get(id));
+          }
+        }
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, found);
+      } else {
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
+        Serializers.collection(ConversationPayload.SERIALIZER).write(out, Arrays.asList(conversation));
+      }
+
+      return out.toByteArray();
+    }
+  }
+
+  private static Message message(int id) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.now(), USER, "message " + id);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsDropped() {
+
+    final MessageCache cache = new MessageCache(2);
+
+    cache.put(message(10));
+    cache.put(message(11));
+
+    // Using 10 makes 11 the least recently used.
+    assertNotNull(cache.get(new Uuid(10)));
+
+    cache.put(message(12));
+
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(new Uuid(10)));
+    assertNull(cache.get(new Uuid(11)));
+    assertNotNull(cache.get(new Uuid(12)));
+  }
+
+  @Test
+  public void testNewVersionDropsOldLastMessage() {
+
+    final MessageCache cache = new MessageCache(10);
+
+    cache.put(message(10));
+    cache.put(message(11));
+
+    cache.version(CONVERSATION, new Uuid(11));
+    assertNotNull(cache.get(new Uuid(11)));
+
+    // Still the same version so nothing changes.
+    cache.version(CONVERSATION, new Uuid(11));
+    assertNotNull(cache.get(new Uuid(11)));
+
+    cache.version(CONVERSATION, new Uuid(12));
+    assertNull(cache.get(new Uuid(11)));
+    assertNotNull(cache.get(new Uuid(10)));
+  }
+
+  @Test
+  public void testViewOnlyFetchesNewMessages() {
+
+    final FakeServer server = new FakeServer();
+    final View view = new View(server, Channel.direct(server), new MessageCache(100));
+
+    server.add(10);
+    server.add(11);
+
+    assertEquals(Arrays.asList(new Uuid(10), new Uuid(11)), list(view));
+    assertEquals(Arrays.asList(new Uuid(10), new Uuid(11)), server.asked);
+
+    // Nothing changed so nothing is fetched.
+    server.asked.clear();
+    assertEquals(Arrays.asList(new Uuid(10), new Uuid(11)), list(view));
+    assertEquals(Arrays.<Uuid>asList(), server.asked);
+
+    // Only the new message and the old last one (whose "next" changed) are
+    // fetched.
+    server.add(12);
+    server.asked.clear();
+    assertEquals(Arrays.asList(new Uuid(10), new Uuid(11), new Uuid(12)), list(view));
+    assertEquals(Arrays.asList(new Uuid(11), new Uuid(12)), server.asked);
+  }
+
+  // Walk the conversation the way the chat client does.
+  private static List<Uuid> list(View view) {
+
+    final ConversationContext context =
+        new ConversationContext(null,
+                                new ConversationHeader(CONVERSATION, USER, Time.now(), "conversation"),
+                                view,
+                                null);
+
+    final List<Uuid> ids = new ArrayList<>();
+
+    for (MessageContext message = context.firstMessage();
+         message != null;
+         message = message.next()) {
+      ids.add(message.message.id);
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.common.ServerStats;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Uuid;
+
+public final class MessageIteratorTest {
+
+  private Server server;
+  private Context context;
+  private ConversationContext conversation;
+
+  @Before
+  public void doBefore() {
+
+    server = new Server(new Uuid(3), new Secret((byte)0x01), new NoOpRelay());
+    context = new Context(new ServerPipe(server));
+
+    conversation = context.create("user").start("conversation");
+  }
+
+  @After
+  public void doAfter() {
+    context.close();
+    server.stop();
+  }
+
+  @Test
+  public void testWalksForwardInFewRequests() {
+
+    add(100);
+
+    final List<String> bodies = new ArrayList<>();
+    for (final MessageContext message : conversation.messages()) {
+      bodies.add(message.message.content);
+    }
+
+    assertEquals(expected(0, 100), bodies);
+
+    // Windows start at MIN_WINDOW and only grow, so walking 100 messages takes
+    // far fewer than 100 requests, and no message is asked for by id.
+    assertTrue(count(NetworkCode.GET_MESSAGE_RANGE_REQUEST) <= 100 / MessageIterator.MIN_WINDOW + 1);
+    assertEquals(0, count(NetworkCode.GET_MESSAGES_BY_ID_REQUEST));
+  }
+
+  @Test
+  public void testWalksBackward() {
+
+    add(20);
+
+    final List<String> bodies = new ArrayList<>();
+    for (final MessageContext message : conversation.history()) {
+      bodies.add(0, message.message.content);
+    }
+
+    assertEquals(expected(0, 20), bodies);
+  }
+
+  @Test
+  public void testFollowingStartsAfterMessage() {
+
+    add(20);
+
+    final Iterator<MessageContext> all = conversation.messages().iterator();
+    MessageContext tenth = null;
+    for (int i = 0; i < 10; i++) {
+      tenth = all.next();
+    }
+
+    final List<String> bodies = new ArrayList<>();
+    for (final Iterator<MessageContext> rest = tenth.following(); rest.hasNext(); ) {
+      bodies.add(rest.next().message.content);
+    }
+
+    assertEquals(expected(10, 20), bodies);
+  }
+
+  @Test
+  public void testEmptyConversation() {
+    assertFalse(conversation.messages().iterator().hasNext());
+    assertFalse(conversation.history().iterator().hasNext());
+  }
+
+  private void add(int count) {
+    for (int i = 0; i < count; i++) {
+      assertNotNull(conversation.add("message " + i));
+    }
+  }
+
+  private static List<String> expected(int from, int to) {
+    final List<String> bodies = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      bodies.add("message " + i);
+    }
+    return bodies;
+  }
+
+  private long count(int code) {
+    for (final ServerStats.Command command : server.stats().commands) {
+      if (command.code == code) {
+        return command.count;
+      }
+    }
+    return 0;
+  }
+}
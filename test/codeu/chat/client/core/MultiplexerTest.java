@@ -0,0 +1,295 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Capabilities;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.common.ServerStats;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class MultiplexerTest {
+
+  private Server server;
+  private ServerPipe source;
+
+  @Before
+  public void doBefore() {
+    server = new Server(new Uuid(3), new Secret((byte)0x01), new NoOpRelay());
+    source = new ServerPipe(server);
+  }
+
+  @After
+  public void doAfter() {
+    server.stop();
+  }
+
+  @Test
+  public void testManyCallsInFlightOnOneConnection() throws Exception {
+
+    final Context context = new Context(source);
+
+    // Start every call before waiting on any of them.
+    final List<CompletableFuture<UserContext>> calls = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      calls.add(context.createAsync("user-" + i));
+    }
+
+    final Set<Uuid> ids = new HashSet<>();
+    for (final CompletableFuture<UserContext> call : calls) {
+      ids.add(call.get().user.id);
+    }
+
+    assertEquals(200, ids.size());
+
+    // The blocking methods share the same connection.
+    int users = 0;
+    for (final UserContext user : context.allUsers()) {
+      users++;
+    }
+    assertEquals(200, users);
+
+    assertEquals(1, source.connections());
+
+    final ServerStats stats = server.stats();
+    assertEquals(200, find(stats, NetworkCode.NEW_USER_REQUEST).count);
+    assertEquals(1, find(stats, NetworkCode.MULTIPLEX_REQUEST).count);
+
+    context.close();
+  }
+
+  @Test
+  public void testCallsChainWithoutBlocking() throws Exception {
+
+    final Context context = new Context(source);
+
+    final UserContext user = context.create("user");
+    final ConversationContext conversation = user.start("conversation");
+
+    for (int i = 0; i < 3; i++) {
+      conversation.addAsync("message " + i);
+    }
+
+    // Calls on one connection are not ordered, so wait for the messages by
+    // walking the conversation once they are all there.
+    MessageContext last = null;
+    for (int tries = 0; tries < 100 && (last == null || !last.message.content.equals("message 2")); tries++) {
+      last = conversation.lastMessageAsync().get();
+      Thread.sleep(10);
+    }
+
+    final List<String> bodies = new ArrayList<>();
+    for (MessageContext message = conversation.firstMessageAsync().get();
+         message != null;
+         message = message.nextAsync().get()) {
+      bodies.add(message.message.content);
+    }
+
+    assertEquals(3, bodies.size());
+
+    context.close();
+  }
+
+  @Test
+  public void testLostConnectionFailsCalls() throws Exception {
+
+    final Channel channel = Channel.multiplexed(source);
+    final Controller controller = new Controller(channel);
+
+    assertNotNull(controller.newUserAsync("user").get());
+
+    channel.close();
+
+    // The next call opens a new connection.
+    assertNotNull(controller.newUserAsync("user").get());
+    assertEquals(2, source.connections());
+
+    channel.close();
+  }
+
+  @Test
+  public void testCompactAndStandardAgree() throws Exception {
+
+    final Context context = new Context(source);
+    final ConversationContext conversation = context.create("user").start("conversation");
+
+    for (int i = 0; i < 20; i++) {
+      conversation.add("message " + i);
+    }
+
+    final Channel standard = Channel.multiplexed(source, 0);
+    final Channel compact = Channel.multiplexed(source, Capabilities.COMPACT);
+
+    final Collection<Message> expected = page(standard, conversation);
+    final Collection<Message> actual = page(compact, conversation);
+
+    assertEquals(20, expected.size());
+    assertEquals(expected.size(), actual.size());
+
+    final Iterator<Message> a = expected.iterator();
+    final Iterator<Message> b = actual.iterator();
+    while (a.hasNext()) {
+      final Message x = a.next();
+      final Message y = b.next();
+      assertEquals(x.id, y.id);
+      assertEquals(x.next, y.next);
+      assertEquals(x.previous, y.previous);
+      assertEquals(x.author, y.author);
+      assertEquals(x.creation.inMs(), y.creation.inMs());
+      assertEquals(x.content, y.content);
+    }
+
+    // Each page was one request.
+    final ServerStats.Command range = find(server.stats(), NetworkCode.GET_MESSAGE_RANGE_REQUEST);
+    assertEquals(2, range.count);
+
+    standard.close();
+    compact.close();
+    context.close();
+  }
+
+  @Test
+  public void testDeflatedAndPlainAgree() throws Exception {
+
+    final Context context = new Context(source);
+    final ConversationContext conversation = context.create("user").start("conversation");
+
+    // Long enough that the page is well over the threshold.
+    for (int i = 0; i < 50; i++) {
+      conversation.add("message " + i + " that goes on for a while like most of them do");
+    }
+
+    final Channel plain = Channel.multiplexed(source, 0);
+    final Channel deflated = Channel.multiplexed(source, Capabilities.DEFLATE);
+
+    final Collection<Message> expected = page(plain, conversation);
+    final Collection<Message> actual = page(deflated, conversation);
+
+    assertEquals(50, expected.size());
+    assertEquals(expected.size(), actual.size());
+
+    final Iterator<Message> a = expected.iterator();
+    final Iterator<Message> b = actual.iterator();
+    while (a.hasNext()) {
+      final Message x = a.next();
+      final Message y = b.next();
+      assertEquals(x.id, y.id);
+      assertEquals(x.next, y.next);
+      assertEquals(x.creation.inMs(), y.creation.inMs());
+      assertEquals(x.content, y.content);
+    }
+
+    plain.close();
+    deflated.close();
+    context.close();
+  }
+
+  @Test
+  public void testBadResponseLengthFailsCalls() throws Exception {
+    for (final int length : new int[] { -1, Integer.MAX_VALUE }) {
+      assertBadResponseFails(length);
+    }
+  }
+
+  // Answer a call with a frame of "length" and check that the call fails
+  // rather than waiting forever.
+  private static void assertBadResponseFails(int length) throws Exception {
+
+    final PipedInputStream in = new PipedInputStream();
+    final DataOutputStream server = new DataOutputStream(new PipedOutputStream(in));
+
+    server.writeInt(NetworkCode.MULTIPLEX_RESPONSE);
+    server.writeInt(0);
+    server.flush();
+
+    final Channel channel = Channel.multiplexed(new ConnectionSource() {
+      @Override
+      public Connection connect() {
+        return new Connection() {
+          @Override
+          public InputStream in() { return in; }
+          @Override
+          public OutputStream out() { return new ByteArrayOutputStream(); }
+          @Override
+          public void close() { }
+        };
+      }
+      @Override
+      public void close() { }
+    });
+
+    final CompletableFuture<?> call = new Controller(channel).newUserAsync("user");
+
+    server.writeInt(0);
+    server.writeInt(length);
+    server.flush();
+
+    try {
+      call.get(5, TimeUnit.SECONDS);
+      fail("Took a response of length " + length);
+    } catch (ExecutionException ex) {
+      // Expected.
+    }
+
+    channel.close();
+    server.close();
+  }
+
+  // The whole conversation in one request, over "channel" and nothing else.
+  private static Collection<Message> page(Channel channel, ConversationContext conversation) {
+    final View view = new View(null, channel, new MessageCache(100));
+    final ConversationPayload payload =
+        view.getConversationPayloads(Arrays.asList(conversation.conversation.id)).iterator().next();
+    return Channel.await(view.getMessageRangeAsync(payload.firstMessage, 100, true), null);
+  }
+
+  private static ServerStats.Command find(ServerStats stats, int code) {
+    for (final ServerStats.Command command : stats.commands) {
+      if (command.code == code) {
+        return command;
+      }
+    }
+    fail("No stats for " + NetworkCode.name(code));
+    return null;
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import codeu.chat.server.Server;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// SERVER PIPE
+//
+// Connects clients straight to a server in the same process through pipes,
+// so tests can use the real client and server without a socket.
+final class ServerPipe implements ConnectionSource {
+
+  private final Server server;
+  private int connections;
+
+  public ServerPipe(Server server) {
+    this.server = server;
+  }
+
+  // How many connections have been made.
+  public synchronized int connections() {
+    return connections;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    final PipedInputStream serverIn = new PipedInputStream(1 << 16);
+    final PipedInputStream clientIn = new PipedInputStream(1 << 16);
+    final PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+    final PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+
+    synchronized (this) {
+      connections++;
+    }
+
+    server.handleConnection(pipe(serverIn, serverOut));
+
+    return pipe(clientIn, clientOut);
+  }
+
+  @Override
+  public void close() { }
+
+  private static Connection pipe(final InputStream in, final OutputStream out) {
+    return new Connection() {
+
+      @Override
+      public InputStream in() { return in; }
+
+      @Override
+      public OutputStream out() { return out; }
+
+      @Override
+      public void close() throws IOException {
+        in.close();
+        out.close();
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.common.ServerStats;
+import codeu.chat.common.User;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Server server;
+  private ServerPipe source;
+  private View view;
+  private Controller controller;
+
+  @Before
+  public void doBefore() {
+    server = new Server(new Uuid(3), new Secret((byte)0x01), new NoOpRelay());
+    source = new ServerPipe(server);
+    // The standard encoding, so the sizes below are known.
+    view = new View(source, Channel.multiplexed(source, 0), new MessageCache(100));
+    controller = new Controller(source);
+  }
+
+  @After
+  public void doAfter() {
+    server.stop();
+  }
+
+  @Test
+  public void testUnchangedListsAreNotSentAgain() {
+
+    for (int i = 0; i < 50; i++) {
+      controller.newUser("user " + i);
+    }
+
+    final Collection<User> first = view.getUsers();
+    final long full = bytesOut(NetworkCode.GET_USERS_IF_MODIFIED_REQUEST);
+
+    final Collection<User> second = view.getUsers();
+    final long notModified = bytesOut(NetworkCode.GET_USERS_IF_MODIFIED_REQUEST) - full;
+
+    assertEquals(50, first.size());
+    assertEquals(names(first), names(second));
+
+    // Only the code, epoch, version and flag.
+    assertEquals(4 + 8 + 8 + 1, notModified);
+
+    // Adding a user makes the list change.
+    controller.newUser("user 50");
+    assertEquals(51, view.getUsers().size());
+  }
+
+  @Test
+  public void testConversationsFollowAdds() {
+
+    final User user = controller.newUser("user");
+
+    assertEquals(0, view.getConversations().size());
+    assertEquals(0, view.getConversations().size());
+
+    controller.newConversation("conversation", user.id);
+
+    final Collection<ConversationHeader> conversations = view.getConversations();
+    assertEquals(1, conversations.size());
+    assertEquals("conversation", conversations.iterator().next().title);
+  }
+
+  private static List<String> names(Collection<User> users) {
+    final List<String> names = new ArrayList<>();
+    for (final User user : users) {
+      names.add(user.name);
+    }
+    return names;
+  }
+
+  private long bytesOut(int code) {
+    for (final ServerStats.Command command : server.stats().commands) {
+      if (command.code == code) {
+        return command.bytesOut;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.relay;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.server.RemoteRelay;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class ServerFrontEndTest {
+
+  private static final Uuid TEAM = new Uuid(3);
+  private static final Secret SECRET = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+  private static final int BUNDLES = 40;
+
+  // Connects relay clients to the front end over loopback sockets. Pipes will
+  // not do, as a subscription's connection is handed from the thread that
+  // read the request to one that pushes, and a pipe fails once the thread that
+  // last used it has ended. Every connection is handled on a thread of its
+  // own, as the front end reads the request before the client could read the
+  // response.
+  private static final class Loopback implements ConnectionSource {
+
+    private final ServerFrontEnd frontEnd;
+    private final ServerSocket listener;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    public Loopback(ServerFrontEnd frontEnd) throws IOException {
+      this.frontEnd = frontEnd;
+      this.listener = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+    }
+
+    @Override
+    public Connection connect() throws IOException {
+
+      final Socket client = new Socket(listener.getInetAddress(), listener.getLocalPort());
+      final Socket server = listener.accept();
+
+      synchronized (sockets) {
+        sockets.add(client);
+        sockets.add(server);
+      }
+
+      final Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            frontEnd.handleConnection(connection(server));
+          } catch (IOException ex) {
+            // The client will see the connection close.
+          }
+        }
+      };
+
+      thread.setDaemon(true);
+      thread.start();
+
+      return connection(client);
+    }
+
+    @Override
+    public void close() throws IOException {
+      listener.close();
+      synchronized (sockets) {
+        for (final Socket socket : sockets) {
+          socket.close();
+        }
+      }
+    }
+
+    private static Connection connection(final Socket socket) {
+      return new Connection() {
+
+        @Override
+        public InputStream in() throws IOException { return socket.getInputStream(); }
+
+        @Override
+        public OutputStream out() throws IOException { return socket.getOutputStream(); }
+
+        @Override
+        public void close() throws IOException {
+          socket.close();
+        }
+      };
+    }
+  }
+
+  private Loopback loopback;
+
+  @Before
+  public void doBefore() throws IOException {
+
+    final Server backEnd = new Server(BUNDLES, BUNDLES);
+    assertTrue(backEnd.addTeam(TEAM, SECRET));
+
+    loopback = new Loopback(new ServerFrontEnd(backEnd));
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    loopback.close();
+  }
+
+  @Test
+  public void testDeflatedAndPlainReadsAgree() {
+
+    final RemoteRelay deflated = new RemoteRelay(loopback);
+    final RemoteRelay plain = new RemoteRelay(loopback, 0);
+
+    // Half are written each way.
+    for (int i = 0; i < BUNDLES; i++) {
+      write(i % 2 == 0 ? deflated : plain, i);
+    }
+
+    final Collection<Relay.Bundle> expected = plain.read(TEAM, SECRET, Uuid.NULL, BUNDLES);
+    final Collection<Relay.Bundle> actual = deflated.read(TEAM, SECRET, Uuid.NULL, BUNDLES);
+
+    assertEquals(BUNDLES, expected.size());
+    assertEquals(BUNDLES, actual.size());
+
+    final Iterator<Relay.Bundle> a = expected.iterator();
+    final Iterator<Relay.Bundle> b = actual.iterator();
+    while (a.hasNext()) {
+      final Relay.Bundle x = a.next();
+      final Relay.Bundle y = b.next();
+      assertEquals(x.id(), y.id());
+      assertEquals(x.message().id(), y.message().id());
+      assertEquals(x.message().text(), y.message().text());
+    }
+  }
+
+  @Test
+  public void testDeflatedSubscription() throws Exception {
+
+    final RemoteRelay relay = new RemoteRelay(loopback);
+
+    for (int i = 0; i < BUNDLES; i++) {
+      write(relay, i);
+    }
+
+    final List<Relay.Bundle> pushed = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(BUNDLES);
+
+    final Thread subscriber = new Thread() {
+      @Override
+      public void run() {
+        relay.subscribe(TEAM, SECRET, Uuid.NULL, BUNDLES, new Relay.Subscriber() {
+          @Override
+          public void onSubscribe() { }
+
+          @Override
+          public void onBundle(Relay.Bundle bundle) {
+            synchronized (pushed) {
+              pushed.add(bundle);
+            }
+            done.countDown();
+          }
+        });
+      }
+    };
+
+    subscriber.setDaemon(true);
+    subscriber.start();
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    synchronized (pushed) {
+      for (int i = 0; i < BUNDLES; i++) {
+        assertEquals(new Uuid(1000 + i), pushed.get(i).message().id());
+        assertEquals(text(i), pushed.get(i).message().text());
+      }
+    }
+  }
+
+  private static void write(RemoteRelay relay, int i) {
+    assertTrue(relay.write(TEAM,
+                           SECRET,
+                           relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(1000 + i), text(i), Time.now())));
+  }
+
+  // Long enough that a batch is well over the threshold.
+  private static String text(int i) {
+    final StringBuilder builder = new StringBuilder();
+    for (int j = 0; j < 10; j++) {
+      builder.append("message ").append(i).append(" line ").append(j).append(". ");
+    }
+    return builder.toString();
+  }
+}
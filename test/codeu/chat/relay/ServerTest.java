@@ -14,6 +14,10 @@
 
 package codeu.chat.relay;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static org.junit.Assert.*;
@@ -22,6 +26,7 @@ import org.junit.Before;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
@@ -287,4 +292,317 @@ public final class ServerTest {
       assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
     }
   }
+
+  @Test
+  public void testOpenCursorFailWrongSecret() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+    final Secret wrongSecret = new Secret((byte)0x00, (byte)0x01, (byte)0x03);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    assertNull(relay.openCursor(team, wrongSecret, Uuid.NULL));
+  }
+
+  @Test
+  public void testAcknowledgeTrimsHistory() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(relay.write(team,
+                             secret,
+                             relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(6 + i), "Hello World", Time.now())));
+    }
+
+    assertTrue(Uuid.equals(relay.openCursor(team, secret, Uuid.NULL), Uuid.NULL));
+    assertEquals(3, relay.historySize());
+
+    // The linear id generator starts at 1, so the second bundle has the id 3.
+    relay.acknowledge(team, new Uuid(3));
+    assertEquals(1, relay.historySize());
+
+    // Reading from a root that was trimmed starts from the earliest bundle,
+    // which is the only one that was not acknowledged.
+    final Collection<Relay.Bundle> read = relay.read(team, secret, new Uuid(3), 8);
+    assertEquals(1, read.size());
+
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.id(), new Uuid(4)));
+    }
+  }
+
+  @Test
+  public void testSlowestCursorHoldsHistory() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid fast = new Uuid(3);
+    final Uuid slow = new Uuid(4);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(fast, secret));
+    assertTrue(relay.addTeam(slow, secret));
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(relay.write(fast,
+                             secret,
+                             relay.pack(new Uuid(4), "User", Time.now()),
+                             relay.pack(new Uuid(5), "Conversation", Time.now()),
+                             relay.pack(new Uuid(6 + i), "Hello World", Time.now())));
+    }
+
+    relay.openCursor(fast, secret, Uuid.NULL);
+    relay.openCursor(slow, secret, Uuid.NULL);
+
+    relay.acknowledge(fast, new Uuid(4));
+    assertEquals(3, relay.historySize());
+
+    relay.acknowledge(slow, new Uuid(2));
+    assertEquals(2, relay.historySize());
+
+    // The slow team going away does not drop what it has not acknowledged.
+    relay.closeCursor(slow);
+    assertEquals(2, relay.historySize());
+  }
+
+  @Test
+  public void testClosedCursorKeepsItsBacklog() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid a = new Uuid(3);
+    final Uuid b = new Uuid(4);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(a, secret));
+    assertTrue(relay.addTeam(b, secret));
+
+    relay.openCursor(a, secret, Uuid.NULL);
+    relay.openCursor(b, secret, Uuid.NULL);
+
+    for (int i = 0; i < 3; i++) {
+      write(relay, a, secret, i);
+    }
+
+    // B reads the first bundle and goes away, then A acknowledges everything.
+    relay.acknowledge(b, new Uuid(2));
+    relay.closeCursor(b);
+    relay.acknowledge(a, new Uuid(4));
+
+    assertEquals(2, relay.historySize());
+
+    // B comes back and still finds everything after what it acknowledged.
+    final Uuid start = relay.openCursor(b, secret, Uuid.NULL);
+    assertTrue(Uuid.equals(new Uuid(2), start));
+
+    final Collection<Relay.Bundle> read = relay.read(b, secret, start, 8);
+    assertEquals(2, read.size());
+
+    relay.acknowledge(b, new Uuid(4));
+    assertEquals(0, relay.historySize());
+  }
+
+  @Test
+  public void testOldSubscriptionClosingLateKeepsTheNewOne() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    // The team reconnects before its old subscription noticed it was gone.
+    relay.openCursor(team, secret, Uuid.NULL);
+    relay.openCursor(team, secret, Uuid.NULL);
+    relay.closeCursor(team);
+
+    assertEquals(1, relay.subscriptions(team));
+
+    relay.closeCursor(team);
+    assertEquals(0, relay.subscriptions(team));
+  }
+
+  @Test
+  public void testPollingTeamHoldsHistory() {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid subscriber = new Uuid(3);
+    final Uuid poller = new Uuid(4);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(subscriber, secret));
+    assertTrue(relay.addTeam(poller, secret));
+
+    for (int i = 0; i < 3; i++) {
+      write(relay, subscriber, secret, i);
+    }
+
+    // The poller has no cursor, so nothing it might still read is dropped.
+    relay.openCursor(subscriber, secret, Uuid.NULL);
+    relay.acknowledge(subscriber, new Uuid(4));
+
+    assertEquals(3, relay.historySize());
+    assertEquals(3, relay.read(poller, secret, Uuid.NULL, 8).size());
+  }
+
+  private static void write(Server relay, Uuid team, Secret secret, int i) {
+    assertTrue(relay.write(team,
+                           secret,
+                           relay.pack(new Uuid(4), "User", Time.now()),
+                           relay.pack(new Uuid(5), "Conversation", Time.now()),
+                           relay.pack(new Uuid(6 + i), "Hello World", Time.now())));
+  }
+
+  @Test
+  public void testAwaitWakesOnWrite() throws Exception {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        relay.write(team,
+                    secret,
+                    relay.pack(new Uuid(4), "User", Time.now()),
+                    relay.pack(new Uuid(5), "Conversation", Time.now()),
+                    relay.pack(new Uuid(6), "Hello World", Time.now()));
+      }
+    };
+
+    writer.start();
+
+    final Collection<Relay.Bundle> read = relay.await(team, secret, Uuid.NULL, 8, 10000);
+    writer.join();
+
+    assertEquals(1, read.size());
+  }
+
+  @Test
+  public void testConcurrentReadsStayInOrder() throws Exception {
+
+    final Server relay = new Server(64, 16);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 2000; i++) {
+          relay.write(team,
+                      secret,
+                      relay.pack(new Uuid(4), "User", Time.now()),
+                      relay.pack(new Uuid(5), "Conversation", Time.now()),
+                      relay.pack(new Uuid(6), "Hello World", Time.now()));
+        }
+      }
+    };
+
+    writer.start();
+
+    // While the writer laps the ring, every read must still come back in the
+    // order the bundles were written.
+    boolean ordered = true;
+
+    while (writer.isAlive()) {
+      long last = -1;
+      for (final Relay.Bundle bundle : relay.read(team, secret, Uuid.NULL, 16)) {
+        ordered &= bundle.id().id() > last;
+        last = bundle.id().id();
+      }
+    }
+
+    writer.join();
+
+    assertTrue(ordered);
+    assertEquals(64, relay.historySize());
+  }
+
+  @Test
+  public void testStoredBytesPassThrough() throws Exception {
+
+    final Server relay = new Server(8, 8);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Time time = Time.now();
+
+    final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    for (final String text : new String[] { "User", "Conversation", "Hello World" }) {
+      Uuid.SERIALIZER.write(sent, new Uuid(4));
+      Serializers.STRING.write(sent, text);
+      Time.SERIALIZER.write(sent, time);
+    }
+
+    final byte[] components = BundleBytes.readComponents(new ByteArrayInputStream(sent.toByteArray()));
+
+    assertArrayEquals(sent.toByteArray(), components);
+    assertTrue(relay.write(team, secret, components));
+
+    final Collection<Server.Bundle> read = relay.readStored(team, secret, Uuid.NULL, 1);
+
+    assertEquals(1, read.size());
+
+    final Server.Bundle bundle = read.iterator().next();
+
+    // What goes out must be exactly the header followed by what came in.
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(expected, bundle.id());
+    Time.SERIALIZER.write(expected, bundle.time());
+    Uuid.SERIALIZER.write(expected, team);
+    expected.write(components);
+
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    bundle.writeTo(actual);
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+    assertEquals("User", bundle.user().text());
+    assertEquals("Conversation", bundle.conversation().text());
+    assertEquals("Hello World", bundle.message().text());
+    assertEquals(time.inMs(), bundle.message().time().inMs());
+  }
+
+  @Test
+  public void testReadComponentsRejectsTruncated() throws Exception {
+
+    final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      Uuid.SERIALIZER.write(sent, new Uuid(4));
+      Serializers.STRING.write(sent, "text");
+      Time.SERIALIZER.write(sent, Time.now());
+    }
+
+    final byte[] full = sent.toByteArray();
+
+    try {
+      BundleBytes.readComponents(new ByteArrayInputStream(Arrays.copyOf(full, full.length - 1)));
+      fail("Truncated components were accepted");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
 }
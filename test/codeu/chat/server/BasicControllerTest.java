@@ -20,6 +20,7 @@ import org.junit.Before;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
@@ -89,4 +90,57 @@ public final class BasicControllerTest {
         "Check that the message has a valid reference",
         message == null);
   }
+
+  @Test
+  public void testConcurrentMessagesKeepLinks() throws Exception {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader[] conversations = new ConversationHeader[4];
+
+    for (int i = 0; i < conversations.length; i++) {
+      conversations[i] = controller.newConversation("conversation " + i, user.id);
+    }
+
+    // Two threads per conversation so that appends to the same conversation
+    // race as well as appends to different ones.
+    final Thread[] writers = new Thread[conversations.length * 2];
+
+    for (int i = 0; i < writers.length; i++) {
+      final ConversationHeader conversation = conversations[i % conversations.length];
+      writers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 250; j++) {
+            controller.newMessage(user.id, conversation.id, "Hello World");
+          }
+        }
+      };
+    }
+
+    for (final Thread writer : writers) {
+      writer.start();
+    }
+
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+
+    for (final ConversationHeader conversation : conversations) {
+
+      final ConversationPayload payload = model.conversationPayloadById().first(conversation.id);
+
+      int length = 0;
+      Uuid last = Uuid.NULL;
+
+      for (Uuid current = payload.firstMessage;
+           !Uuid.equals(current, Uuid.NULL);
+           current = model.messageById().first(current).next) {
+        last = current;
+        length++;
+      }
+
+      assertEquals(500, length);
+      assertEquals(payload.lastMessage, last);
+    }
+  }
 }
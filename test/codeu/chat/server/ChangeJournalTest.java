@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ChangeJournalTest {
+
+  private static User user(int id) {
+    return new User(new Uuid(id), "user " + id, Time.now());
+  }
+
+  @Test
+  public void testChangesAfterSequence() {
+
+    final ChangeJournal journal = new ChangeJournal(10);
+
+    journal.record(user(1));
+    final long seen = journal.record(new ConversationHeader(new Uuid(2), new Uuid(1), Time.now(), "c"));
+    journal.record(new Message(new Uuid(3), Uuid.NULL, Uuid.NULL, Time.now(), new Uuid(1), "m"));
+    journal.record(user(4));
+
+    final Changes changes = journal.since(journal.epoch(), seen, 100);
+
+    assertFalse(changes.resync);
+    assertFalse(changes.more);
+    assertEquals(4, changes.sequence);
+    assertEquals(1, changes.users.size());
+    assertEquals(new Uuid(4), changes.users.iterator().next().id);
+    assertEquals(0, changes.conversations.size());
+    assertEquals(1, changes.messages.size());
+
+    // Nothing new since the last changes.
+    final Changes none = journal.since(journal.epoch(), changes.sequence, 100);
+    assertFalse(none.resync);
+    assertEquals(0, none.users.size() + none.conversations.size() + none.messages.size());
+  }
+
+  @Test
+  public void testLimitLeavesMore() {
+
+    final ChangeJournal journal = new ChangeJournal(10);
+
+    for (int i = 1; i <= 5; i++) {
+      journal.record(user(i));
+    }
+
+    final Changes first = journal.since(journal.epoch(), 0, 3);
+    assertTrue(first.more);
+    assertEquals(3, first.sequence);
+    assertEquals(3, first.users.size());
+
+    final Changes rest = journal.since(journal.epoch(), first.sequence, 3);
+    assertFalse(rest.more);
+    assertEquals(5, rest.sequence);
+    assertEquals(2, rest.users.size());
+  }
+
+  @Test
+  public void testResyncWhenTrimmedOrUnknown() {
+
+    final ChangeJournal journal = new ChangeJournal(3);
+
+    for (int i = 1; i <= 5; i++) {
+      journal.record(user(i));
+    }
+
+    // Changes 1 and 2 have been pushed out, so after 1 is unknown but after
+    // 2 is still complete.
+    assertTrue(journal.since(journal.epoch(), 1, 100).resync);
+    assertEquals(3, journal.since(journal.epoch(), 2, 100).users.size());
+
+    // Another run of the server, or a sequence it never reached.
+    final Changes other = journal.since(journal.epoch() + 1, 4, 100);
+    assertTrue(other.resync);
+    assertEquals(journal.epoch(), other.epoch);
+    assertEquals(5, other.sequence);
+    assertTrue(journal.since(journal.epoch(), 6, 100).resync);
+  }
+}
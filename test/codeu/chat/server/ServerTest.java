@@ -0,0 +1,248 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.common.ServerStats;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class ServerTest {
+
+  // A relay that only supports polling and counts what it hands out.
+  private static final class PollingRelay implements Relay {
+
+    private final codeu.chat.relay.Server relay;
+
+    public final AtomicInteger delivered = new AtomicInteger();
+    public final AtomicInteger emptyReads = new AtomicInteger();
+
+    public PollingRelay(codeu.chat.relay.Server relay) {
+      this.relay = relay;
+    }
+
+    @Override
+    public Relay.Bundle.Component pack(Uuid id, String text, Time time) {
+      return relay.pack(id, text, time);
+    }
+
+    @Override
+    public boolean write(Uuid teamId,
+                         Secret teamSecret,
+                         Relay.Bundle.Component user,
+                         Relay.Bundle.Component conversation,
+                         Relay.Bundle.Component message) {
+      return relay.write(teamId, teamSecret, user, conversation, message);
+    }
+
+    @Override
+    public Collection<Relay.Bundle> read(Uuid teamId, Secret teamSecret, Uuid root, int range) {
+      final Collection<Relay.Bundle> found = relay.read(teamId, teamSecret, root, range);
+      delivered.addAndGet(found.size());
+      if (found.isEmpty()) {
+        emptyReads.incrementAndGet();
+      }
+      return found;
+    }
+
+    @Override
+    public boolean subscribe(Uuid teamId,
+                             Secret teamSecret,
+                             Uuid root,
+                             int window,
+                             Relay.Subscriber subscriber) {
+      return false;
+    }
+  }
+
+  // A connection that reads a request from memory and keeps the response.
+  private static final class MemoryConnection implements Connection {
+
+    private final InputStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    public MemoryConnection(int type) throws IOException {
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(request, type);
+      in = new ByteArrayInputStream(request.toByteArray());
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void close() { closed.countDown(); }
+
+    public byte[] response() throws InterruptedException {
+      assertTrue(closed.await(5, TimeUnit.SECONDS));
+      return out.toByteArray();
+    }
+  }
+
+  @Test
+  public void testStatsCountRequests() throws Exception {
+
+    final Server server = new Server(new Uuid(3), new Secret((byte)0x01), new NoOpRelay());
+
+    try {
+
+      for (int i = 0; i < 3; i++) {
+        final MemoryConnection info = new MemoryConnection(NetworkCode.SERVER_INFO_REQUEST);
+        server.handleConnection(info);
+        assertTrue(info.response().length > 4);
+      }
+
+      // Unknown types are all counted as NO_MESSAGE.
+      final MemoryConnection unknown = new MemoryConnection(9999);
+      server.handleConnection(unknown);
+      unknown.response();
+
+      final ServerStats.Command info = find(server.stats(), NetworkCode.SERVER_INFO_REQUEST);
+      assertEquals(3, info.count);
+      assertEquals(0, info.errors);
+      assertEquals(12, info.bytesIn);
+      assertTrue(info.bytesOut > 12);
+      assertTrue(info.maxUs >= info.p50Us);
+
+      final ServerStats.Command rejected = find(server.stats(), NetworkCode.NO_MESSAGE);
+      assertEquals(1, rejected.count);
+      assertEquals(4, rejected.bytesOut);
+
+      // The stats request sees itself.
+      final MemoryConnection stats = new MemoryConnection(NetworkCode.SERVER_STATS_REQUEST);
+      server.handleConnection(stats);
+
+      final InputStream response = new ByteArrayInputStream(stats.response());
+      assertEquals(NetworkCode.SERVER_STATS_RESPONSE, (int) Serializers.INTEGER.read(response));
+      assertEquals(3, find(ServerStats.SERIALIZER.read(response),
+                           NetworkCode.SERVER_INFO_REQUEST).count);
+
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRequestsRecordFlightEvents() throws Exception {
+
+    final Server server = new Server(new Uuid(3), new Secret((byte)0x01), new NoOpRelay());
+    final Path file = Files.createTempFile("server", ".jfr");
+
+    try (final Recording recording = new Recording()) {
+
+      recording.enable("codeu.chat.Request");
+      recording.start();
+
+      final MemoryConnection info = new MemoryConnection(NetworkCode.SERVER_INFO_REQUEST);
+      server.handleConnection(info);
+      info.response();
+
+      recording.stop();
+      recording.dump(file);
+
+      int found = 0;
+      for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if ("codeu.chat.Request".equals(event.getEventType().getName())) {
+          assertEquals(NetworkCode.SERVER_INFO_REQUEST, event.getInt("type"));
+          assertEquals("SERVER_INFO_REQUEST", event.getString("command"));
+          assertEquals(4, event.getLong("bytesIn"));
+          assertFalse(event.getBoolean("failed"));
+          found++;
+        }
+      }
+
+      assertEquals(1, found);
+
+    } finally {
+      server.stop();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static ServerStats.Command find(ServerStats stats, int code) {
+    for (final ServerStats.Command command : stats.commands) {
+      if (command.code == code) {
+        return command;
+      }
+    }
+    fail("No stats for " + NetworkCode.name(code));
+    return null;
+  }
+
+  @Test
+  public void testCatchUpReadsAllPagesWithoutWaiting() throws Exception {
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    // The relay will only give out 16 bundles per read, so catching up on 1000
+    // bundles one page per refresh would take minutes.
+    final codeu.chat.relay.Server relay = new codeu.chat.relay.Server(1024, 16);
+    assertTrue(relay.addTeam(team, secret));
+
+    final Time time = Time.now();
+
+    for (int i = 0; i < 1000; i++) {
+      relay.write(team,
+                  secret,
+                  relay.pack(new Uuid(10 + i % 5), "User", time),
+                  relay.pack(new Uuid(20 + i % 3), "Conversation", time),
+                  relay.pack(new Uuid(100 + i), "Hello World", time));
+    }
+
+    final PollingRelay polling = new PollingRelay(relay);
+    final Server server = new Server(team, secret, polling);
+
+    final long end = System.currentTimeMillis() + 4000;
+
+    while (System.currentTimeMillis() < end &&
+           (polling.emptyReads.get() == 0 || server.relayPendingBundles() > 0)) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1000, polling.delivered.get());
+    assertEquals(0, server.relayPendingBundles());
+    assertEquals(0, server.stats().relayPendingBundles);
+
+    server.stop();
+  }
+}
@@ -0,0 +1,244 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Relay;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ShardedRelayTest {
+
+  private final Uuid team = new Uuid(3);
+  private final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+  private codeu.chat.relay.Server[] shards;
+  private ShardedRelay relay;
+
+  @Before
+  public void doBefore() {
+
+    shards = new codeu.chat.relay.Server[4];
+    relay = new ShardedRelay();
+
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new codeu.chat.relay.Server(1024, 16);
+      shards[i].addTeam(team, secret);
+    }
+
+    // The last shard is kept back for testing adding a shard.
+    for (int i = 0; i < 3; i++) {
+      relay.addShard("localhost@" + (2007 + i), shards[i], 16);
+    }
+  }
+
+  @Test
+  public void testConversationStaysOnOneShard() {
+
+    for (int i = 0; i < 20; i++) {
+      assertTrue(write(new Uuid(100), new Uuid(1000 + i)));
+    }
+
+    int used = 0;
+    for (final codeu.chat.relay.Server shard : shards) {
+      used += shard.historySize() > 0 ? 1 : 0;
+    }
+
+    assertEquals(1, used);
+  }
+
+  @Test
+  public void testReadMergesAllShards() {
+
+    for (int i = 0; i < 90; i++) {
+      assertTrue(write(new Uuid(100 + i % 30), new Uuid(1000 + i)));
+    }
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue("Expected every shard to own a conversation", shards[i].historySize() > 0);
+    }
+
+    final Set<Uuid> messages = readAll(Uuid.NULL, 8);
+
+    assertEquals(90, messages.size());
+  }
+
+  @Test
+  public void testIdleShardDoesNotShortenReads() {
+
+    // Find a conversation on the first shard and one on the second.
+    Uuid quiet = null;
+    Uuid busy = null;
+    for (int i = 0; quiet == null || busy == null; i++) {
+      final Relay shard = relay.shardFor(new Uuid(100 + i));
+      if (shard == shards[0] && quiet == null) {
+        quiet = new Uuid(100 + i);
+      } else if (shard == shards[1] && busy == null) {
+        busy = new Uuid(100 + i);
+      }
+    }
+
+    assertTrue(write(quiet, new Uuid(1000)));
+    for (int i = 1; i <= 50; i++) {
+      assertTrue(write(busy, new Uuid(1000 + i)));
+    }
+
+    assertEquals(1, shards[0].historySize());
+    assertEquals(50, shards[1].historySize());
+
+    // The quiet shard had everything in its first page, so it does not stop
+    // the busy one from filling the read.
+    assertEquals(16, relay.read(team, secret, Uuid.NULL, 16).size());
+    assertEquals(51, readAll(Uuid.NULL, 16).size());
+  }
+
+  @Test
+  public void testReadLongerThanShardLimitKeepsOrder() {
+
+    Uuid first = null;
+    Uuid second = null;
+    for (int i = 0; first == null || second == null; i++) {
+      final Relay shard = relay.shardFor(new Uuid(100 + i));
+      if (shard == shards[0] && first == null) {
+        first = new Uuid(100 + i);
+      } else if (shard == shards[1] && second == null) {
+        second = new Uuid(100 + i);
+      }
+    }
+
+    for (int i = 0; i < 20; i++) {
+      assertTrue(write(first, new Uuid(1000 + i)));
+    }
+    for (int i = 0; i < 20; i++) {
+      assertTrue(write(second, new Uuid(2000 + i)));
+    }
+
+    // Each shard gives out 16 at most, so the first shard's page is cut short
+    // and the rest of it must come before anything from the second shard.
+    final List<Uuid> order = new ArrayList<>();
+    Uuid cursor = Uuid.NULL;
+    for (Collection<Relay.Bundle> page = relay.read(team, secret, cursor, 128);
+         !page.isEmpty();
+         page = relay.read(team, secret, cursor, 128)) {
+      for (final Relay.Bundle bundle : page) {
+        order.add(bundle.message().id());
+        cursor = bundle.id();
+      }
+    }
+
+    assertEquals(40, order.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(new Uuid(1000 + i), order.get(i));
+      assertEquals(new Uuid(2000 + i), order.get(20 + i));
+    }
+  }
+
+  @Test
+  public void testAddShardMovesSomeConversations() {
+
+    final Map<Uuid, Relay> before = new HashMap<>();
+    for (int i = 0; i < 200; i++) {
+      before.put(new Uuid(100 + i), relay.shardFor(new Uuid(100 + i)));
+    }
+
+    relay.addShard("localhost@2010", shards[3], 16);
+
+    int moved = 0;
+    for (final Map.Entry<Uuid, Relay> entry : before.entrySet()) {
+      final Relay now = relay.shardFor(entry.getKey());
+      if (now != entry.getValue()) {
+        // A conversation may only move to the new shard.
+        assertSame(shards[3], now);
+        moved++;
+      }
+    }
+
+    assertTrue(moved > 0);
+    assertTrue(moved < 200);
+  }
+
+  @Test
+  public void testCursorSurvivesAddingShard() {
+
+    for (int i = 0; i < 30; i++) {
+      assertTrue(write(new Uuid(100 + i), new Uuid(1000 + i)));
+    }
+
+    Uuid cursor = Uuid.NULL;
+    final Set<Uuid> messages = new HashSet<>();
+
+    for (Collection<Relay.Bundle> page = relay.read(team, secret, cursor, 8);
+         !page.isEmpty();
+         page = relay.read(team, secret, cursor, 8)) {
+      for (final Relay.Bundle bundle : page) {
+        messages.add(bundle.message().id());
+        cursor = bundle.id();
+      }
+    }
+
+    relay.addShard("localhost@2010", shards[3], 16);
+
+    for (int i = 30; i < 60; i++) {
+      assertTrue(write(new Uuid(100 + i), new Uuid(1000 + i)));
+    }
+
+    assertTrue(shards[3].historySize() > 0);
+
+    // Carrying on from the old cursor must give exactly the new messages.
+    final Set<Uuid> after = readAll(cursor, 8);
+
+    assertEquals(30, after.size());
+    for (final Uuid message : after) {
+      assertFalse(messages.contains(message));
+    }
+  }
+
+  private boolean write(Uuid conversation, Uuid message) {
+    final Time time = Time.now();
+    return relay.write(team,
+                       secret,
+                       relay.pack(new Uuid(4), "User", time),
+                       relay.pack(conversation, "Conversation", time),
+                       relay.pack(message, "Hello World", time));
+  }
+
+  private Set<Uuid> readAll(Uuid cursor, int range) {
+
+    final Set<Uuid> messages = new HashSet<>();
+
+    for (Collection<Relay.Bundle> page = relay.read(team, secret, cursor, range);
+         !page.isEmpty();
+         page = relay.read(team, secret, cursor, range)) {
+      for (final Relay.Bundle bundle : page) {
+        assertTrue("Message read twice", messages.add(bundle.message().id()));
+        cursor = bundle.id();
+      }
+    }
+
+    return messages;
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SubscriptionsTest {
+
+  private static final Uuid OWNER = new Uuid(1);
+  private static final Uuid MEMBER = new Uuid(2);
+  private static final Uuid STRANGER = new Uuid(3);
+
+  private static ConversationHeader conversation() {
+    final ConversationHeader conversation =
+        new ConversationHeader(new Uuid(10), OWNER, Time.now(), "conversation");
+    conversation.userCategory.put(MEMBER, 1);
+    return conversation;
+  }
+
+  private static Message message(int id) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.now(), OWNER, "message " + id);
+  }
+
+  @Test
+  public void testOnlyMembersGetMessages() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(10);
+
+    final Subscriptions.Subscription owner = subscriptions.subscribe(OWNER);
+    final Subscriptions.Subscription member = subscriptions.subscribe(MEMBER);
+    final Subscriptions.Subscription stranger = subscriptions.subscribe(STRANGER);
+
+    subscriptions.publish(conversation(), message(100));
+
+    assertEquals(new Uuid(100), owner.next(0).message.id);
+    assertEquals(new Uuid(10), member.next(0).conversation);
+    assertNull(stranger.next(0));
+
+    // Once unsubscribed nothing more is queued.
+    subscriptions.unsubscribe(member);
+    subscriptions.publish(conversation(), message(101));
+
+    assertNull(member.next(0));
+    assertEquals(new Uuid(101), owner.next(0).message.id);
+    assertEquals(2, subscriptions.size());
+  }
+
+  @Test
+  public void testFullQueueDropsSubscription() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(2);
+    final Subscriptions.Subscription slow = subscriptions.subscribe(MEMBER);
+
+    subscriptions.publish(conversation(), message(100));
+    subscriptions.publish(conversation(), message(101));
+    assertFalse(slow.dropped());
+
+    subscriptions.publish(conversation(), message(102));
+    assertTrue(slow.dropped());
+
+    // What was queued before the drop is still delivered, in order, and then
+    // "next" stops waiting.
+    final Collection<Subscriptions.Update> updates = new ArrayList<>();
+    slow.drainTo(updates);
+
+    assertEquals(2, updates.size());
+    assertEquals(new Uuid(100), updates.iterator().next().message.id);
+
+    final long start = System.nanoTime();
+    assertNull(slow.next(10000));
+    assertTrue(System.nanoTime() - start < 1000000000L);
+
+    // Nothing is queued once dropped, even with room again.
+    subscriptions.publish(conversation(), message(103));
+    assertNull(slow.next(0));
+  }
+}
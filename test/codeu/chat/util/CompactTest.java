@@ -0,0 +1,179 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import codeu.chat.common.Message;
+
+public final class CompactTest {
+
+  @Test
+  public void testNumbersRoundTrip() throws IOException {
+
+    final long[] longs = { 0, 1, -1, 63, -64, 64, 300, -300, Long.MAX_VALUE, Long.MIN_VALUE };
+    final int[] ints = { 0, 1, -1, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Compact.Output out = new Compact.Output(bytes);
+
+    for (final long value : longs) {
+      Serializers.LONG.write(out, value);
+    }
+    for (final int value : ints) {
+      Serializers.INTEGER.write(out, value);
+    }
+
+    final Compact.Input in = new Compact.Input(new ByteArrayInputStream(bytes.toByteArray()));
+
+    for (final long value : longs) {
+      assertEquals(value, (long) Serializers.LONG.read(in));
+    }
+    for (final int value : ints) {
+      assertEquals(value, (int) Serializers.INTEGER.read(in));
+    }
+  }
+
+  @Test
+  public void testSmallNumbersAreOneByte() throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Compact.Output out = new Compact.Output(bytes);
+
+    Serializers.INTEGER.write(out, 63);
+    Serializers.INTEGER.write(out, -64);
+
+    assertEquals(2, bytes.size());
+  }
+
+  @Test
+  public void testLongUuidChainsRoundTrip() throws IOException {
+
+    Uuid chain = null;
+    for (int i = 0; i < 255; i++) {
+      chain = new Uuid(chain, i);
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Compact.Output out = new Compact.Output(bytes);
+
+    Uuid.SERIALIZER.write(out, chain);
+    Uuid.SERIALIZER.write(out, new Uuid(chain.root(), 1000));
+
+    final Compact.Input in = new Compact.Input(new ByteArrayInputStream(bytes.toByteArray()));
+
+    assertTrue(Uuid.equals(chain, Uuid.SERIALIZER.read(in)));
+    assertTrue(Uuid.equals(new Uuid(chain.root(), 1000), Uuid.SERIALIZER.read(in)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testEndlessUuidChainIsRefused() throws IOException {
+
+    // Every byte starts another new Uuid whose root comes next. Reading this
+    // used to recurse until the stack ran out.
+    final byte[] bytes = new byte[200 * 1024];
+    Arrays.fill(bytes, (byte) 0x02);
+
+    Uuid.SERIALIZER.read(new Compact.Input(new ByteArrayInputStream(bytes)));
+  }
+
+  @Test
+  public void testRepeatedUuidsAreReferences() throws IOException {
+
+    final Uuid root = new Uuid(7);
+    final Uuid a = new Uuid(root, 123456789);
+    final Uuid b = new Uuid(root, -5);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Compact.Output out = new Compact.Output(bytes);
+
+    Uuid.SERIALIZER.write(out, a);
+    final int first = bytes.size();
+
+    // A repeat is just its index.
+    Uuid.SERIALIZER.write(out, a);
+    assertEquals(first + 1, bytes.size());
+
+    Uuid.SERIALIZER.write(out, null);
+    Uuid.SERIALIZER.write(out, b);
+
+    final Compact.Input in = new Compact.Input(new ByteArrayInputStream(bytes.toByteArray()));
+
+    assertEquals(a, Uuid.SERIALIZER.read(in));
+    assertEquals(a, Uuid.SERIALIZER.read(in));
+    assertNull(Uuid.SERIALIZER.read(in));
+    assertEquals(b, Uuid.SERIALIZER.read(in));
+  }
+
+  @Test
+  public void testBadUuidReferenceFails() {
+    try {
+      Uuid.SERIALIZER.read(new Compact.Input(new ByteArrayInputStream(new byte[] { 3 })));
+      fail("Read a Uuid that was never written");
+    } catch (IOException ex) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testMessagePageIsSmaller() throws IOException {
+
+    final Uuid server = new Uuid(42);
+    final Uuid author = new Uuid(server, 99991);
+    final Collection<Message> page = new ArrayList<>();
+
+    Uuid previous = Uuid.NULL;
+    for (int i = 0; i < 100; i++) {
+      final Uuid id = new Uuid(server, 1000003 * i);
+      final Uuid next = new Uuid(server, 1000003 * (i + 1));
+      page.add(new Message(id, next, previous, Time.fromMs(1500000000000L + 1500 * i), author, "hi"));
+      previous = id;
+    }
+
+    final Serializer<Collection<Message>> serializer = Serializers.collection(Message.SERIALIZER);
+
+    final ByteArrayOutputStream standard = new ByteArrayOutputStream();
+    serializer.write(standard, page);
+
+    final ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    serializer.write(new Compact.Output(compact), page);
+
+    assertTrue(compact.size() * 3 < standard.size());
+
+    final Collection<Message> read =
+        serializer.read(new Compact.Input(new ByteArrayInputStream(compact.toByteArray())));
+
+    assertEquals(page.size(), read.size());
+    final Iterator<Message> expected = page.iterator();
+    for (final Message message : read) {
+      final Message original = expected.next();
+      assertEquals(original.id, message.id);
+      assertEquals(original.next, message.next);
+      assertEquals(original.previous, message.previous);
+      assertEquals(original.author, message.author);
+      assertEquals(original.creation.inMs(), message.creation.inMs());
+      assertEquals(original.content, message.content);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public final class DeflateTest {
+
+  private static byte[] text(int length) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; builder.length() < length; i++) {
+      builder.append("message ").append(i).append(" from the same user, ");
+    }
+    return Arrays.copyOf(builder.toString().getBytes(), length);
+  }
+
+  @Test
+  public void testSmallFramesAreRaw() throws IOException {
+
+    final Deflate deflate = new Deflate(6, 1024);
+    final byte[] bytes = text(1023);
+    final byte[] frame = deflate.pack(bytes);
+
+    assertEquals(Deflate.RAW, frame[0]);
+    assertEquals(bytes.length + 1, frame.length);
+    assertArrayEquals(bytes, Deflate.unpack(frame));
+  }
+
+  @Test
+  public void testLargeFramesAreDeflated() throws IOException {
+
+    final Deflate deflate = new Deflate(6, 1024);
+    final byte[] bytes = text(64 * 1024);
+    final byte[] frame = deflate.pack(bytes);
+
+    assertEquals(Deflate.DEFLATED, frame[0]);
+    assertTrue(frame.length < bytes.length / 4);
+    assertArrayEquals(bytes, Deflate.unpack(frame));
+
+    // The same thread's deflater is used again.
+    assertArrayEquals(frame, deflate.pack(bytes));
+  }
+
+  @Test
+  public void testFramesThatDoNotShrinkAreRaw() throws IOException {
+
+    final byte[] bytes = new byte[4096];
+    new Random(7).nextBytes(bytes);
+
+    final byte[] frame = new Deflate(9, 0).pack(bytes);
+
+    assertEquals(Deflate.RAW, frame[0]);
+    assertArrayEquals(bytes, Deflate.unpack(frame));
+  }
+
+  @Test
+  public void testBadFramesAreRefused() {
+
+    final byte[] frame = new Deflate(6, 0).pack(text(4097));
+
+    // Claims one byte more than it holds.
+    final byte[] longer = frame.clone();
+    longer[4]++;
+    assertRefused(longer);
+
+    // Claims one byte less than it holds.
+    final byte[] shorter = frame.clone();
+    shorter[4]--;
+    assertRefused(shorter);
+
+    // Claims far more than any frame may hold.
+    final byte[] huge = frame.clone();
+    huge[1] = 0x7F;
+    assertRefused(huge);
+
+    assertRefused(Arrays.copyOf(frame, frame.length / 2));
+    assertRefused(new byte[] { 9, 1, 2, 3 });
+    assertRefused(new byte[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadLevel() {
+    new Deflate(10, 1024);
+  }
+
+  @Test
+  public void testStreamsSendAFramePerFlush() throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Deflate.Output out = new Deflate.Output(bytes, new Deflate(6, 1024));
+
+    final byte[] small = text(100);
+    final byte[] large = text(32 * 1024);
+
+    out.write(small);
+    out.flush();
+    out.write(large);
+    out.flush();
+
+    // Nothing was written, so there is no empty frame.
+    out.flush();
+
+    final int sent = bytes.size();
+    assertTrue(sent < small.length + large.length / 4);
+
+    final Deflate.Input in = new Deflate.Input(new ByteArrayInputStream(bytes.toByteArray()));
+
+    final byte[] read = new byte[small.length + large.length];
+    Utf8.readFully(in, read, read.length);
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(small);
+    expected.write(large);
+
+    assertArrayEquals(expected.toByteArray(), read);
+    assertEquals(-1, in.read());
+  }
+
+  private static void assertRefused(byte[] frame) {
+    try {
+      Deflate.unpack(frame);
+      fail("Frame was not refused");
+    } catch (IOException ex) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+public final class EncodedFormTest {
+
+  @After
+  public void doAfter() {
+    EncodedForm.enabled(true);
+  }
+
+  private static <T> byte[] write(Serializer<T> serializer, T value, boolean encodedForm)
+      throws IOException {
+    EncodedForm.enabled(encodedForm);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testKeptFormMatchesFields() throws IOException {
+
+    final User user = new User(new Uuid(1), "user", Time.now());
+    final ConversationHeader conversation =
+        new ConversationHeader(new Uuid(2), user.id, Time.now(), "conversation");
+
+    final byte[] userFields = write(User.SERIALIZER, user, false);
+    assertArrayEquals(userFields, write(User.SERIALIZER, user, true));
+    assertArrayEquals(userFields, write(User.SERIALIZER, user, true));
+
+    final byte[] conversationFields = write(ConversationHeader.SERIALIZER, conversation, false);
+    assertArrayEquals(conversationFields, write(ConversationHeader.SERIALIZER, conversation, true));
+    assertArrayEquals(conversationFields, write(ConversationHeader.SERIALIZER, conversation, true));
+  }
+
+  @Test
+  public void testMessageNextIsAlwaysCurrent() throws IOException {
+
+    final Message message =
+        new Message(new Uuid(3), Uuid.NULL, new Uuid(2), Time.now(), new Uuid(1), "hello");
+
+    // Keep the encoded form while "next" is still NULL.
+    write(Message.SERIALIZER, message, true);
+
+    message.next = new Uuid(4);
+
+    final byte[] kept = write(Message.SERIALIZER, message, true);
+    assertArrayEquals(write(Message.SERIALIZER, message, false), kept);
+
+    final Message read = Message.SERIALIZER.read(new ByteArrayInputStream(kept));
+    assertEquals(new Uuid(4), read.next);
+    assertEquals(new Uuid(2), read.previous);
+    assertEquals("hello", read.content);
+  }
+}
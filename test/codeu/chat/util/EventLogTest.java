@@ -0,0 +1,227 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class EventLogTest {
+
+  private static final EventLog.Event EMPTY =
+      EventLog.define(900, "test.empty");
+  private static final EventLog.Event NUMBERS =
+      EventLog.define(901, "test.numbers", "small:int", "big:long", "took:duration");
+  private static final EventLog.Event MIXED =
+      EventLog.define(902, "test.mixed", "count:int", "id:uuid", "other:uuid");
+
+  private File dir;
+
+  @Before
+  public void doBefore() throws IOException {
+    dir = Files.createTempDirectory("events").toFile();
+  }
+
+  @After
+  public void doAfter() {
+    EventLog.close();
+    for (final File file : EventLog.segmentFiles(dir)) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    EventLog.open(dir, 1 << 16, 2);
+
+    final long before = System.currentTimeMillis();
+
+    EMPTY.log();
+    NUMBERS.log(-7, Long.MAX_VALUE, 1234567);
+    MIXED.log(new Uuid(new Uuid(1), -2), Uuid.NULL, 3);
+
+    final List<EventLog.Record> records = readAll();
+
+    assertEquals(3, records.size());
+
+    assertEquals("test.empty", records.get(0).event.name);
+    assertEquals(0, records.get(0).values.length);
+    assertTrue(records.get(0).timeMs >= before - 1);
+
+    final Object[] numbers = records.get(1).values;
+    assertEquals(-7L, numbers[0]);
+    assertEquals(Long.MAX_VALUE, numbers[1]);
+    assertEquals(1234567L, numbers[2]);
+
+    final Object[] mixed = records.get(2).values;
+    assertEquals(3L, mixed[0]);
+    assertEquals(new Uuid(new Uuid(1), -2), mixed[1]);
+    assertEquals(Uuid.NULL, mixed[2]);
+  }
+
+  @Test
+  public void testWrongArgumentsAreRejected() throws IOException {
+
+    EventLog.open(dir, 1 << 16, 2);
+
+    try {
+      NUMBERS.log(1, 2);
+      fail("Expected an exception");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+
+    try {
+      MIXED.log(1, 2, 3);
+      fail("Expected an exception");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testClosedLogIgnoresEvents() throws IOException {
+
+    EventLog.open(dir, 1 << 16, 2);
+    EMPTY.log();
+    EventLog.close();
+    EMPTY.log();
+
+    assertEquals(1, readAll().size());
+  }
+
+  @Test
+  public void testRotationKeepsNewestSegments() throws IOException {
+
+    EventLog.open(dir, 4096, 3);
+
+    // Each record is 36 bytes so this fills well over three segments.
+    for (int i = 0; i < 1000; i++) {
+      NUMBERS.log(i, i, i);
+    }
+
+    final List<File> files = EventLog.segmentFiles(dir);
+    assertEquals(3, files.size());
+
+    // Every segment decodes on its own and the last segment ends with the last
+    // event.
+    long last = -1;
+    for (final File file : files) {
+      final List<EventLog.Record> records = read(file);
+      assertFalse(records.isEmpty());
+      for (final EventLog.Record record : records) {
+        assertTrue((Long) record.values[0] > last);
+        last = (Long) record.values[0];
+      }
+    }
+
+    assertEquals(999, last);
+  }
+
+  @Test
+  public void testFullSegmentsAreUnmapped() throws IOException {
+
+    final int before = EventLog.mappedSegments();
+
+    EventLog.open(dir, 4096, 3);
+
+    for (int i = 0; i < 1000; i++) {
+      NUMBERS.log(i, i, i);
+    }
+
+    // Only the segment being written to is still mapped.
+    assertEquals(before + 1, EventLog.mappedSegments());
+
+    EventLog.close();
+    assertEquals(before, EventLog.mappedSegments());
+  }
+
+  @Test
+  public void testLeftoverSegmentsAreDeleted() throws IOException {
+
+    EventLog.open(dir, 4096, 6);
+    for (int i = 0; i < 1000; i++) {
+      NUMBERS.log(i, i, i);
+    }
+    assertEquals(6, EventLog.segmentFiles(dir).size());
+
+    // Opening again keeping fewer drops the extra old ones too.
+    EventLog.open(dir, 4096, 2);
+    assertEquals(2, EventLog.segmentFiles(dir).size());
+  }
+
+  @Test
+  public void testManyThreads() throws Exception {
+
+    EventLog.open(dir, 1 << 20, 4);
+
+    final Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int value = 0; value < 5000; value++) {
+            MIXED.log(new Uuid(thread), new Uuid(value), value);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final Set<String> seen = new HashSet<>();
+    for (final EventLog.Record record : readAll()) {
+      assertTrue(seen.add(record.values[1] + "/" + record.values[2]));
+      assertEquals(Long.valueOf(((Uuid) record.values[2]).id()), record.values[0]);
+    }
+
+    assertEquals(20000, seen.size());
+  }
+
+  private List<EventLog.Record> readAll() throws IOException {
+    final List<EventLog.Record> records = new ArrayList<>();
+    for (final File file : EventLog.segmentFiles(dir)) {
+      records.addAll(read(file));
+    }
+    return records;
+  }
+
+  private static List<EventLog.Record> read(File file) throws IOException {
+    final List<EventLog.Record> records = new ArrayList<>();
+    EventLog.read(file, new EventLog.Reader() {
+      @Override
+      public void onRecord(EventLog.Record record) {
+        records.add(record);
+      }
+    });
+    return records;
+  }
+}
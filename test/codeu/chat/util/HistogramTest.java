@@ -0,0 +1,73 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class HistogramTest {
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+
+    // Every value must land in a bucket whose top is at or above it and within
+    // 1/64th of it.
+    for (long value = 0; value < 100000; value++) {
+      final long highest = Histogram.highest(Histogram.index(value));
+      assertTrue(highest >= value);
+      assertTrue(highest - value <= Math.max(0, value / 64));
+    }
+
+    assertTrue(Histogram.highest(Histogram.index(Histogram.MAX_VALUE)) >= Histogram.MAX_VALUE);
+  }
+
+  @Test
+  public void testPercentiles() {
+
+    final Histogram histogram = new Histogram();
+
+    for (long value = 1; value <= 10000; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(10000, histogram.count());
+    assertEquals(10000, histogram.max());
+    assertEquals(5000.5, histogram.mean(), 0.001);
+
+    assertNear(5000, histogram.percentile(50));
+    assertNear(9900, histogram.percentile(99));
+    assertEquals(10000, histogram.percentile(100));
+  }
+
+  @Test
+  public void testEmptyAndClamped() {
+
+    final Histogram histogram = new Histogram();
+
+    assertEquals(0, histogram.percentile(50));
+
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(2, histogram.count());
+    assertEquals(0, histogram.percentile(50));
+    assertEquals(Histogram.MAX_VALUE, histogram.max());
+  }
+
+  private static void assertNear(long expected, long actual) {
+    assertTrue(actual + " is not near " + expected,
+               actual >= expected && actual <= expected + expected / 64);
+  }
+}
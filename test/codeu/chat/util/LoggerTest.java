@@ -0,0 +1,182 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class LoggerTest {
+
+  private final List<LogRecord> records =
+      Collections.synchronizedList(new ArrayList<LogRecord>());
+
+  private final Handler handler = new Handler() {
+    @Override
+    public void publish(LogRecord record) {
+      // Other tests may leave threads behind that still log.
+      if (LoggerTest.class.getName().equals(record.getLoggerName())) {
+        records.add(record);
+      }
+    }
+    @Override
+    public void flush() { }
+    @Override
+    public void close() { }
+  };
+
+  private final java.util.logging.Logger root =
+      java.util.logging.Logger.getLogger("codeu.chat");
+
+  private final Logger.Log log = Logger.newLog(LoggerTest.class);
+
+  @Before
+  public void doBefore() {
+    // Make sure nothing from before the test is still on its way.
+    assertTrue(Logger.flush());
+    root.addHandler(handler);
+  }
+
+  @After
+  public void doAfter() {
+    Logger.flush();
+    root.removeHandler(handler);
+    Logger.enableCallerInfo(false);
+  }
+
+  @Test
+  public void testRecordIsFormattedAndWritten() {
+
+    log.warning("Value is %d (%s)", 7, "seven");
+
+    assertTrue(Logger.flush());
+    assertEquals(1, records.size());
+
+    final LogRecord record = records.get(0);
+
+    assertEquals(Level.WARNING, record.getLevel());
+    assertEquals("Value is 7 (seven)", record.getMessage());
+    assertEquals(LoggerTest.class.getName(), record.getSourceClassName());
+    assertNull(record.getSourceMethodName());
+  }
+
+  @Test
+  public void testDisabledLevelDoesNotFormat() {
+
+    final AtomicInteger formatted = new AtomicInteger();
+    final Object param = new Object() {
+      @Override
+      public String toString() {
+        formatted.incrementAndGet();
+        return "param";
+      }
+    };
+
+    log.verbose("Not logged %s", param);
+    log.info("Logged %s", param);
+
+    assertTrue(Logger.flush());
+    assertEquals(1, records.size());
+    assertEquals(1, formatted.get());
+  }
+
+  @Test
+  public void testCallerInfoWhenEnabled() {
+
+    Logger.enableCallerInfo(true);
+    log.info("Where am I?");
+
+    assertTrue(Logger.flush());
+    assertEquals(1, records.size());
+    assertEquals("testCallerInfoWhenEnabled", records.get(0).getSourceMethodName());
+  }
+
+  @Test
+  public void testRingIsBounded() {
+
+    final LogRing<Integer> ring = new LogRing<>(5);
+
+    assertEquals(8, ring.capacity());
+
+    for (int i = 0; i < 8; i++) {
+      assertTrue(ring.offer(i));
+    }
+
+    assertFalse(ring.offer(8));
+    assertEquals(0, (int) ring.poll());
+    assertTrue(ring.offer(8));
+
+    for (int i = 1; i <= 8; i++) {
+      assertEquals(i, (int) ring.poll());
+    }
+
+    assertNull(ring.poll());
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void testRingManyWriters() throws Exception {
+
+    final LogRing<Integer> ring = new LogRing<>(64);
+    final Thread[] writers = new Thread[4];
+
+    for (int i = 0; i < writers.length; i++) {
+      final int first = i * 10000;
+      writers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int value = first; value < first + 10000; value++) {
+            while (!ring.offer(value)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      writers[i].start();
+    }
+
+    final Set<Integer> seen = new HashSet<>();
+    final int[] last = { -1, -1, -1, -1 };
+
+    while (seen.size() < 40000) {
+      final Integer value = ring.poll();
+      if (value == null) {
+        Thread.yield();
+        continue;
+      }
+      assertTrue(seen.add(value));
+      // Values from one writer come out in the order they went in.
+      assertTrue(value > last[value / 10000]);
+      last[value / 10000] = value;
+    }
+
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+
+    assertNull(ring.poll());
+  }
+}
@@ -0,0 +1,410 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class TimelineTest {
+
+  private Timeline timeline;
+
+  @Before
+  public void doBefore() {
+    timeline = new Timeline(5);
+  }
+
+  @After
+  public void doAfter() {
+    timeline.stop();
+    timeline.join();
+  }
+
+  @Test
+  public void testScheduleNowKeepsOrder() throws Exception {
+
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(1000);
+
+    for (int i = 0; i < 1000; i++) {
+      final int value = i;
+      timeline.scheduleNow(new Runnable() {
+        @Override
+        public void run() {
+          order.add(value);
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  @Test
+  public void testErrorDoesNotStopTheTimeline() throws Exception {
+
+    final CountDownLatch done = new CountDownLatch(1);
+
+    timeline.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        throw new StackOverflowError();
+      }
+    });
+
+    timeline.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testScheduleInWaits() throws Exception {
+
+    final CountDownLatch done = new CountDownLatch(1);
+    final long start = System.currentTimeMillis();
+    final long[] ran = new long[1];
+
+    timeline.scheduleIn(100, new Runnable() {
+      @Override
+      public void run() {
+        ran[0] = System.currentTimeMillis();
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(ran[0] - start >= 100);
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+
+    final AtomicInteger ran = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+
+    final Timeline.Handle handle = timeline.scheduleIn(50, new Runnable() {
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    });
+
+    assertTrue(handle.cancel());
+    assertFalse(handle.cancel());
+
+    timeline.scheduleIn(100, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, ran.get());
+  }
+
+  @Test
+  public void testManyPendingEvents() throws Exception {
+
+    final AtomicInteger ran = new AtomicInteger();
+    final Runnable count = new Runnable() {
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    };
+
+    // Timeouts that almost never fire: schedule a lot of them far out (some
+    // further than a full turn of the wheel) and cancel all but a few.
+    final List<Timeline.Handle> handles = new ArrayList<>();
+
+    for (int i = 0; i < 200000; i++) {
+      handles.add(timeline.scheduleIn(60000 + i % 10000, count));
+    }
+
+    for (final Timeline.Handle handle : handles) {
+      assertTrue(handle.cancel());
+    }
+
+    final CountDownLatch done = new CountDownLatch(100);
+
+    for (int i = 0; i < 100; i++) {
+      timeline.scheduleIn(i % 20, new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, ran.get());
+  }
+
+  @Test
+  public void testSameKeyKeepsOrder() throws Exception {
+
+    final Timeline lanes = new Timeline(5, 4);
+
+    try {
+
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      final CountDownLatch done = new CountDownLatch(1000);
+
+      for (int i = 0; i < 1000; i++) {
+        final int value = i;
+        lanes.scheduleNow(new Uuid(7), new Runnable() {
+          @Override
+          public void run() {
+            order.add(value);
+            done.countDown();
+          }
+        });
+      }
+
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i, (int) order.get(i));
+      }
+
+    } finally {
+      lanes.stop();
+      lanes.join();
+    }
+  }
+
+  @Test
+  public void testDifferentKeysRunTogether() throws Exception {
+
+    final Timeline lanes = new Timeline(5, 2);
+
+    try {
+
+      // Both events can only get past the barrier if they are running at the
+      // same time. Keys 0 and 1 land on different lanes.
+      final CyclicBarrier barrier = new CyclicBarrier(2);
+      final CountDownLatch done = new CountDownLatch(2);
+
+      for (int i = 0; i < 2; i++) {
+        lanes.scheduleNow(Integer.valueOf(i), new Runnable() {
+          @Override
+          public void run() {
+            try {
+              barrier.await(5, TimeUnit.SECONDS);
+              done.countDown();
+            } catch (Exception ex) {
+              // The count will not reach zero.
+            }
+          }
+        });
+      }
+
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    } finally {
+      lanes.stop();
+      lanes.join();
+    }
+  }
+
+  @Test
+  public void testFixedRateRunsUntilCancelled() throws Exception {
+
+    final AtomicInteger ran = new AtomicInteger();
+    final CountDownLatch five = new CountDownLatch(5);
+
+    final Timeline.Periodic periodic = timeline.scheduleAtFixedRate(0, 20, new Runnable() {
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+        five.countDown();
+      }
+    });
+
+    assertTrue(five.await(5, TimeUnit.SECONDS));
+    assertTrue(periodic.cancel());
+    assertFalse(periodic.cancel());
+
+    final int stopped = ran.get();
+    Thread.sleep(100);
+
+    assertEquals(stopped, ran.get());
+    assertEquals(stopped, periodic.runs());
+  }
+
+  @Test
+  public void testFixedRateCountsMissedRuns() throws Exception {
+
+    final CountDownLatch three = new CountDownLatch(3);
+
+    // Every run takes longer than the period, so at least one run must be
+    // skipped after each run.
+    final Timeline.Periodic periodic = timeline.scheduleAtFixedRate(0, 10, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(35);
+        } catch (InterruptedException ex) {
+          // Let the run end early.
+        }
+        three.countDown();
+      }
+    });
+
+    assertTrue(three.await(5, TimeUnit.SECONDS));
+    periodic.cancel();
+
+    // The stats for a run are recorded after the callback returns.
+    Thread.sleep(50);
+
+    assertTrue(periodic.runs() >= 3);
+    assertTrue(periodic.missed() >= periodic.runs() - 1);
+    assertTrue(periodic.maxRunMs() >= 30);
+    assertTrue(periodic.averageRunMs() >= 30);
+  }
+
+  @Test
+  public void testFixedDelayWaitsAfterEachRun() throws Exception {
+
+    final CountDownLatch two = new CountDownLatch(2);
+    final long[] times = new long[2];
+
+    final Timeline.Periodic periodic = timeline.scheduleWithFixedDelay(0, 100, new Runnable() {
+      @Override
+      public void run() {
+        times[2 - (int) two.getCount()] = System.currentTimeMillis();
+        two.countDown();
+      }
+    });
+
+    assertTrue(two.await(5, TimeUnit.SECONDS));
+    periodic.cancel();
+
+    assertTrue(times[1] - times[0] >= 100);
+    assertEquals(0, periodic.missed());
+  }
+
+  @Test
+  public void testInteractiveRunsFirst() throws Exception {
+
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch release = block(timeline);
+    final CountDownLatch done = new CountDownLatch(9);
+
+    for (int i = 0; i < 3; i++) {
+      record(timeline, Timeline.Priority.MAINTENANCE, "M", order, done);
+      record(timeline, Timeline.Priority.REPLICATION, "R", order, done);
+      record(timeline, Timeline.Priority.INTERACTIVE, "I", order, done);
+    }
+
+    assertEquals(3, timeline.stats(Timeline.Priority.INTERACTIVE).depth);
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    assertEquals(
+        Arrays.asList("I", "I", "I", "R", "R", "R", "M", "M", "M"),
+        order);
+  }
+
+  @Test
+  public void testLowPriorityIsNotStarved() throws Exception {
+
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch release = block(timeline);
+    final CountDownLatch done = new CountDownLatch(101);
+
+    record(timeline, Timeline.Priority.MAINTENANCE, "M", order, done);
+
+    for (int i = 0; i < 100; i++) {
+      record(timeline, Timeline.Priority.INTERACTIVE, "I", order, done);
+    }
+
+    Thread.sleep(Timeline.STARVATION_MS + 50);
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    // The maintenance event waited past the limit so it goes before the
+    // interactive events queued with it.
+    assertEquals("M", order.get(0));
+
+    final Timeline.QueueStats stats = timeline.stats(Timeline.Priority.MAINTENANCE);
+
+    assertEquals(0, stats.depth);
+    assertEquals(1, stats.runs);
+    assertTrue(stats.maxWaitMs >= Timeline.STARVATION_MS);
+    // The interactive runs include the event that held the thread.
+    assertEquals(101, timeline.stats(Timeline.Priority.INTERACTIVE).runs);
+  }
+
+  // Hold the timeline's thread until the returned latch is released, so that
+  // events scheduled in the meantime queue up behind it.
+  private static CountDownLatch block(Timeline timeline) throws Exception {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    timeline.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          // Let the timeline carry on.
+        }
+      }
+    });
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return release;
+  }
+
+  private static void record(Timeline timeline,
+                             Timeline.Priority priority,
+                             final String name,
+                             final List<String> order,
+                             final CountDownLatch done) {
+    timeline.scheduleNow(priority, new Runnable() {
+      @Override
+      public void run() {
+        order.add(name);
+        done.countDown();
+      }
+    });
+  }
+}
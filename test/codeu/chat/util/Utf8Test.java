@@ -0,0 +1,158 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+public final class Utf8Test {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static byte[] write(String value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.STRING.write(out, value);
+    return out.toByteArray();
+  }
+
+  // Give back at most one byte per read, like a slow socket.
+  private static InputStream trickle(byte[] bytes) {
+    return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return super.read(buffer, offset, Math.min(length, 1));
+      }
+    };
+  }
+
+  @Test
+  public void testMatchesJavaEncoding() throws IOException {
+
+    final StringBuilder mixed = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      mixed.append("a\u00e9\u4e2d\ud83d\ude00");
+    }
+
+    final String[] values = {
+        "",
+        "hello",
+        "caf\u00e9",
+        "\u4e2d\u6587",
+        "smile \ud83d\ude00",
+        mixed.toString()
+    };
+
+    for (final String value : values) {
+
+      final byte[] encoded = write(value);
+      final byte[] expected = value.getBytes(UTF8);
+
+      final ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(prefix, expected.length);
+      prefix.write(expected);
+
+      assertArrayEquals(prefix.toByteArray(), encoded);
+      assertEquals(value, Serializers.STRING.read(new ByteArrayInputStream(encoded)));
+      assertEquals(value, Serializers.STRING.read(trickle(encoded)));
+    }
+  }
+
+  @Test
+  public void testLoneSurrogateIsReplaced() throws IOException {
+    final String value = "a\ud800b";
+    assertEquals(value.getBytes(UTF8).length, Utf8.length(value));
+    assertEquals("a?b", Serializers.STRING.read(new ByteArrayInputStream(write(value))));
+  }
+
+  @Test
+  public void testBadLengthsAreRefused() throws IOException {
+
+    for (final int length : new int[] { -1, Serializers.MAX_LENGTH + 1, Integer.MAX_VALUE }) {
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(out, length);
+
+      try {
+        Serializers.BYTES.read(new ByteArrayInputStream(out.toByteArray()));
+        fail("Read a value of length " + length);
+      } catch (IOException ex) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testShortValueFails() throws IOException {
+
+    final byte[] encoded = write("hello");
+    final byte[] cut = new byte[encoded.length - 1];
+    System.arraycopy(encoded, 0, cut, 0, cut.length);
+
+    try {
+      Serializers.STRING.read(new ByteArrayInputStream(cut));
+      fail("Read a string that was cut short");
+    } catch (EOFException ex) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testClaimedLengthIsNotAllocatedUpFront() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, Serializers.MAX_LENGTH);
+    out.write(new byte[10]);
+
+    final int[] largest = { 0 };
+    final InputStream in = new FilterInputStream(new ByteArrayInputStream(out.toByteArray())) {
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        largest[0] = Math.max(largest[0], buffer.length);
+        return super.read(buffer, offset, length);
+      }
+    };
+
+    try {
+      Serializers.BYTES.read(in);
+      fail("Read a value that was cut short");
+    } catch (EOFException ex) {
+      // Expected.
+    }
+
+    assertTrue(largest[0] < 64 * 1024);
+  }
+
+  @Test
+  public void testLargeBytesRoundTrip() throws IOException {
+
+    final byte[] value = new byte[100000];
+    for (int i = 0; i < value.length; i++) {
+      value[i] = (byte) (i * 31);
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.BYTES.write(out, value);
+
+    assertArrayEquals(value, Serializers.BYTES.read(trickle(out.toByteArray())));
+  }
+}